@@ -0,0 +1,139 @@
+package org.littleshoot.stun.stack;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.littleshoot.mina.common.IoSession;
+import org.littleshoot.stun.stack.message.StunMessage;
+import org.littleshoot.stun.stack.transaction.RetransmittingStunTransactionTracker;
+import org.littleshoot.stun.stack.transaction.StunTransactionListener;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Non-blocking STUN client that returns a future for each request.  Requests
+ * go through a {@link RetransmittingStunTransactionTracker}, which sends 
+ * them, retransmits them and matches responses, so the future completes 
+ * when the response arrives or the transaction times out without any 
+ * thread waiting on it.
+ * <p>
+ * Futures succeed with the response to a successful transaction and fail
+ * with a {@link StunTransactionException} otherwise.  Since they're 
+ * {@link ListenableFuture}s, many in-flight requests can be combined with
+ * {@link com.google.common.util.concurrent.Futures#allAsList(Iterable)}, 
+ * {@link com.google.common.util.concurrent.Futures#successfulAsList(Iterable)}
+ * or {@link #firstSuccessful(Iterable)}.  Cancelling a future cancels the
+ * transaction and stops retransmissions.
+ * <p>
+ * The tracker must also be the one the session's message visitors use to 
+ * look up transactions for incoming responses.
+ */
+public class AsyncStunClient {
+
+    /**
+     * Runs listeners on the thread completing the future.  Listeners here
+     * only complete other futures.
+     */
+    private static final Executor DIRECT = new Executor() {
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+
+    private final RetransmittingStunTransactionTracker<StunMessage> m_tracker;
+
+    /**
+     * Creates a new client.
+     * 
+     * @param tracker The tracker for sending requests and matching responses.
+     */
+    public AsyncStunClient(
+            final RetransmittingStunTransactionTracker<StunMessage> tracker) {
+        this.m_tracker = tracker;
+    }
+
+    /**
+     * Sends the specified request to the remote host of the specified 
+     * session.
+     * 
+     * @param request The request to send.
+     * @param session The session to send the request over.
+     * @return The future response.
+     */
+    public ListenableFuture<StunMessage> send(final StunMessage request,
+            final IoSession session) {
+        final SettableFuture<StunMessage> future = SettableFuture.create();
+        final StunTransactionListener<Object> listener = 
+            new StunTransactionListener<Object>() {
+            public Object onTransactionSucceeded(final StunMessage message,
+                    final StunMessage response) {
+                future.set(response);
+                return null;
+            }
+
+            public Object onTransactionFailed(final StunMessage message,
+                    final StunMessage response) {
+                future.setException(
+                    new StunTransactionException(message, response));
+                return null;
+            }
+        };
+        this.m_tracker.addTransaction(request, listener,
+            (InetSocketAddress) session.getLocalAddress(),
+            (InetSocketAddress) session.getRemoteAddress(), session);
+
+        future.addListener(new Runnable() {
+            public void run() {
+                if (!future.isCancelled()) {
+                    return;
+                }
+                m_tracker.cancelTransaction(request);
+            }
+        }, DIRECT);
+        return future;
+    }
+
+    /**
+     * Returns a future that completes with the first of the specified 
+     * responses to succeed.  If they all fail, the returned future fails 
+     * with the last failure.  The remaining futures are left running.
+     * 
+     * @param futures The futures to wait for.
+     * @return The future for the first successful response.
+     */
+    public static ListenableFuture<StunMessage> firstSuccessful(
+            final Iterable<? extends ListenableFuture<StunMessage>> futures) {
+        final SettableFuture<StunMessage> first = SettableFuture.create();
+        final AtomicInteger remaining = new AtomicInteger(1);
+        for (final ListenableFuture<StunMessage> future : futures) {
+            remaining.incrementAndGet();
+            future.addListener(new Runnable() {
+                public void run() {
+                    try {
+                        first.set(future.get());
+                    } catch (final Exception e) {
+                        if (remaining.decrementAndGet() == 0) {
+                            first.setException(failureCause(e));
+                        }
+                    }
+                }
+            }, DIRECT);
+        }
+        if (remaining.decrementAndGet() == 0) {
+            first.setException(
+                new IllegalArgumentException("No futures to wait for"));
+        }
+        return first;
+    }
+
+    private static Throwable failureCause(final Exception e) {
+        if (e instanceof ExecutionException
+                && e.getCause() != null) {
+            return e.getCause();
+        }
+        return e;
+    }
+}
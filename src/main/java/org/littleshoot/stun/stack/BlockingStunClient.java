@@ -0,0 +1,353 @@
+package org.littleshoot.stun.stack;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.stun.stack.decoder.StunDatagramDecodingState;
+import org.littleshoot.stun.stack.encoder.StunMessageEncoder;
+import org.littleshoot.stun.stack.message.BindingRequest;
+import org.littleshoot.stun.stack.message.BindingSuccessResponse;
+import org.littleshoot.stun.stack.message.StunMessage;
+import org.littleshoot.stun.stack.transaction.StunClientTransaction;
+import org.littleshoot.stun.stack.transaction.StunMessageSender;
+import org.littleshoot.stun.stack.transaction.StunTransactionListener;
+import org.littleshoot.stun.stack.transaction.StunTransactionTrackerImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * STUN client with a blocking API, for callers that prefer to send a request
+ * and wait for the response in straight-line code.  All requests go out over
+ * a single shared UDP socket, and a single thread receives responses and
+ * matches them to their transactions with a
+ * {@link StunTransactionTrackerImpl}, which also handles retransmissions and
+ * timeouts.
+ * <p>
+ * Waiting callers park with {@link LockSupport} rather than waiting on a
+ * monitor, so very large numbers of callers can wait at once, including
+ * on virtual threads, without holding locks or pinning carrier threads.
+ * <p>
+ * Callers never touch the socket themselves.  The channel is interruptible,
+ * and interrupting a thread in the middle of sending on it would close it
+ * for every caller, so requests are queued for a single sending thread
+ * instead.
+ */
+public class BlockingStunClient {
+
+    private static final Logger LOG =
+        LoggerFactory.getLogger(BlockingStunClient.class);
+
+    /**
+     * The encoder holds no state, so all clients share it.
+     */
+    private static final StunMessageEncoder ENCODER = new StunMessageEncoder();
+
+    /**
+     * Large enough for any response we expect over UDP.
+     */
+    private static final int MAX_DATAGRAM = 1500;
+
+    private final DatagramChannel m_channel;
+
+    private final StunTransactionTrackerImpl m_tracker;
+
+    private final InetSocketAddress m_localAddress;
+
+    private final Thread m_receiveThread;
+
+    private final Thread m_sendThread;
+
+    private final BlockingQueue<Outgoing> m_outgoing =
+        new LinkedBlockingQueue<Outgoing>();
+
+    private volatile boolean m_closed;
+
+    /**
+     * Creates a new client bound to an ephemeral port.
+     *
+     * @throws IOException If we can't open the socket.
+     */
+    public BlockingStunClient() throws IOException {
+        this(new InetSocketAddress(0), new StunTransactionTrackerImpl());
+    }
+
+    /**
+     * Creates a new client.
+     *
+     * @param bindAddress The local address to bind to.
+     * @param tracker The tracker for matching responses, retransmitting
+     * requests and timing out transactions.
+     * @throws IOException If we can't open the socket.
+     */
+    public BlockingStunClient(final InetSocketAddress bindAddress,
+            final StunTransactionTrackerImpl tracker) throws IOException {
+        this.m_tracker = tracker;
+        this.m_channel = DatagramChannel.open();
+        try {
+            this.m_channel.socket().bind(bindAddress);
+        } catch (final IOException e) {
+            this.m_channel.close();
+            throw e;
+        }
+        this.m_localAddress =
+            (InetSocketAddress) this.m_channel.socket().getLocalSocketAddress();
+        this.m_receiveThread = new Thread(new Runnable() {
+            public void run() {
+                receive();
+            }
+        }, "STUN-Blocking-Client-Receiver");
+        this.m_receiveThread.setDaemon(true);
+        this.m_sendThread = new Thread(new Runnable() {
+            public void run() {
+                sendQueued();
+            }
+        }, "STUN-Blocking-Client-Sender");
+        this.m_sendThread.setDaemon(true);
+        this.m_receiveThread.start();
+        this.m_sendThread.start();
+    }
+
+    /**
+     * Sends a binding request to the specified server and waits for the
+     * mapped address in the response.
+     *
+     * @param server The STUN server.
+     * @return The server reflexive address the server saw us at.
+     * @throws IOException If the transaction fails or times out, or we're
+     * interrupted while waiting.
+     */
+    public InetSocketAddress getServerReflexiveAddress(
+            final InetSocketAddress server) throws IOException {
+        final StunMessage request = new BindingRequest();
+        final StunMessage response = send(request, server);
+        if (!(response instanceof BindingSuccessResponse)) {
+            throw new StunTransactionException(request, response);
+        }
+        return ((BindingSuccessResponse) response).getMappedAddress();
+    }
+
+    /**
+     * Sends the specified request to the specified server and waits for the
+     * response.
+     *
+     * @param request The request to send.
+     * @param server The server to send the request to.
+     * @return The response to a successful transaction.
+     * @throws IOException If the transaction fails or times out, or we're
+     * interrupted while waiting.
+     */
+    public StunMessage send(final StunMessage request,
+            final InetSocketAddress server) throws IOException {
+        if (this.m_closed) {
+            throw new ClosedChannelException();
+        }
+        final Waiter waiter = new Waiter(Thread.currentThread());
+        this.m_tracker.addTransaction(request, waiter, this.m_localAddress,
+            server, new ChannelSender(server));
+
+        while (!waiter.m_done) {
+            LockSupport.park(this);
+            final boolean interrupted = Thread.interrupted();
+            if (interrupted) {
+                if (!waiter.m_done) {
+                    this.m_tracker.cancelTransaction(request);
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(
+                        "Interrupted waiting for response to: " + request);
+                }
+                // The response beat the interrupt, but the caller still
+                // needs to see it.
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!waiter.m_succeeded) {
+            throw new StunTransactionException(request, waiter.m_response);
+        }
+        return waiter.m_response;
+    }
+
+    /**
+     * Cancels the transaction for the specified request, if it's still
+     * outstanding.  The caller waiting for its response gets a
+     * {@link StunTransactionException}.  This lets callers abandon requests
+     * without interrupting the threads waiting for them.
+     *
+     * @param request The request.
+     * @return <code>true</code> if we canceled the transaction.
+     */
+    public boolean cancel(final StunMessage request) {
+        return this.m_tracker.cancelTransaction(request);
+    }
+
+    /**
+     * Accessor for the local address of the shared socket.
+     *
+     * @return The local address.
+     */
+    public InetSocketAddress getLocalAddress() {
+        return this.m_localAddress;
+    }
+
+    /**
+     * Closes the socket.  Outstanding transactions fail on their next
+     * retransmission.
+     */
+    public void close() {
+        this.m_closed = true;
+        try {
+            this.m_channel.close();
+        } catch (final IOException e) {
+            LOG.debug("Error closing channel", e);
+        }
+        this.m_sendThread.interrupt();
+    }
+
+    private void sendQueued() {
+        while (!this.m_closed) {
+            final Outgoing outgoing;
+            try {
+                outgoing = this.m_outgoing.take();
+            } catch (final InterruptedException e) {
+                // Only close interrupts us.
+                continue;
+            }
+            try {
+                this.m_channel.send(outgoing.m_buf.buf(), outgoing.m_server);
+            } catch (final ClosedChannelException e) {
+                if (!this.m_closed) {
+                    LOG.warn("Channel closed -- closing client", e);
+                    close();
+                }
+                return;
+            } catch (final IOException e) {
+                // We'll retransmit or time out as if the datagram was lost.
+                LOG.debug("Could not send to " + outgoing.m_server, e);
+            }
+        }
+    }
+
+    private void receive() {
+        final java.nio.ByteBuffer nioBuf =
+            java.nio.ByteBuffer.allocate(MAX_DATAGRAM);
+        final ByteBuffer buf = ByteBuffer.wrap(nioBuf);
+        while (!this.m_closed) {
+            nioBuf.clear();
+            try {
+                if (this.m_channel.receive(nioBuf) == null) {
+                    continue;
+                }
+            } catch (final IOException e) {
+                if (!this.m_closed) {
+                    LOG.warn("Error receiving -- closing client", e);
+                    close();
+                }
+                return;
+            }
+            nioBuf.flip();
+            buf.position(0);
+            buf.limit(nioBuf.limit());
+            final StunMessage message;
+            try {
+                message = StunDatagramDecodingState.decode(buf);
+            } catch (final RuntimeException e) {
+                LOG.debug("Could not decode datagram", e);
+                continue;
+            }
+            if (message == null) {
+                continue;
+            }
+            final StunClientTransaction<StunMessage> ct =
+                this.m_tracker.getClientTransaction(message);
+            if (ct != null) {
+                message.accept(ct);
+            }
+        }
+    }
+
+    /**
+     * Sends requests to a single server over the shared socket.
+     */
+    private final class ChannelSender implements StunMessageSender {
+
+        private final InetSocketAddress m_server;
+
+        private ChannelSender(final InetSocketAddress server) {
+            this.m_server = server;
+        }
+
+        public void send(final StunMessage message) {
+            // Encoding is safe on the caller's thread, but the send isn't.
+            m_outgoing.add(new Outgoing(ENCODER.encode(message),
+                this.m_server));
+        }
+
+        public boolean isClosed() {
+            return m_closed;
+        }
+
+        public boolean isReliable() {
+            return false;
+        }
+    }
+
+    /**
+     * An encoded datagram waiting for the sending thread.
+     */
+    private static final class Outgoing {
+
+        private final ByteBuffer m_buf;
+
+        private final InetSocketAddress m_server;
+
+        private Outgoing(final ByteBuffer buf,
+                final InetSocketAddress server) {
+            this.m_buf = buf;
+            this.m_server = server;
+        }
+    }
+
+    /**
+     * Records the outcome of a transaction and wakes up the waiting thread.
+     */
+    private static final class Waiter implements
+        StunTransactionListener<Object> {
+
+        private final Thread m_thread;
+
+        private volatile StunMessage m_response;
+
+        private volatile boolean m_succeeded;
+
+        private volatile boolean m_done;
+
+        private Waiter(final Thread thread) {
+            this.m_thread = thread;
+        }
+
+        public Object onTransactionSucceeded(final StunMessage request,
+                final StunMessage response) {
+            return complete(response, true);
+        }
+
+        public Object onTransactionFailed(final StunMessage request,
+                final StunMessage response) {
+            return complete(response, false);
+        }
+
+        private Object complete(final StunMessage response,
+                final boolean succeeded) {
+            this.m_response = response;
+            this.m_succeeded = succeeded;
+            this.m_done = true;
+            LockSupport.unpark(this.m_thread);
+            return null;
+        }
+    }
+}
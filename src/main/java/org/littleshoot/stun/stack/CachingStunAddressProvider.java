@@ -0,0 +1,296 @@
+package org.littleshoot.stun.stack;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link StunAddressProvider} that caches the server reflexive and relay
+ * addresses of another provider.  Cached addresses are kept for a TTL and
+ * refreshed in the background before they expire, so callers almost never
+ * wait on the network.  When callers do have to wait, concurrent callers
+ * share a single request to the underlying provider.  Whenever a refresh
+ * returns a different address than before, for example because a NAT
+ * rebound us to a new port, we notify any {@link StunAddressListener}s.
+ */
+public class CachingStunAddressProvider implements StunAddressProvider {
+
+    private static final Logger LOG =
+        LoggerFactory.getLogger(CachingStunAddressProvider.class);
+
+    /**
+     * The default time to keep addresses, in milliseconds.
+     */
+    public static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(2);
+
+    /**
+     * How far into the TTL we refresh addresses in the background.
+     */
+    private static final double REFRESH_FRACTION = 0.75;
+
+    private final StunAddressProvider m_provider;
+
+    private final long m_ttl;
+
+    private final ScheduledExecutorService m_scheduler;
+
+    private final List<StunAddressListener> m_listeners =
+        new CopyOnWriteArrayList<StunAddressListener>();
+
+    private final CachedAddress m_reflexive = new CachedAddress() {
+        @Override
+        protected InetSocketAddress load() throws IOException {
+            return m_provider.getServerReflexiveAddress();
+        }
+
+        @Override
+        protected void notifyChanged(final StunAddressListener listener,
+                final InetSocketAddress oldAddress,
+                final InetSocketAddress newAddress) {
+            listener.onServerReflexiveAddressChanged(oldAddress, newAddress);
+        }
+    };
+
+    private final CachedAddress m_relay = new CachedAddress() {
+        @Override
+        protected InetSocketAddress load() {
+            return m_provider.getRelayAddress();
+        }
+
+        @Override
+        protected void notifyChanged(final StunAddressListener listener,
+                final InetSocketAddress oldAddress,
+                final InetSocketAddress newAddress) {
+            listener.onRelayAddressChanged(oldAddress, newAddress);
+        }
+    };
+
+    private volatile boolean m_closed;
+
+    /**
+     * Creates a new provider caching addresses for {@link #DEFAULT_TTL}.
+     *
+     * @param provider The provider to cache addresses for.
+     */
+    public CachingStunAddressProvider(final StunAddressProvider provider) {
+        this(provider, DEFAULT_TTL);
+    }
+
+    /**
+     * Creates a new provider.
+     *
+     * @param provider The provider to cache addresses for.
+     * @param ttl The time to keep addresses, in milliseconds.
+     */
+    public CachingStunAddressProvider(final StunAddressProvider provider,
+            final long ttl) {
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("Bad TTL: " + ttl);
+        }
+        this.m_provider = provider;
+        this.m_ttl = ttl;
+        this.m_scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "STUN-Address-Refresh");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Adds a listener for address changes.
+     *
+     * @param listener The listener to add.
+     */
+    public void addListener(final StunAddressListener listener) {
+        this.m_listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener for address changes.
+     *
+     * @param listener The listener to remove.
+     */
+    public void removeListener(final StunAddressListener listener) {
+        this.m_listeners.remove(listener);
+    }
+
+    public InetSocketAddress getHostAddress() {
+        return this.m_provider.getHostAddress();
+    }
+
+    public InetSocketAddress getServerReflexiveAddress() throws IOException {
+        return this.m_reflexive.get();
+    }
+
+    public InetAddress getStunServerAddress() {
+        return this.m_provider.getStunServerAddress();
+    }
+
+    public InetSocketAddress getRelayAddress() {
+        try {
+            return this.m_relay.get();
+        } catch (final IOException e) {
+            LOG.debug("Could not get relay address", e);
+            return null;
+        }
+    }
+
+    public void close() {
+        this.m_closed = true;
+        this.m_scheduler.shutdownNow();
+        this.m_provider.close();
+    }
+
+    /**
+     * A single cached address, along with any request for it that's in
+     * flight.  Null addresses aren't cached, so we ask again next time.
+     */
+    private abstract class CachedAddress {
+
+        private volatile InetSocketAddress m_address;
+
+        private volatile long m_expires;
+
+        /**
+         * The request in flight, if any.  Guarded by this.
+         */
+        private FutureTask<InetSocketAddress> m_inFlight;
+
+        /**
+         * The next background refresh.  Guarded by this.
+         */
+        private ScheduledFuture<?> m_nextRefresh;
+
+        protected abstract InetSocketAddress load() throws IOException;
+
+        protected abstract void notifyChanged(StunAddressListener listener,
+            InetSocketAddress oldAddress, InetSocketAddress newAddress);
+
+        private InetSocketAddress get() throws IOException {
+            final InetSocketAddress address = this.m_address;
+            if (address != null && System.nanoTime() - this.m_expires < 0) {
+                return address;
+            }
+            return await(refresh());
+        }
+
+        /**
+         * Starts a request for the address unless one is already in flight,
+         * running it on the calling thread if we started it.
+         *
+         * @return The request.
+         */
+        private FutureTask<InetSocketAddress> refresh() {
+            final FutureTask<InetSocketAddress> task;
+            synchronized (this) {
+                if (this.m_inFlight != null) {
+                    return this.m_inFlight;
+                }
+                task = new FutureTask<InetSocketAddress>(
+                    new Callable<InetSocketAddress>() {
+                    public InetSocketAddress call() throws IOException {
+                        try {
+                            return update(load());
+                        } finally {
+                            synchronized (CachedAddress.this) {
+                                m_inFlight = null;
+                            }
+                        }
+                    }
+                });
+                this.m_inFlight = task;
+            }
+            task.run();
+            return task;
+        }
+
+        private InetSocketAddress update(final InetSocketAddress address) {
+            if (address == null) {
+                return null;
+            }
+            final InetSocketAddress old = this.m_address;
+            this.m_expires = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(m_ttl);
+            this.m_address = address;
+            scheduleRefresh();
+            if (old != null && !old.equals(address)) {
+                LOG.debug("Address changed from {} to {}", old, address);
+                for (final StunAddressListener listener : m_listeners) {
+                    try {
+                        notifyChanged(listener, old, address);
+                    } catch (final RuntimeException e) {
+                        LOG.warn("Error notifying listener", e);
+                    }
+                }
+            }
+            return address;
+        }
+
+        private void scheduleRefresh() {
+            if (m_closed) {
+                return;
+            }
+            final Runnable task = new Runnable() {
+                public void run() {
+                    try {
+                        await(refresh());
+                    } catch (final IOException e) {
+                        // We'll keep the old address until it expires,
+                        // at which point callers try again.
+                        LOG.debug("Background refresh failed", e);
+                    }
+                }
+            };
+            synchronized (this) {
+                if (this.m_nextRefresh != null) {
+                    this.m_nextRefresh.cancel(false);
+                }
+                try {
+                    this.m_nextRefresh = m_scheduler.schedule(task,
+                        (long) (m_ttl * REFRESH_FRACTION),
+                        TimeUnit.MILLISECONDS);
+                } catch (final RejectedExecutionException e) {
+                    // We're closed.
+                }
+            }
+        }
+
+        private InetSocketAddress await(
+                final FutureTask<InetSocketAddress> task) throws IOException {
+            try {
+                return task.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for "
+                        + "address");
+            } catch (final ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException("Could not get address: " + cause);
+            }
+        }
+    }
+}
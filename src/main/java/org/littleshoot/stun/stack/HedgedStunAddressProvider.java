@@ -0,0 +1,463 @@
+package org.littleshoot.stun.stack;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.littleshoot.stun.stack.message.BindingRequest;
+import org.littleshoot.stun.stack.message.BindingSuccessResponse;
+import org.littleshoot.stun.stack.message.StunMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Discovers the server reflexive address by querying several STUN servers
+ * at once.  Each lookup starts with binding requests to the servers that
+ * have answered fastest in the past, and hedges by querying another server
+ * each time the lookup takes longer than most recent lookups did.  The
+ * lookup returns as soon as the answers are consistent: either a server
+ * confirms the address we found last time, or two servers agree.  Until
+ * then, whenever no query is outstanding we ask the next server straight
+ * away.  Once every server has answered or failed, or the lookup times
+ * out, we settle for any answer we have.
+ * <p>
+ * This keeps a single slow or unreachable server from holding up the
+ * lookup, which matters since callers often can't start until they know
+ * their public address.
+ */
+public class HedgedStunAddressProvider implements StunAddressProvider {
+
+    private static final Logger LOG =
+        LoggerFactory.getLogger(HedgedStunAddressProvider.class);
+
+    /**
+     * The default number of servers to query before hedging.
+     */
+    public static final int DEFAULT_INITIAL_FANOUT = 2;
+
+    /**
+     * The default time to wait for a consistent answer, in milliseconds.
+     */
+    public static final long DEFAULT_TIMEOUT = 5000;
+
+    /**
+     * The hedge delay to use before we've timed any lookups, in
+     * milliseconds.
+     */
+    private static final long DEFAULT_HEDGE_DELAY = 250;
+
+    private static final long MIN_HEDGE_DELAY = 20;
+
+    /**
+     * The number of recent round trip times we keep for picking the hedge
+     * delay.
+     */
+    private static final int LATENCY_SAMPLES = 64;
+
+    /**
+     * The percentile of recent round trip times after which we hedge.
+     */
+    private static final double HEDGE_PERCENTILE = 0.95;
+
+    private final BlockingStunClient m_client;
+
+    private final StunServerResolver m_resolver;
+
+    private final List<InetSocketAddress> m_servers;
+
+    private final int m_initialFanout;
+
+    private final long m_timeout;
+
+    private final ConcurrentMap<InetSocketAddress, ServerStats> m_stats =
+        new ConcurrentHashMap<InetSocketAddress, ServerStats>();
+
+    private final long[] m_latencies = new long[LATENCY_SAMPLES];
+
+    private int m_latencyCount;
+
+    private final ExecutorService m_executor;
+
+    private volatile InetSocketAddress m_lastAddress;
+
+    private volatile InetSocketAddress m_lastServer;
+
+    /**
+     * Creates a new provider querying the servers in
+     * {@link StunConstants#SERVERS} over a new client socket.
+     *
+     * @throws IOException If we can't open the client socket.
+     */
+    public HedgedStunAddressProvider() throws IOException {
+        this(new BlockingStunClient(), StunServerResolver.getDefault(),
+            StunConstants.SERVERS, DEFAULT_INITIAL_FANOUT, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Creates a new provider.
+     *
+     * @param client The client to send binding requests with.
+     * @param resolver The resolver for looking up unresolved servers when
+     * we first query them.
+     * @param servers The servers to query.  Duplicates are ignored.
+     * @param initialFanout The number of servers to query before hedging.
+     * @param timeout The time to wait for a consistent answer, in
+     * milliseconds.
+     */
+    public HedgedStunAddressProvider(final BlockingStunClient client,
+            final StunServerResolver resolver,
+            final Collection<InetSocketAddress> servers,
+            final int initialFanout, final long timeout) {
+        if (servers.isEmpty()) {
+            throw new IllegalArgumentException("No STUN servers");
+        }
+        if (initialFanout <= 0 || timeout <= 0) {
+            throw new IllegalArgumentException("Bad settings: "
+                    + initialFanout + ", " + timeout);
+        }
+        this.m_client = client;
+        this.m_resolver = resolver;
+        this.m_servers = Collections.unmodifiableList(
+            new ArrayList<InetSocketAddress>(
+                new LinkedHashSet<InetSocketAddress>(servers)));
+        for (final InetSocketAddress server : this.m_servers) {
+            this.m_stats.put(server, new ServerStats());
+        }
+        this.m_initialFanout = initialFanout;
+        this.m_timeout = timeout;
+        this.m_executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger m_count = new AtomicInteger();
+
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r,
+                    "STUN-Hedged-Lookup-" + m_count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public InetSocketAddress getHostAddress() {
+        return this.m_client.getLocalAddress();
+    }
+
+    public InetSocketAddress getServerReflexiveAddress() throws IOException {
+        final List<InetSocketAddress> ranked = rankServers();
+        final CompletionService<Answer> completions =
+            new ExecutorCompletionService<Answer>(this.m_executor);
+        final List<Lookup> lookups = new ArrayList<Lookup>(ranked.size());
+        final long hedgeDelay = hedgeDelay();
+        final long deadline = System.nanoTime()
+            + TimeUnit.MILLISECONDS.toNanos(this.m_timeout);
+
+        int next = 0;
+        while (next < Math.min(this.m_initialFanout, ranked.size())) {
+            submit(completions, lookups, ranked.get(next++));
+        }
+        int outstanding = lookups.size();
+        final List<Answer> answers = new ArrayList<Answer>();
+        IOException failure = null;
+        try {
+            while (outstanding > 0) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                final Future<Answer> done = completions.poll(
+                    Math.min(remaining,
+                        TimeUnit.MILLISECONDS.toNanos(hedgeDelay)),
+                    TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    // Hedge -- nothing answered within the usual time.
+                    if (next < ranked.size()) {
+                        LOG.debug("Hedging to {}", ranked.get(next));
+                        submit(completions, lookups, ranked.get(next++));
+                        outstanding++;
+                    }
+                    continue;
+                }
+                outstanding--;
+                try {
+                    final Answer answer = done.get();
+                    if (isConsistent(answer, answers)) {
+                        return settle(answer);
+                    }
+                    answers.add(answer);
+                } catch (final ExecutionException e) {
+                    failure = toIOException(e.getCause());
+                    // Replace the failed server right away.
+                    if (next < ranked.size()) {
+                        submit(completions, lookups, ranked.get(next++));
+                        outstanding++;
+                    }
+                }
+                // Nothing left to wait for, but the answers so far are
+                // unconfirmed or disagree -- ask the next server right away
+                // rather than settling.
+                if (outstanding == 0 && next < ranked.size()) {
+                    LOG.debug("Asking {} to confirm", ranked.get(next));
+                    submit(completions, lookups, ranked.get(next++));
+                    outstanding++;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during lookup");
+        } finally {
+            // Cancel the transactions of lookups still waiting, rather
+            // than interrupting their threads.
+            for (final Lookup lookup : lookups) {
+                lookup.cancel();
+            }
+        }
+        if (!answers.isEmpty()) {
+            return settle(answers.get(0));
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        throw new IOException("No STUN server answered within "
+                + this.m_timeout + "ms");
+    }
+
+    private void submit(final CompletionService<Answer> completions,
+            final List<Lookup> lookups, final InetSocketAddress server) {
+        final Lookup lookup = new Lookup(server);
+        lookups.add(lookup);
+        completions.submit(lookup);
+    }
+
+    private boolean isConsistent(final Answer answer,
+            final List<Answer> answers) {
+        if (answer.m_address.equals(this.m_lastAddress)) {
+            return true;
+        }
+        for (final Answer other : answers) {
+            if (answer.m_address.equals(other.m_address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private InetSocketAddress settle(final Answer answer) {
+        this.m_lastAddress = answer.m_address;
+        this.m_lastServer = answer.m_resolved;
+        return answer.m_address;
+    }
+
+    /**
+     * Orders the servers so we query those that answered fastest first,
+     * followed by those we haven't heard from yet and finally those that
+     * failed most recently.
+     */
+    private List<InetSocketAddress> rankServers() {
+        final InetSocketAddress[] servers =
+            this.m_servers.toArray(new InetSocketAddress[0]);
+        final long[] scores = new long[servers.length];
+        for (int i = 0; i < servers.length; i++) {
+            scores[i] = this.m_stats.get(servers[i]).score();
+        }
+        final Integer[] order = new Integer[servers.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(final Integer a, final Integer b) {
+                final long sa = scores[a];
+                final long sb = scores[b];
+                return sa < sb ? -1 : (sa == sb ? 0 : 1);
+            }
+        });
+        final List<InetSocketAddress> ranked =
+            new ArrayList<InetSocketAddress>(servers.length);
+        for (final Integer i : order) {
+            ranked.add(servers[i]);
+        }
+        return ranked;
+    }
+
+    private long hedgeDelay() {
+        final long[] sorted;
+        synchronized (this.m_latencies) {
+            if (this.m_latencyCount == 0) {
+                return DEFAULT_HEDGE_DELAY;
+            }
+            final int n = Math.min(this.m_latencyCount, LATENCY_SAMPLES);
+            sorted = Arrays.copyOf(this.m_latencies, n);
+        }
+        Arrays.sort(sorted);
+        final int index = Math.min(sorted.length - 1,
+            (int) (sorted.length * HEDGE_PERCENTILE));
+        return Math.max(MIN_HEDGE_DELAY,
+            TimeUnit.NANOSECONDS.toMillis(sorted[index]));
+    }
+
+    private void addLatency(final long nanos) {
+        synchronized (this.m_latencies) {
+            this.m_latencies[this.m_latencyCount % LATENCY_SAMPLES] = nanos;
+            this.m_latencyCount++;
+        }
+    }
+
+    private static IOException toIOException(final Throwable t) {
+        if (t instanceof IOException) {
+            return (IOException) t;
+        }
+        final IOException e = new IOException("Lookup failed");
+        e.initCause(t);
+        return e;
+    }
+
+    /**
+     * Returns the address of the server that gave us the last answer, or
+     * <code>null</code> if we haven't heard from any.
+     */
+    public InetAddress getStunServerAddress() {
+        final InetSocketAddress server = this.m_lastServer;
+        if (server != null) {
+            return server.getAddress();
+        }
+        return null;
+    }
+
+    /**
+     * This provider only discovers server reflexive addresses, so this
+     * always returns <code>null</code>.
+     */
+    public InetSocketAddress getRelayAddress() {
+        return null;
+    }
+
+    public void close() {
+        this.m_executor.shutdownNow();
+        this.m_client.close();
+    }
+
+    /**
+     * Sends a binding request to a single server and times the answer.
+     */
+    private final class Lookup implements Callable<Answer> {
+
+        private final InetSocketAddress m_server;
+
+        private final BindingRequest m_request = new BindingRequest();
+
+        private volatile boolean m_canceled;
+
+        private Lookup(final InetSocketAddress server) {
+            this.m_server = server;
+        }
+
+        /**
+         * Cancels the lookup.  A lookup that hasn't sent its request yet
+         * won't send it, and one waiting for an answer stops waiting.
+         */
+        private void cancel() {
+            this.m_canceled = true;
+            m_client.cancel(this.m_request);
+        }
+
+        public Answer call() throws IOException {
+            final ServerStats stats = m_stats.get(this.m_server);
+            final InetSocketAddress resolved;
+            final StunMessage response;
+            final long start;
+            try {
+                resolved = m_resolver.resolve(this.m_server);
+                if (this.m_canceled) {
+                    throw new InterruptedIOException("Lookup canceled");
+                }
+                start = System.nanoTime();
+
+                // If we're canceled between the check and the send, the
+                // transaction just runs to its timeout on this pool thread.
+                response = m_client.send(this.m_request, resolved);
+            } catch (final IOException e) {
+                if (this.m_canceled || e instanceof InterruptedIOException) {
+                    // That says nothing about the server.
+                    throw e;
+                }
+                LOG.debug("No answer from " + this.m_server, e);
+                stats.onFailure();
+                throw e;
+            }
+            if (!(response instanceof BindingSuccessResponse)) {
+                stats.onFailure();
+                throw new StunTransactionException(this.m_request, response);
+            }
+            final long rtt = System.nanoTime() - start;
+            stats.onSuccess(rtt);
+            addLatency(rtt);
+            return new Answer(resolved,
+                ((BindingSuccessResponse) response).getMappedAddress());
+        }
+    }
+
+    private static final class Answer {
+
+        private final InetSocketAddress m_resolved;
+
+        private final InetSocketAddress m_address;
+
+        private Answer(final InetSocketAddress resolved,
+                final InetSocketAddress address) {
+            this.m_resolved = resolved;
+            this.m_address = address;
+        }
+    }
+
+    /**
+     * What we know about how fast a single server answers.
+     */
+    private static final class ServerStats {
+
+        /**
+         * Servers we haven't heard from rank after any server that answered
+         * within this time.
+         */
+        private static final long UNKNOWN_SCORE =
+            TimeUnit.MILLISECONDS.toNanos(DEFAULT_HEDGE_DELAY);
+
+        private long m_srtt = -1;
+
+        private int m_failures;
+
+        private synchronized void onSuccess(final long rtt) {
+            this.m_srtt = this.m_srtt < 0 ? rtt
+                : this.m_srtt - (this.m_srtt >> 3) + (rtt >> 3);
+            this.m_failures = 0;
+        }
+
+        private synchronized void onFailure() {
+            this.m_failures++;
+        }
+
+        private synchronized long score() {
+            if (this.m_failures > 0) {
+                return Long.MAX_VALUE - (Integer.MAX_VALUE - this.m_failures);
+            }
+            return this.m_srtt < 0 ? UNKNOWN_SCORE : this.m_srtt;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.littleshoot.stun.stack;
+
+import org.littleshoot.mina.common.IdleStatus;
+import org.littleshoot.mina.common.IoServiceConfig;
+import org.littleshoot.mina.common.IoSession;
+import org.littleshoot.mina.common.IoSessionRecycler;
+import org.littleshoot.mina.transport.socket.nio.DatagramAcceptorConfig;
+import org.littleshoot.mina.transport.socket.nio.DatagramServiceConfig;
+import org.littleshoot.stun.stack.message.StunMessage;
+import org.littleshoot.stun.stack.message.StunMessageVisitorFactory;
+
+/**
+ * {@link StunIoHandler} for servers answering large numbers of one-shot UDP
+ * clients, such as public STUN servers.  Sessions aren't initialized, and
+ * are closed after a second without traffic rather than the usual idle
+ * timeout.  Paired with a datagram {@link StunProtocolCodecFactory}, whose
+ * decoder is shared by all sessions, nothing is kept per remote peer, so
+ * memory depends on how many clients we hear from each second rather than
+ * on how many distinct clients we see.
+ * <p>
+ * Acceptors should also configure MINA's no-op session recycler with
+ * {@link #configure(DatagramAcceptorConfig)}.  MINA then creates a fresh
+ * session for every datagram, and this handler closes each session as soon
+ * as the visitor has returned and everything it wrote has been sent.  A
+ * visitor can write several messages in response to one datagram, and none
+ * of them is lost.  With any other recycler, MINA hands all datagrams from
+ * a peer to the same session, and closing it early would drop datagrams
+ * already on their way to it, so sessions only close when idle.
+ * <p>
+ * This only suits servers, as clients need their sessions to stay open
+ * while they wait for responses.
+ *
+ * @param <T> The type returned when visitors visit {@link StunMessage}s.
+ */
+public class SessionlessStunIoHandler<T> extends StunIoHandler<T> {
+
+    /**
+     * Seconds without traffic before we close a session.
+     */
+    private static final int IDLE_TIME = 1;
+
+    /**
+     * The session attribute marking that the visitor has returned, so a
+     * session for a single datagram can close once its writes are sent.
+     */
+    private static final String HANDLED_KEY =
+        SessionlessStunIoHandler.class.getName() + ".handled";
+
+    /**
+     * Creates a new handler.
+     *
+     * @param visitorFactory The factory for creating visitors.  Visitors
+     * shouldn't store anything in the session.
+     */
+    public SessionlessStunIoHandler(
+            final StunMessageVisitorFactory visitorFactory) {
+        super(visitorFactory);
+    }
+
+    /**
+     * Configures an acceptor to create a fresh session for every datagram,
+     * so this handler can close each session as soon as it's done with it.
+     *
+     * @param config The acceptor configuration.
+     */
+    public static void configure(final DatagramAcceptorConfig config) {
+        config.setSessionRecycler(IoSessionRecycler.NOOP);
+    }
+
+    @Override
+    public void sessionCreated(final IoSession session) {
+        // We don't initialize the session or keep it around for the usual
+        // idle time -- it's only needed while the peer is sending.
+        session.setIdleTime(IdleStatus.BOTH_IDLE, IDLE_TIME);
+    }
+
+    @Override
+    public void messageReceived(final IoSession session, final Object message) {
+        super.messageReceived(session, message);
+        if (!isPerDatagram(session)) {
+            // Other datagrams may be on their way to this session.
+            return;
+        }
+
+        // Mark the session before checking the write queue, so either we
+        // or the last messageSent call sees the queue empty and closes.
+        session.setAttribute(HANDLED_KEY);
+        closeIfFlushed(session);
+    }
+
+    @Override
+    public void messageSent(final IoSession session, final Object message) {
+        if (session.containsAttribute(HANDLED_KEY)) {
+            closeIfFlushed(session);
+        }
+    }
+
+    private static boolean isPerDatagram(final IoSession session) {
+        final IoServiceConfig config = session.getServiceConfig();
+        return config instanceof DatagramServiceConfig
+            && ((DatagramServiceConfig) config).getSessionRecycler()
+                == IoSessionRecycler.NOOP;
+    }
+
+    private static void closeIfFlushed(final IoSession session) {
+        // MINA takes each write off the queue before it fires messageSent.
+        if (session.getScheduledWriteRequests() == 0) {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.littleshoot.stun.stack;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Listener for changes to the addresses a {@link StunAddressProvider} 
+ * reports, such as when a NAT rebinds us to a new public address.
+ */
+public interface StunAddressListener {
+
+    /**
+     * Called when the server reflexive address changes.
+     * 
+     * @param oldAddress The address we had before.
+     * @param newAddress The new address.
+     */
+    void onServerReflexiveAddressChanged(InetSocketAddress oldAddress,
+        InetSocketAddress newAddress);
+
+    /**
+     * Called when the relay address changes.
+     * 
+     * @param oldAddress The address we had before.
+     * @param newAddress The new address.
+     */
+    void onRelayAddressChanged(InetSocketAddress oldAddress,
+        InetSocketAddress newAddress);
+}
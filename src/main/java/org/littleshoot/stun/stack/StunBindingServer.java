@@ -0,0 +1,249 @@
+package org.littleshoot.stun.stack;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.stun.stack.decoder.StunDatagramDecodingState;
+import org.littleshoot.stun.stack.message.BindingRequest;
+import org.littleshoot.stun.stack.message.BindingSuccessResponseTemplate;
+import org.littleshoot.stun.stack.message.StunMessage;
+import org.littleshoot.stun.stack.message.StunMessageType;
+import org.littleshoot.stun.stack.message.StunMessageVisitorAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stateless STUN server that answers binding requests with the address they
+ * came from.  The server can listen on several local addresses, with one
+ * thread per address.  Each thread reuses a single receive buffer and a
+ * single send buffer, and answers requests through a
+ * {@link StunMessageVisitorAdapter} that writes responses with
+ * {@link BindingSuccessResponseTemplate} rather than building and encoding
+ * response messages.  Nothing is kept per client, so memory use doesn't
+ * depend on how many clients we see.
+ * <p>
+ * Anything other than a binding request is dropped without decoding more
+ * than the message type.
+ */
+public class StunBindingServer {
+
+    private static final Logger LOG =
+        LoggerFactory.getLogger(StunBindingServer.class);
+
+    /**
+     * Large enough for any binding request we're willing to answer.
+     */
+    private static final int MAX_DATAGRAM = 1500;
+
+    private static final int HEADER_LENGTH = 20;
+
+    private static final int BINDING_REQUEST =
+        StunMessageType.BINDING_REQUEST.toInt();
+
+    private final List<Worker> m_workers;
+
+    private volatile boolean m_closed;
+
+    /**
+     * Creates a new server listening on the specified addresses.  Call
+     * {@link #start()} to start answering requests.
+     *
+     * @param bindAddresses The local addresses to listen on.
+     * @throws IOException If we can't bind to any of the addresses.
+     */
+    public StunBindingServer(final Collection<InetSocketAddress> bindAddresses)
+            throws IOException {
+        if (bindAddresses.isEmpty()) {
+            throw new IllegalArgumentException("No addresses to bind to");
+        }
+        final List<Worker> workers = new ArrayList<Worker>();
+        try {
+            for (final InetSocketAddress address : bindAddresses) {
+                workers.add(new Worker(address));
+            }
+        } catch (final IOException e) {
+            for (final Worker worker : workers) {
+                worker.close();
+            }
+            throw e;
+        }
+        this.m_workers = Collections.unmodifiableList(workers);
+    }
+
+    /**
+     * Starts answering requests.
+     */
+    public void start() {
+        for (final Worker worker : this.m_workers) {
+            worker.m_thread.start();
+        }
+    }
+
+    /**
+     * Stops the server and closes all its sockets.
+     */
+    public void close() {
+        this.m_closed = true;
+        for (final Worker worker : this.m_workers) {
+            worker.close();
+        }
+    }
+
+    /**
+     * Accessor for the addresses the server is listening on.  This is
+     * useful when binding to ephemeral ports.
+     *
+     * @return The local addresses.
+     */
+    public List<InetSocketAddress> getLocalAddresses() {
+        final List<InetSocketAddress> addresses =
+            new ArrayList<InetSocketAddress>(this.m_workers.size());
+        for (final Worker worker : this.m_workers) {
+            addresses.add(worker.m_localAddress);
+        }
+        return addresses;
+    }
+
+    /**
+     * Accessor for the number of binding requests answered.
+     *
+     * @return The number of responses sent.
+     */
+    public long getResponseCount() {
+        long count = 0;
+        for (final Worker worker : this.m_workers) {
+            count += worker.m_responses;
+        }
+        return count;
+    }
+
+    /**
+     * Accessor for the number of datagrams dropped because they weren't
+     * binding requests we could decode.
+     *
+     * @return The number of dropped datagrams.
+     */
+    public long getDroppedCount() {
+        long count = 0;
+        for (final Worker worker : this.m_workers) {
+            count += worker.m_dropped;
+        }
+        return count;
+    }
+
+    /**
+     * Receives and answers requests on a single local address.  All the
+     * fields other than the counters are only touched by the worker's
+     * thread.
+     */
+    private final class Worker extends StunMessageVisitorAdapter<Void>
+        implements Runnable {
+
+        private final DatagramChannel m_channel;
+
+        private final InetSocketAddress m_localAddress;
+
+        private final Thread m_thread;
+
+        private final java.nio.ByteBuffer m_receiveBuf =
+            java.nio.ByteBuffer.allocate(MAX_DATAGRAM);
+
+        private final ByteBuffer m_in = ByteBuffer.wrap(this.m_receiveBuf);
+
+        private final ByteBuffer m_out =
+            ByteBuffer.allocate(BindingSuccessResponseTemplate.IPV6_LENGTH);
+
+        private InetSocketAddress m_source;
+
+        private volatile long m_responses;
+
+        private volatile long m_dropped;
+
+        private Worker(final InetSocketAddress bindAddress)
+                throws IOException {
+            this.m_channel = DatagramChannel.open();
+            try {
+                this.m_channel.socket().bind(bindAddress);
+            } catch (final IOException e) {
+                this.m_channel.close();
+                throw e;
+            }
+            this.m_localAddress = (InetSocketAddress)
+                this.m_channel.socket().getLocalSocketAddress();
+            this.m_thread = new Thread(this,
+                "STUN-Binding-Server-" + this.m_localAddress);
+            this.m_thread.setDaemon(true);
+        }
+
+        public void run() {
+            while (!m_closed) {
+                final SocketAddress source;
+                this.m_receiveBuf.clear();
+                try {
+                    source = this.m_channel.receive(this.m_receiveBuf);
+                } catch (final IOException e) {
+                    if (!m_closed) {
+                        LOG.warn("Error receiving on " + this.m_localAddress,
+                            e);
+                    }
+                    return;
+                }
+                if (source == null) {
+                    continue;
+                }
+                this.m_receiveBuf.flip();
+                if (this.m_receiveBuf.remaining() < HEADER_LENGTH
+                        || this.m_receiveBuf.getShort(0) != BINDING_REQUEST) {
+                    this.m_dropped++;
+                    continue;
+                }
+                this.m_in.position(0);
+                this.m_in.limit(this.m_receiveBuf.limit());
+                final StunMessage message;
+                try {
+                    message = StunDatagramDecodingState.decode(this.m_in);
+                } catch (final RuntimeException e) {
+                    LOG.debug("Could not decode request", e);
+                    this.m_dropped++;
+                    continue;
+                }
+                if (message == null) {
+                    this.m_dropped++;
+                    continue;
+                }
+                this.m_source = (InetSocketAddress) source;
+                message.accept(this);
+            }
+        }
+
+        @Override
+        public Void visitBindingRequest(final BindingRequest request) {
+            this.m_out.clear();
+            BindingSuccessResponseTemplate.write(
+                request.getStunTransactionId(), this.m_source, this.m_out);
+            this.m_out.flip();
+            try {
+                this.m_channel.send(this.m_out.buf(), this.m_source);
+                this.m_responses++;
+            } catch (final IOException e) {
+                LOG.debug("Could not send response to " + this.m_source, e);
+            }
+            return null;
+        }
+
+        private void close() {
+            try {
+                this.m_channel.close();
+            } catch (final IOException e) {
+                LOG.debug("Error closing channel", e);
+            }
+        }
+    }
+}
@@ -14,6 +14,11 @@ public class StunConstants {
      */
     public static final int STUN_PORT = 3478;
     
+    /**
+     * Public STUN servers.  These are unresolved, so loading this class 
+     * never blocks on DNS -- resolve them with {@link StunServerResolver}
+     * before use.
+     */
     public static InetSocketAddress[] SERVERS_ARRAY = {
         //new InetSocketAddress("stun01.sipphone.com", StunConstants.STUN_PORT),
         //new InetSocketAddress("stun.softjoys.com", StunConstants.STUN_PORT),
@@ -26,16 +31,16 @@ public class StunConstants {
         //new InetSocketAddress("stun.sipgate.net", 10000),
         //new InetSocketAddress("numb.viagenie.ca", StunConstants.STUN_PORT)
 
-        new InetSocketAddress("stun.l.google.com", 19302), 
-        new InetSocketAddress("stun.l.google.com", 19302), 
-        new InetSocketAddress("alt4.stun.l.google.com", 19302), 
-        new InetSocketAddress("alt4.stun.l.google.com", 19302), 
-        new InetSocketAddress("alt3.stun.l.google.com", 19302), 
-        new InetSocketAddress("alt3.stun.l.google.com", 19302), 
-        new InetSocketAddress("alt1.stun.l.google.com", 19302), 
-        new InetSocketAddress("alt1.stun.l.google.com", 19302), 
-        new InetSocketAddress("alt2.stun.l.google.com", 19302), 
-        new InetSocketAddress("alt2.stun.l.google.com", 19302)
+        InetSocketAddress.createUnresolved("stun.l.google.com", 19302), 
+        InetSocketAddress.createUnresolved("stun.l.google.com", 19302), 
+        InetSocketAddress.createUnresolved("alt4.stun.l.google.com", 19302), 
+        InetSocketAddress.createUnresolved("alt4.stun.l.google.com", 19302), 
+        InetSocketAddress.createUnresolved("alt3.stun.l.google.com", 19302), 
+        InetSocketAddress.createUnresolved("alt3.stun.l.google.com", 19302), 
+        InetSocketAddress.createUnresolved("alt1.stun.l.google.com", 19302), 
+        InetSocketAddress.createUnresolved("alt1.stun.l.google.com", 19302), 
+        InetSocketAddress.createUnresolved("alt2.stun.l.google.com", 19302), 
+        InetSocketAddress.createUnresolved("alt2.stun.l.google.com", 19302)
     };
     
     public static List<InetSocketAddress> SERVERS = Arrays.asList(SERVERS_ARRAY);
@@ -20,6 +20,27 @@ public class StunDemuxableProtocolCodecFactory
     {
 
     private final Logger m_log = LoggerFactory.getLogger(getClass());
+
+    private final boolean m_direct;
+
+    /**
+     * Creates a new factory whose encoders encode into heap buffers.
+     */
+    public StunDemuxableProtocolCodecFactory()
+        {
+        this(false);
+        }
+
+    /**
+     * Creates a new factory.
+     * 
+     * @param direct Whether or not encoders encode into direct buffers.  See
+     * {@link StunProtocolEncoder#StunProtocolEncoder(boolean)}.
+     */
+    public StunDemuxableProtocolCodecFactory(final boolean direct)
+        {
+        this.m_direct = direct;
+        }
     
     public boolean canDecode(final ByteBuffer in)
         {
@@ -77,7 +98,7 @@ public class StunDemuxableProtocolCodecFactory
 
     public ProtocolEncoder newEncoder()
         {
-        return new StunProtocolEncoder();
+        return new StunProtocolEncoder(this.m_direct);
         }
 
     public boolean enoughData(final ByteBuffer in)
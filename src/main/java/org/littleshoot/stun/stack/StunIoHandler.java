@@ -7,6 +7,7 @@ import org.littleshoot.mina.common.IoHandlerAdapter;
 import org.littleshoot.mina.common.IoSession;
 import org.littleshoot.mina.util.SessionUtil;
 import org.littleshoot.stun.stack.message.ConnectErrorStunMessage;
+import org.littleshoot.stun.stack.message.ReusableStunMessageVisitorFactory;
 import org.littleshoot.stun.stack.message.StunMessage;
 import org.littleshoot.stun.stack.message.StunMessageVisitor;
 import org.littleshoot.stun.stack.message.StunMessageVisitorFactory;
@@ -17,14 +18,28 @@ import org.slf4j.LoggerFactory;
  * Processes STUN messages.  This class can be sub-classed to implement 
  * specialized policies, for example for specialized policies for idle sessions
  * for specific STUN usages.
+ * <p>
+ * By default, a new visitor is created for every message.  If the visitor
+ * factory is a {@link ReusableStunMessageVisitorFactory} whose visitors are
+ * reusable, a single visitor is instead created for each session, stored
+ * in the session, and reused for all messages on that session.
  * 
  * @param <T> The type returned when visitors visit {@link StunMessage}s. 
  */
 public class StunIoHandler<T> extends IoHandlerAdapter {
 
+    /**
+     * The session attribute for the cached visitor when visitors are 
+     * reusable.
+     */
+    private static final String VISITOR_KEY = 
+        StunIoHandler.class.getName() + ".visitor";
+    
     private final Logger m_log = LoggerFactory.getLogger(StunIoHandler.class);
     private final StunMessageVisitorFactory m_visitorFactory;
     
+    private final boolean m_reuseVisitors;
+    
     /**
      * Creates a new STUN IO handler class.
      * 
@@ -35,6 +50,9 @@ public class StunIoHandler<T> extends IoHandlerAdapter {
      */
     public StunIoHandler(final StunMessageVisitorFactory visitorFactory) {
         this.m_visitorFactory = visitorFactory;
+        this.m_reuseVisitors = 
+            visitorFactory instanceof ReusableStunMessageVisitorFactory &&
+            ((ReusableStunMessageVisitorFactory) visitorFactory).isReusable();
     }
 
     @Override
@@ -50,13 +68,29 @@ public class StunIoHandler<T> extends IoHandlerAdapter {
         // The visitor will handle the particular message type, allowing for
         // variation between, for example, client and server visitor
         // implementations.
-        final StunMessageVisitor visitor = this.m_visitorFactory
-                .createVisitor(session);
+        final StunMessageVisitor visitor = getVisitor(session);
 
         m_log.debug("Sending message to visitor: {}", visitor);
         stunMessage.accept(visitor);
     }
 
+    private StunMessageVisitor getVisitor(final IoSession session) {
+        if (!this.m_reuseVisitors) {
+            return this.m_visitorFactory.createVisitor(session);
+        }
+        final StunMessageVisitor cached = 
+            (StunMessageVisitor) session.getAttribute(VISITOR_KEY);
+        if (cached != null) {
+            return cached;
+        }
+        // If messages for the session are handled on several threads, we
+        // might create an extra visitor here, but they're interchangeable.
+        final StunMessageVisitor visitor = 
+            this.m_visitorFactory.createVisitor(session);
+        session.setAttribute(VISITOR_KEY, visitor);
+        return visitor;
+    }
+
     @Override
     public void exceptionCaught(final IoSession session, final Throwable cause) {
         m_log.debug("Exception on STUN IoHandler", cause);
@@ -3,22 +3,71 @@ package org.littleshoot.stun.stack;
 import org.littleshoot.mina.filter.codec.ProtocolCodecFactory;
 import org.littleshoot.mina.filter.codec.ProtocolDecoder;
 import org.littleshoot.mina.filter.codec.ProtocolEncoder;
+import org.littleshoot.stun.stack.decoder.StunDatagramDecodingState;
+import org.littleshoot.stun.stack.decoder.StunDatagramProtocolDecoder;
 import org.littleshoot.stun.stack.encoder.StunProtocolEncoder;
 
 /**
- * Codec factory for creating STUN encoders and decoders.  Note this creates
- * a new encoder and a new decoder with each call rather than storing 
- * encoder and decoder instances.  This ultimately results in each session
- * having its own encoder and decoder.
+ * Codec factory for creating STUN encoders and decoders.  For stream
+ * transports, this creates a new decoder with each call, as decoders keep
+ * the state of partially received messages.  This ultimately results in 
+ * each session having its own decoder.  For datagrams, every session shares
+ * the same stateless decoder.  Encoders are always shared.
  */
 public class StunProtocolCodecFactory implements ProtocolCodecFactory {
 
+    private static final ProtocolEncoder HEAP_ENCODER = 
+        new StunProtocolEncoder(false);
+
+    private static final ProtocolEncoder DIRECT_ENCODER = 
+        new StunProtocolEncoder(true);
+
+    private final boolean m_datagram;
+
+    private final boolean m_direct;
+
+    /**
+     * Creates a new codec factory using the incremental state machine
+     * decoder, suitable for stream transports.
+     */
+    public StunProtocolCodecFactory() {
+        this(false);
+    }
+
+    /**
+     * Creates a new codec factory.
+     * 
+     * @param datagram Whether or not each received buffer contains a 
+     * complete STUN message, as is the case for UDP.  If so, messages are 
+     * decoded in a single pass with {@link StunDatagramDecodingState}.
+     */
+    public StunProtocolCodecFactory(final boolean datagram) {
+        this(datagram, false);
+    }
+
+    /**
+     * Creates a new codec factory.
+     * 
+     * @param datagram Whether or not each received buffer contains a 
+     * complete STUN message, as is the case for UDP.
+     * @param direct Whether or not to encode into direct buffers.  See
+     * {@link StunProtocolEncoder#StunProtocolEncoder(boolean)}.
+     */
+    public StunProtocolCodecFactory(final boolean datagram, 
+            final boolean direct) {
+        this.m_datagram = datagram;
+        this.m_direct = direct;
+    }
+
     public ProtocolDecoder getDecoder() throws Exception {
+        if (this.m_datagram) {
+            return StunDatagramProtocolDecoder.INSTANCE;
+        }
         return new StunMessageDecoder();
     }
 
     public ProtocolEncoder getEncoder() throws Exception {
-        return new StunProtocolEncoder();
+        return this.m_direct ? DIRECT_ENCODER : HEAP_ENCODER;
     }
 
 }
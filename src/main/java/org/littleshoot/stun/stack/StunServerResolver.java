@@ -0,0 +1,239 @@
+package org.littleshoot.stun.stack;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Resolves STUN server host names off the calling thread and caches the
+ * results.  Server endpoints such as those in {@link StunConstants#SERVERS}
+ * are unresolved host and port pairs, so nothing looks them up until the
+ * first time a server is used.  Successful lookups are cached for a TTL and
+ * failed lookups for a shorter negative TTL, and concurrent lookups of the
+ * same host share a single query.
+ * <p>
+ * The TTLs are fixed rather than taken from the DNS records, because
+ * {@link InetAddress} doesn't expose the TTL of the records it resolves.
+ * The JVM's own cache, set by the <code>networkaddress.cache.ttl</code>
+ * security property, still applies underneath ours.
+ * <p>
+ * All resolvers share a single pool of daemon lookup threads, which exit
+ * once they've been idle for a minute, so resolvers need no closing.
+ */
+public class StunServerResolver {
+
+    private static final Logger LOG =
+        LoggerFactory.getLogger(StunServerResolver.class);
+
+    /**
+     * The default time to cache successful lookups, in milliseconds.  This
+     * stands in for the record TTL we can't see, so it's kept short.
+     */
+    public static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * The default time to cache failed lookups, in milliseconds.
+     */
+    public static final long DEFAULT_NEGATIVE_TTL =
+        TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * Runs listeners on the thread completing the lookup.
+     */
+    private static final Executor DIRECT = new Executor() {
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Runs the blocking lookups for all resolvers.
+     */
+    private static final Executor LOOKUPS =
+        Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger m_count = new AtomicInteger();
+
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r,
+                    "STUN-Resolver-" + m_count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+    private static StunServerResolver s_default;
+
+    private final ConcurrentMap<String, Entry> m_cache =
+        new ConcurrentHashMap<String, Entry>();
+
+    private final long m_ttl;
+
+    private final long m_negativeTtl;
+
+    /**
+     * Creates a new resolver with the default TTLs.
+     */
+    public StunServerResolver() {
+        this(DEFAULT_TTL, DEFAULT_NEGATIVE_TTL);
+    }
+
+    /**
+     * Creates a new resolver.
+     *
+     * @param ttl The time to cache successful lookups, in milliseconds.
+     * @param negativeTtl The time to cache failed lookups, in milliseconds.
+     */
+    public StunServerResolver(final long ttl, final long negativeTtl) {
+        this.m_ttl = ttl;
+        this.m_negativeTtl = negativeTtl;
+    }
+
+    /**
+     * Accessor for the resolver shared by default.
+     *
+     * @return The shared resolver.
+     */
+    public static synchronized StunServerResolver getDefault() {
+        if (s_default == null) {
+            s_default = new StunServerResolver();
+        }
+        return s_default;
+    }
+
+    /**
+     * Resolves the specified server address without blocking.  Addresses
+     * that are already resolved complete right away.
+     *
+     * @param server The server address.
+     * @return The future resolved address.  This fails with an
+     * {@link UnknownHostException} if the host can't be resolved.
+     */
+    public ListenableFuture<InetSocketAddress> resolveAsync(
+            final InetSocketAddress server) {
+        if (!server.isUnresolved()) {
+            final SettableFuture<InetSocketAddress> future =
+                SettableFuture.create();
+            future.set(server);
+            return future;
+        }
+        final String host = server.getHostName();
+        final long now = System.nanoTime();
+        Entry entry = this.m_cache.get(host);
+        while (entry == null || entry.isExpired(now)) {
+            final Entry fresh = new Entry();
+            final boolean won = entry == null
+                ? this.m_cache.putIfAbsent(host, fresh) == null
+                : this.m_cache.replace(host, entry, fresh);
+            if (won) {
+                lookup(host, fresh);
+                entry = fresh;
+            } else {
+                entry = this.m_cache.get(host);
+            }
+        }
+        return withPort(entry.m_future, server.getPort());
+    }
+
+    /**
+     * Resolves the specified server address, waiting for the lookup if the
+     * result isn't cached.
+     *
+     * @param server The server address.
+     * @return The resolved address.
+     * @throws IOException If the host can't be resolved or we're
+     * interrupted.
+     */
+    public InetSocketAddress resolve(final InetSocketAddress server)
+            throws IOException {
+        try {
+            return resolveAsync(server).get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted resolving: "
+                    + server);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not resolve: " + server);
+        }
+    }
+
+    private void lookup(final String host, final Entry entry) {
+        LOOKUPS.execute(new Runnable() {
+            public void run() {
+                try {
+                    final InetAddress address = InetAddress.getByName(host);
+                    entry.expireAfter(m_ttl);
+                    entry.m_future.set(address);
+                } catch (final UnknownHostException e) {
+                    LOG.debug("Could not resolve: {}", host);
+                    entry.expireAfter(m_negativeTtl);
+                    entry.m_future.setException(e);
+                } catch (final RuntimeException e) {
+                    entry.expireAfter(m_negativeTtl);
+                    entry.m_future.setException(e);
+                }
+            }
+        });
+    }
+
+    private static ListenableFuture<InetSocketAddress> withPort(
+            final ListenableFuture<InetAddress> address, final int port) {
+        final SettableFuture<InetSocketAddress> future =
+            SettableFuture.create();
+        address.addListener(new Runnable() {
+            public void run() {
+                try {
+                    future.set(new InetSocketAddress(address.get(), port));
+                } catch (final ExecutionException e) {
+                    future.setException(e.getCause());
+                } catch (final InterruptedException e) {
+                    // Can't happen -- the lookup is complete.
+                    future.setException(e);
+                }
+            }
+        }, DIRECT);
+        return future;
+    }
+
+    /**
+     * A single cached lookup.  The entry never expires while the lookup is
+     * still in flight, so callers share it.
+     */
+    private static final class Entry {
+
+        private final SettableFuture<InetAddress> m_future =
+            SettableFuture.create();
+
+        private volatile long m_expires = Long.MAX_VALUE;
+
+        private volatile boolean m_expiresSet;
+
+        private void expireAfter(final long millis) {
+            this.m_expires = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(millis);
+            this.m_expiresSet = true;
+        }
+
+        private boolean isExpired(final long now) {
+            return this.m_expiresSet && now - this.m_expires >= 0;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.littleshoot.stun.stack;
+
+import org.littleshoot.mina.filter.codec.ProtocolCodecFactory;
+import org.littleshoot.mina.filter.codec.ProtocolDecoder;
+import org.littleshoot.mina.filter.codec.ProtocolEncoder;
+import org.littleshoot.stun.stack.decoder.StunStreamProtocolDecoder;
+import org.littleshoot.stun.stack.encoder.StunProtocolEncoder;
+
+/**
+ * Codec factory for STUN over stream transports such as TCP.  The decoder
+ * pulls every complete message out of the received data at once, so many 
+ * requests and responses can be pipelined over one connection.  Messages
+ * are either sent back to back or, for ICE-TCP, in RFC 4571 frames.  
+ * Partially received messages are held in the session rather than in the
+ * decoder, so all sessions share the same encoder and decoder.  Data in
+ * TURN Send and Data Indications is written in its own buffer after the
+ * rest of the message, so it's never copied.
+ * <p>
+ * Reliable transports shouldn't retransmit.  
+ * {@link org.littleshoot.stun.stack.transaction.StunTransactionTrackerImpl}
+ * sees that these sessions aren't connectionless and sends each request 
+ * over them only once.
+ */
+public class StunStreamProtocolCodecFactory implements ProtocolCodecFactory {
+
+    private final ProtocolDecoder m_decoder;
+
+    private final ProtocolEncoder m_encoder;
+
+    /**
+     * Creates a new codec factory.
+     * 
+     * @param framed Whether or not messages are in RFC 4571 frames.
+     */
+    public StunStreamProtocolCodecFactory(final boolean framed) {
+        this(framed, false);
+    }
+
+    /**
+     * Creates a new codec factory.
+     * 
+     * @param framed Whether or not messages are in RFC 4571 frames.
+     * @param direct Whether or not to encode into direct buffers.  See
+     * {@link StunProtocolEncoder#StunProtocolEncoder(boolean)}.
+     */
+    public StunStreamProtocolCodecFactory(final boolean framed, 
+            final boolean direct) {
+        this.m_decoder = new StunStreamProtocolDecoder(framed);
+        this.m_encoder = new StunProtocolEncoder(direct, framed, true);
+    }
+
+    public ProtocolDecoder getDecoder() throws Exception {
+        return this.m_decoder;
+    }
+
+    public ProtocolEncoder getEncoder() throws Exception {
+        return this.m_encoder;
+    }
+}
@@ -0,0 +1,62 @@
+package org.littleshoot.stun.stack;
+
+import java.io.IOException;
+
+import org.littleshoot.stun.stack.message.CanceledStunMessage;
+import org.littleshoot.stun.stack.message.NullStunMessage;
+import org.littleshoot.stun.stack.message.StunMessage;
+
+/**
+ * Exception for STUN transactions that failed, whether with an error 
+ * response, a timeout or because the transaction was cancelled.
+ */
+public class StunTransactionException extends IOException {
+
+    private static final long serialVersionUID = 4370276545389468327L;
+
+    private final StunMessage m_request;
+
+    private final StunMessage m_response;
+
+    /**
+     * Creates a new exception.
+     * 
+     * @param request The request that failed.
+     * @param response The response the transaction failed with.  This is a
+     * {@link NullStunMessage} if the transaction timed out and a 
+     * {@link CanceledStunMessage} if it was cancelled.
+     */
+    public StunTransactionException(final StunMessage request,
+            final StunMessage response) {
+        super("Transaction failed with: " + response);
+        this.m_request = request;
+        this.m_response = response;
+    }
+
+    /**
+     * Accessor for the request that failed.
+     * 
+     * @return The request.
+     */
+    public StunMessage getRequest() {
+        return m_request;
+    }
+
+    /**
+     * Accessor for the response the transaction failed with.
+     * 
+     * @return The response.
+     */
+    public StunMessage getResponse() {
+        return m_response;
+    }
+
+    /**
+     * Returns whether or not the transaction timed out.
+     * 
+     * @return <code>true</code> if the transaction timed out.
+     */
+    public boolean isTimeout() {
+        return m_response instanceof NullStunMessage;
+    }
+}
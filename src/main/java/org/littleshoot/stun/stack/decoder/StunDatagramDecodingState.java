@@ -0,0 +1,181 @@
+package org.littleshoot.stun.stack.decoder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.filter.codec.ProtocolDecoderOutput;
+import org.littleshoot.stun.stack.message.StunMessage;
+import org.littleshoot.stun.stack.message.StunTransactionId;
+import org.littleshoot.stun.stack.message.attributes.StunAttribute;
+import org.littleshoot.stun.stack.message.attributes.StunAttributeMap;
+import org.littleshoot.stun.stack.message.attributes.StunAttributeType;
+import org.littleshoot.stun.stack.message.attributes.StunAttributesFactory;
+import org.littleshoot.stun.stack.message.attributes.StunAttributesFactoryImpl;
+import org.littleshoot.util.mina.DecodingState;
+import org.littleshoot.util.mina.DecodingStateMachine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * State machine for decoding STUN messages that each arrive in a single
+ * datagram.  Unlike {@link StunMessageDecodingState}, this does not walk
+ * through separate states for the header fields and the body.  Because every
+ * datagram contains a complete message, the header and all attributes are
+ * parsed in a single pass directly over the received buffer, and the only
+ * state is a shared, stateless instance.
+ */
+public class StunDatagramDecodingState extends DecodingStateMachine
+    {
+
+    private final static Logger m_log =
+        LoggerFactory.getLogger(StunDatagramDecodingState.class);
+
+    private static final Map<StunAttributeType, StunAttribute>
+        EMPTY_ATTRIBUTES = StunAttributeMap.EMPTY;
+
+    /**
+     * The attributes factory holds no state, so all decoders share it.
+     */
+    private static final StunAttributesFactory ATTRIBUTES_FACTORY =
+        new StunAttributesFactoryImpl();
+
+    private static final DecodingState READ_DATAGRAM = new ReadDatagram();
+
+    /**
+     * The length of the STUN header, including the message type, the
+     * message length, the magic cookie and the transaction ID.
+     */
+    private static final int HEADER_LENGTH = 20;
+
+    /**
+     * Datagrams too short or truncated to hold a STUN message.  Servers see
+     * these from any garbage traffic, so we count them rather than logging
+     * each one.
+     */
+    private static final AtomicLong MALFORMED = new AtomicLong();
+
+    @Override
+    protected DecodingState init() throws Exception
+        {
+        return READ_DATAGRAM;
+        }
+
+    @Override
+    protected void destroy() throws Exception
+        {
+        }
+
+    @Override
+    protected DecodingState finishDecode(final List<Object> childProducts,
+        final ProtocolDecoderOutput out) throws Exception
+        {
+        // Our single state writes to the state machine's own output, so
+        // pass the decoded messages on.
+        for (final Object product : childProducts)
+            {
+            out.write(product);
+            }
+        return null;
+        }
+
+    /**
+     * Returns the number of datagrams we've seen that were too short or
+     * truncated to hold a STUN message.
+     *
+     * @return The number of malformed datagrams.
+     */
+    public static long getMalformedCount()
+        {
+        return MALFORMED.get();
+        }
+
+    /**
+     * Decodes a single STUN message from the specified buffer, starting at
+     * the buffer's current position.  On return, the buffer is positioned
+     * at the end of the message.
+     *
+     * @param in The buffer containing the complete message.
+     * @return The decoded message, or <code>null</code> if the buffer does
+     * not contain a complete message.
+     */
+    public static StunMessage decode(final ByteBuffer in)
+        {
+        final int start = in.position();
+        if (in.remaining() < HEADER_LENGTH)
+            {
+            MALFORMED.incrementAndGet();
+            if (m_log.isDebugEnabled())
+                {
+                m_log.debug("Datagram too short for STUN header: "+
+                    in.remaining());
+                }
+            in.position(in.limit());
+            return null;
+            }
+
+        final int type = in.getUnsignedShort(start);
+        final int bodyLength = in.getUnsignedShort(start + 2);
+        final int end = start + HEADER_LENGTH + bodyLength;
+        if (end > in.limit())
+            {
+            MALFORMED.incrementAndGet();
+            if (m_log.isDebugEnabled())
+                {
+                m_log.debug("Truncated STUN message.  Expected body length: "+
+                    bodyLength+" but only "+(in.limit()-start-HEADER_LENGTH)+
+                    " bytes were received");
+                }
+            in.position(in.limit());
+            return null;
+            }
+
+        // The transaction ID includes the magic cookie.
+        in.position(start + 4);
+        final StunTransactionId transactionId = StunTransactionId.read(in);
+
+        final Map<StunAttributeType, StunAttribute> attributes;
+        if (bodyLength == 0)
+            {
+            attributes = EMPTY_ATTRIBUTES;
+            }
+        else
+            {
+            final int limit = in.limit();
+            in.limit(end);
+            try
+                {
+                attributes = ATTRIBUTES_FACTORY.createAttributes(in);
+                }
+            finally
+                {
+                in.limit(limit);
+                }
+            }
+        in.position(end);
+        return StunMessageDecodingState.createMessage(type, transactionId,
+            attributes);
+        }
+
+    private static final class ReadDatagram implements DecodingState
+        {
+
+        public DecodingState decode(final ByteBuffer in,
+            final ProtocolDecoderOutput out) throws Exception
+            {
+            final StunMessage message = StunDatagramDecodingState.decode(in);
+            if (message != null)
+                {
+                out.write(message);
+                }
+            return null;
+            }
+
+        public DecodingState finishDecode(final ProtocolDecoderOutput out)
+            throws Exception
+            {
+            return null;
+            }
+        }
+    }
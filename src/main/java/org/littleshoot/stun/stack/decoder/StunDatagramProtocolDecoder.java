@@ -0,0 +1,49 @@
+package org.littleshoot.stun.stack.decoder;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.IoSession;
+import org.littleshoot.mina.filter.codec.ProtocolDecoder;
+import org.littleshoot.mina.filter.codec.ProtocolDecoderOutput;
+import org.littleshoot.stun.stack.message.StunMessage;
+
+/**
+ * Decoder for STUN messages that each arrive in a single datagram.  The
+ * decoder keeps no state between calls, so a single instance serves every
+ * session rather than each session getting its own decoder.
+ */
+public final class StunDatagramProtocolDecoder implements ProtocolDecoder
+    {
+
+    /**
+     * The shared decoder.
+     */
+    public static final ProtocolDecoder INSTANCE = 
+        new StunDatagramProtocolDecoder();
+
+    private StunDatagramProtocolDecoder()
+        {
+        // Use the shared instance.
+        }
+
+    public void decode(final IoSession session, final ByteBuffer in,
+        final ProtocolDecoderOutput out) throws Exception
+        {
+        while (in.hasRemaining())
+            {
+            final StunMessage message = StunDatagramDecodingState.decode(in);
+            if (message != null)
+                {
+                out.write(message);
+                }
+            }
+        }
+
+    public void finishDecode(final IoSession session, 
+        final ProtocolDecoderOutput out) throws Exception
+        {
+        }
+
+    public void dispose(final IoSession session) throws Exception
+        {
+        }
+    }
@@ -17,6 +17,30 @@ public class StunDemuxableDecoderFactory implements DemuxableDecoderFactory
 
     private final Logger m_log = LoggerFactory.getLogger(getClass());
     
+    private final boolean m_datagram;
+    
+    /**
+     * Creates a new factory for decoders that read messages using the 
+     * incremental state machine, suitable for stream transports.
+     */
+    public StunDemuxableDecoderFactory()
+        {
+        this(false);
+        }
+    
+    /**
+     * Creates a new factory.
+     * 
+     * @param datagram Whether or not each buffer passed to the decoders
+     * contains a complete STUN message, as is the case for UDP.  If so, the
+     * decoders parse each message in a single pass using 
+     * {@link StunDatagramDecodingState}.
+     */
+    public StunDemuxableDecoderFactory(final boolean datagram)
+        {
+        this.m_datagram = datagram;
+        }
+    
     public boolean canDecode(final ByteBuffer in)
         {
         final int pos = in.position();
@@ -56,8 +80,15 @@ public class StunDemuxableDecoderFactory implements DemuxableDecoderFactory
 
     public DemuxableProtocolDecoder newDecoder()
         {
-        final DecodingStateMachine startState = 
-            new StunMessageDecodingState();
+        final DecodingStateMachine startState;
+        if (this.m_datagram)
+            {
+            startState = new StunDatagramDecodingState();
+            }
+        else
+            {
+            startState = new StunMessageDecodingState();
+            }
         return new DemuxingStateMachineProtocolDecoder(startState);
         }
     
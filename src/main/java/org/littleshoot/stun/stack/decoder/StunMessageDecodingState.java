@@ -1,10 +1,8 @@
 package org.littleshoot.stun.stack.decoder;
 
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.id.uuid.UUID;
 import org.littleshoot.mina.common.ByteBuffer;
 import org.littleshoot.mina.filter.codec.ProtocolDecoderOutput;
 import org.littleshoot.stun.stack.message.BindingErrorResponse;
@@ -12,7 +10,9 @@ import org.littleshoot.stun.stack.message.BindingRequest;
 import org.littleshoot.stun.stack.message.BindingSuccessResponse;
 import org.littleshoot.stun.stack.message.StunMessage;
 import org.littleshoot.stun.stack.message.StunMessageType;
+import org.littleshoot.stun.stack.message.StunTransactionId;
 import org.littleshoot.stun.stack.message.attributes.StunAttribute;
+import org.littleshoot.stun.stack.message.attributes.StunAttributeMap;
 import org.littleshoot.stun.stack.message.attributes.StunAttributeType;
 import org.littleshoot.stun.stack.message.attributes.StunAttributesFactory;
 import org.littleshoot.stun.stack.message.attributes.StunAttributesFactoryImpl;
@@ -26,7 +26,6 @@ import org.littleshoot.stun.stack.message.turn.SendIndication;
 import org.littleshoot.util.mina.DecodingState;
 import org.littleshoot.util.mina.DecodingStateMachine;
 import org.littleshoot.util.mina.FixedLengthDecodingState;
-import org.littleshoot.util.mina.MinaUtils;
 import org.littleshoot.util.mina.decode.binary.UnsignedShortDecodingState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,7 +40,7 @@ public class StunMessageDecodingState extends DecodingStateMachine
         LoggerFactory.getLogger(StunMessageDecodingState.class);
     
     private static final Map<StunAttributeType, StunAttribute> 
-        EMPTY_ATTRIBUTES = Collections.emptyMap();
+        EMPTY_ATTRIBUTES = StunAttributeMap.EMPTY;
     
     @Override
     protected DecodingState init() throws Exception
@@ -112,9 +111,8 @@ public class StunMessageDecodingState extends DecodingStateMachine
         protected DecodingState finishDecode(final ByteBuffer readData, 
             final ProtocolDecoderOutput out) throws Exception
             {
-            // This copy is not ideal, but passing around ByteBuffers was 
-            // causing issues.
-            final byte[] transactionId = MinaUtils.toByteArray(readData);
+            final StunTransactionId transactionId = 
+                StunTransactionId.read(readData);
             m_log.debug("Read transaction id...");
             if (this.m_messageLength > 0)
                 {
@@ -137,10 +135,10 @@ public class StunMessageDecodingState extends DecodingStateMachine
         {
 
         private final int m_type;
-        private final byte[] m_transactionId;
+        private final StunTransactionId m_transactionId;
 
         private ReadBody(final int type, final int length, 
-            final byte[] transactionId)
+            final StunTransactionId transactionId)
             {
             super(length);
             m_type = type;
@@ -172,11 +170,10 @@ public class StunMessageDecodingState extends DecodingStateMachine
             }
         }
     
-    private static StunMessage createMessage(final int type,
-        final byte[] transactionId, 
+    static StunMessage createMessage(final int type,
+        final StunTransactionId id, 
         final Map<StunAttributeType, StunAttribute> attributes)
         {
-        final UUID id = new UUID(transactionId);
         final StunMessageType messageType = StunMessageType.toType(type);
         if (messageType == null)
             {
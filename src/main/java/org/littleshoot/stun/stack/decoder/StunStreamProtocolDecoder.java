@@ -0,0 +1,155 @@
+package org.littleshoot.stun.stack.decoder;
+
+import java.io.IOException;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.IoSession;
+import org.littleshoot.mina.filter.codec.CumulativeProtocolDecoder;
+import org.littleshoot.mina.filter.codec.ProtocolDecoderOutput;
+import org.littleshoot.stun.stack.message.StunMessage;
+import org.littleshoot.stun.stack.message.StunTransactionId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decoder for STUN messages over stream transports such as TCP, where
+ * messages arrive back to back and can be split anywhere.  Each call
+ * decodes every complete message in the received data in place, with
+ * {@link StunDatagramDecodingState}, and leaves any partial message at the
+ * end for {@link CumulativeProtocolDecoder} to hold on to until the rest
+ * arrives.  Only that trailing fragment is ever copied.
+ * <p>
+ * The decoder either reads messages delimited by the STUN header's own
+ * length field, or RFC 4571 frames, where each frame is preceded by a 16 bit
+ * length, as ICE-TCP uses.  Framed data that isn't STUN, such as media, is
+ * skipped.
+ * <p>
+ * Since requests and responses are matched by transaction ID, clients can
+ * pipeline many requests over one connection and have responses matched by
+ * the transaction tracker in whatever order they arrive.
+ */
+public class StunStreamProtocolDecoder extends CumulativeProtocolDecoder
+    {
+
+    private final static Logger m_log =
+        LoggerFactory.getLogger(StunStreamProtocolDecoder.class);
+
+    private static final int HEADER_LENGTH = 20;
+
+    private static final int FRAME_HEADER_LENGTH = 2;
+
+    private final boolean m_framed;
+
+    /**
+     * Creates a new decoder.
+     *
+     * @param framed Whether or not messages are in RFC 4571 frames.
+     */
+    public StunStreamProtocolDecoder(final boolean framed)
+        {
+        m_framed = framed;
+        }
+
+    @Override
+    protected boolean doDecode(final IoSession session, final ByteBuffer in,
+        final ProtocolDecoderOutput out) throws Exception
+        {
+        if (m_framed)
+            {
+            while (decodeFrame(in, out))
+                {
+                }
+            }
+        else
+            {
+            while (decodeMessage(in, out))
+                {
+                }
+            }
+
+        // We've decoded everything we can, so wait for more data.
+        return false;
+        }
+
+    private boolean decodeMessage(final ByteBuffer in,
+        final ProtocolDecoderOutput out) throws IOException
+        {
+        final int start = in.position();
+        if (in.remaining() < HEADER_LENGTH)
+            {
+            return false;
+            }
+        if (!isStun(in, start))
+            {
+            // Without framing, we've no way to find the next message.
+            throw new IOException("Not a STUN message at stream offset: " +
+                start);
+            }
+        final int length = HEADER_LENGTH + in.getUnsignedShort(start + 2);
+        if (in.remaining() < length)
+            {
+            return false;
+            }
+        decode(in, start + length, out);
+        return true;
+        }
+
+    private boolean decodeFrame(final ByteBuffer in,
+        final ProtocolDecoderOutput out)
+        {
+        final int start = in.position();
+        if (in.remaining() < FRAME_HEADER_LENGTH)
+            {
+            return false;
+            }
+        final int frameLength = in.getUnsignedShort(start);
+        final int end = start + FRAME_HEADER_LENGTH + frameLength;
+        if (in.limit() < end)
+            {
+            return false;
+            }
+        final int messageStart = start + FRAME_HEADER_LENGTH;
+        if (frameLength < HEADER_LENGTH || !isStun(in, messageStart))
+            {
+            m_log.debug("Skipping non-STUN frame of length: {}",
+                frameLength);
+            in.position(end);
+            return true;
+            }
+        in.position(messageStart);
+        decode(in, end, out);
+        return true;
+        }
+
+    private static boolean isStun(final ByteBuffer in, final int start)
+        {
+        // The first two bits of STUN messages are always zero, and the
+        // magic cookie follows the type and length.
+        return (in.get(start) & 0xc0) == 0 &&
+            in.getInt(start + 4) == StunTransactionId.MAGIC_COOKIE;
+        }
+
+    /**
+     * Decodes the message at the buffer's position, leaving the buffer
+     * positioned at the specified end whether or not the message was valid.
+     */
+    private static void decode(final ByteBuffer in, final int end,
+        final ProtocolDecoderOutput out)
+        {
+        final int limit = in.limit();
+        in.limit(end);
+        try
+            {
+            final StunMessage message = StunDatagramDecodingState.decode(in);
+            if (message != null)
+                {
+                out.write(message);
+                }
+            }
+        finally
+            {
+            in.limit(limit);
+            in.position(end);
+            }
+        }
+    }
@@ -52,8 +52,7 @@ public class StunAttributeEncoder implements StunAttributeVisitor
     public void visitData(final DataAttribute data)
         {
         writeHeader(data);
-        final byte[] dataBytes = data.getData();
-        m_buf.put(dataBytes);
+        m_buf.put(data.getDataBuffer());
         }
     
     public void visitConnectionStatus(final ConnectionStatusAttribute attribute)
@@ -3,13 +3,15 @@ package org.littleshoot.stun.stack.encoder;
 import java.util.Collection;
 import java.util.Map;
 
-import org.apache.commons.id.uuid.UUID;
 import org.littleshoot.mina.common.ByteBuffer;
 import org.littleshoot.stun.stack.message.StunMessage;
 import org.littleshoot.stun.stack.message.StunMessageType;
+import org.littleshoot.stun.stack.message.StunTransactionId;
+import org.littleshoot.stun.stack.message.attributes.AbstractStunAttributes;
 import org.littleshoot.stun.stack.message.attributes.StunAttribute;
 import org.littleshoot.stun.stack.message.attributes.StunAttributeType;
 import org.littleshoot.stun.stack.message.attributes.StunAttributeVisitor;
+import org.littleshoot.stun.stack.message.attributes.turn.DataAttribute;
 import org.littleshoot.util.mina.MinaUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,7 +23,7 @@ import org.slf4j.LoggerFactory;
 public class StunMessageEncoder
     {
 
-    private final Logger m_log = 
+    private static final Logger m_log = 
         LoggerFactory.getLogger(StunMessageEncoder.class);
     
     /**
@@ -33,30 +35,114 @@ public class StunMessageEncoder
      */
     public ByteBuffer encode(final StunMessage stunMessage) 
         {
-        final int length = stunMessage.getTotalLength();
-        final ByteBuffer buf = ByteBuffer.allocate(length);
-        
+        final ByteBuffer buf = 
+            ByteBuffer.allocate(stunMessage.getTotalLength());
+        encode(stunMessage, buf);
+        buf.flip();
+        return buf;
+        }
+
+    /**
+     * Encodes a {@link StunMessage} into the specified {@link ByteBuffer},
+     * starting at the buffer's current position.  On return, the buffer is
+     * positioned after the encoded message.  The buffer is not flipped, so
+     * callers can encode several messages into the same buffer.
+     * 
+     * @param stunMessage The STUN message to encode.
+     * @param buf The buffer to encode into.  This must have at least
+     * {@link StunMessage#getTotalLength()} bytes remaining unless it's
+     * auto-expanding.
+     */
+    public void encode(final StunMessage stunMessage, final ByteBuffer buf)
+        {
         if (m_log.isDebugEnabled())
             {
-            m_log.debug("Total message length: "+length+" for STUN message: "+
+            m_log.debug("Total message length: "+
+                stunMessage.getTotalLength()+" for STUN message: "+
                 stunMessage);
             }
         final StunMessageType type = stunMessage.getType();
         MinaUtils.putUnsignedShort(buf, type.toInt());
         MinaUtils.putUnsignedShort(buf, stunMessage.getBodyLength());
         
-        final UUID transactionId = stunMessage.getTransactionId();
+        final StunTransactionId transactionId = 
+            stunMessage.getStunTransactionId();
 
-        buf.put(transactionId.getRawBytes());
+        transactionId.write(buf);
         
         final Map<StunAttributeType, StunAttribute> attributes = 
             stunMessage.getAttributes();
         
         putAttributes(attributes, buf);
-        
-        buf.flip();
-        m_log.debug("Encoded STUN message as buf: {}", buf);
-        return buf;
+        m_log.debug("Encoded STUN message into buf: {}", buf);
+        }
+
+    /**
+     * Accessor for the data to write separately from the rest of a
+     * {@link StunMessage} in a gathering write.  If the message ends with a
+     * DATA attribute, as TURN Send and Data Indications do, this is a
+     * read-only view of the data itself, so the data is never copied.
+     * Writing the message in two buffers only works on stream transports, 
+     * as each datagram write sends a separate datagram.
+     * 
+     * @param stunMessage The STUN message.
+     * @return The data to write after the rest of the message, or 
+     * <code>null</code> if the message should be written whole.
+     */
+    public ByteBuffer getGatheringData(final StunMessage stunMessage)
+        {
+        final Map<StunAttributeType, StunAttribute> attributesMap = 
+            stunMessage.getAttributes();
+        if (!(attributesMap instanceof AbstractStunAttributes))
+            {
+            return null;
+            }
+        final AbstractStunAttributes attributes = 
+            (AbstractStunAttributes) attributesMap;
+        final int last = attributes.size() - 1;
+        if (last < 0 || attributes.typeAt(last) != StunAttributeType.DATA)
+            {
+            return null;
+            }
+        return ((DataAttribute) attributes.attributeAt(last)).getDataBuffer();
+        }
+
+    /**
+     * Encodes a {@link StunMessage} for a gathering write into the specified
+     * {@link ByteBuffer}.  This encodes everything but the data
+     * {@link #getGatheringData(StunMessage)} returns, which the caller
+     * writes after the buffer.  If there's no such data, this encodes the
+     * whole message.  The buffer is not flipped.
+     * 
+     * @param stunMessage The STUN message to encode.
+     * @param buf The buffer to encode into.  This must have at least
+     * {@link StunMessage#getTotalLength()} bytes remaining, less the
+     * length of the gathering data.
+     */
+    public void encodeGathering(final StunMessage stunMessage, 
+        final ByteBuffer buf)
+        {
+        if (getGatheringData(stunMessage) == null)
+            {
+            encode(stunMessage, buf);
+            return;
+            }
+        final AbstractStunAttributes attributes = 
+            (AbstractStunAttributes) stunMessage.getAttributes();
+        final int last = attributes.size() - 1;
+
+        MinaUtils.putUnsignedShort(buf, stunMessage.getType().toInt());
+        MinaUtils.putUnsignedShort(buf, stunMessage.getBodyLength());
+        stunMessage.getStunTransactionId().write(buf);
+
+        final StunAttributeVisitor visitor = new StunAttributeEncoder(buf);
+        for (int i = 0; i < last; i++)
+            {
+            attributes.attributeAt(i).accept(visitor);
+            }
+        final StunAttribute data = attributes.attributeAt(last);
+        MinaUtils.putUnsignedShort(buf, StunAttributeType.DATA.toInt());
+        MinaUtils.putUnsignedShort(buf, data.getBodyLength());
         }
 
     private void putAttributes(
@@ -64,6 +150,22 @@ public class StunMessageEncoder
         final ByteBuffer buf)
         {
         final StunAttributeVisitor visitor = new StunAttributeEncoder(buf);
+        if (attributesMap instanceof AbstractStunAttributes)
+            {
+            // Walk the attributes by index to avoid creating an iterator.
+            final AbstractStunAttributes attributes = 
+                (AbstractStunAttributes) attributesMap;
+            final int size = attributes.size();
+            for (int i = 0; i < size; i++)
+                {
+                final StunAttribute attribute = attributes.attributeAt(i);
+                if (attribute != null)
+                    {
+                    attribute.accept(visitor);
+                    }
+                }
+            return;
+            }
         final Collection<StunAttribute> attributes = attributesMap.values();
         for (final StunAttribute attribute : attributes)
             {
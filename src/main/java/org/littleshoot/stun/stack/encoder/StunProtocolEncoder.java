@@ -13,7 +13,70 @@ import org.slf4j.LoggerFactory;
  */
 public class StunProtocolEncoder implements DemuxableProtocolEncoder {
 
-    private final Logger LOG = LoggerFactory.getLogger(getClass());
+    private static final Logger LOG = 
+        LoggerFactory.getLogger(StunProtocolEncoder.class);
+
+    /**
+     * The message encoder holds no state, so all protocol encoders share it.
+     */
+    private static final StunMessageEncoder ENCODER = 
+        new StunMessageEncoder();
+
+    private final boolean m_direct;
+
+    private final boolean m_framed;
+
+    private final boolean m_gathering;
+
+    /**
+     * Creates a new encoder that encodes into heap buffers.
+     */
+    public StunProtocolEncoder() {
+        this(false);
+    }
+
+    /**
+     * Creates a new encoder.
+     * 
+     * @param direct Whether or not to encode into direct buffers.  Buffers
+     * come from MINA's buffer allocator, which by default pools them, and
+     * MINA releases each buffer back to the pool once it reports the write 
+     * complete.  This avoids both the per-message allocation and the copy 
+     * from a heap buffer into a direct buffer when writing to the socket.
+     */
+    public StunProtocolEncoder(final boolean direct) {
+        this(direct, false);
+    }
+
+    /**
+     * Creates a new encoder.
+     * 
+     * @param direct Whether or not to encode into direct buffers.
+     * @param framed Whether or not to precede each message with a 16 bit 
+     * length, as in RFC 4571 framing for ICE-TCP.
+     */
+    public StunProtocolEncoder(final boolean direct, final boolean framed) {
+        this(direct, framed, false);
+    }
+
+    /**
+     * Creates a new encoder.
+     * 
+     * @param direct Whether or not to encode into direct buffers.
+     * @param framed Whether or not to precede each message with a 16 bit 
+     * length, as in RFC 4571 framing for ICE-TCP.
+     * @param gathering Whether or not to write the data of messages ending
+     * with a DATA attribute in its own buffer rather than copying it.  This
+     * is only for stream transports, as datagram transports send each 
+     * buffer as a separate datagram.  See 
+     * {@link StunMessageEncoder#getGatheringData(StunMessage)}.
+     */
+    public StunProtocolEncoder(final boolean direct, final boolean framed,
+            final boolean gathering) {
+        m_direct = direct;
+        m_framed = framed;
+        m_gathering = gathering;
+    }
 
     public void dispose(final IoSession session) throws Exception {
 
@@ -22,11 +85,29 @@ public class StunProtocolEncoder implements DemuxableProtocolEncoder {
     public void encode(final IoSession session, final Object message,
             final ProtocolEncoderOutput out) throws Exception {
         LOG.debug("{} encoding message: {}", this, message);
-        final StunMessageEncoder encoder = new StunMessageEncoder();
-
         final StunMessage stunMessage = (StunMessage) message;
-        final ByteBuffer buf = encoder.encode(stunMessage);
-        out.write(buf);
+        final int length = stunMessage.getTotalLength();
+        final ByteBuffer data = 
+            m_gathering ? ENCODER.getGatheringData(stunMessage) : null;
+        final int encodedLength = 
+            data == null ? length : length - data.remaining();
+        final ByteBuffer buf;
+        if (m_framed) {
+            buf = ByteBuffer.allocate(2 + encodedLength, m_direct);
+            buf.putShort((short) length);
+        } else {
+            buf = ByteBuffer.allocate(encodedLength, m_direct);
+        }
+        if (data == null) {
+            ENCODER.encode(stunMessage, buf);
+            buf.flip();
+            out.write(buf);
+        } else {
+            ENCODER.encodeGathering(stunMessage, buf);
+            buf.flip();
+            out.write(buf);
+            out.write(data);
+        }
     }
 
     @Override
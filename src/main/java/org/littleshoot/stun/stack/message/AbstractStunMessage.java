@@ -1,17 +1,14 @@
 package org.littleshoot.stun.stack.message;
 
 import java.net.InetSocketAddress;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.id.uuid.UUID;
-import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.stun.stack.message.attributes.AbstractStunAttributes;
 import org.littleshoot.stun.stack.message.attributes.StunAttribute;
+import org.littleshoot.stun.stack.message.attributes.StunAttributeMap;
 import org.littleshoot.stun.stack.message.attributes.StunAttributeType;
 import org.littleshoot.stun.stack.message.attributes.turn.RemoteAddressAttribute;
-import org.littleshoot.util.mina.MinaUtils;
 
 /**
  * Abstracts out common methods and data of STUN messages.
@@ -20,9 +17,9 @@ public abstract class AbstractStunMessage implements StunMessage
     {
 
     private static final Map<StunAttributeType, StunAttribute> EMPTY_MAP =
-        Collections.emptyMap();
+        StunAttributeMap.EMPTY;
     
-    private final UUID m_transactionId;
+    private final StunTransactionId m_transactionId;
     private final Map<StunAttributeType, StunAttribute> m_attributes;
 
     private final int m_totalLength;
@@ -31,15 +28,6 @@ public abstract class AbstractStunMessage implements StunMessage
 
     private final StunMessageType m_messageType;
     
-    private static final int MAGIC_COOKIE = 0x2112A442;
-    
-    private static final ByteBuffer MAGIC_COOKIE_BUF = ByteBuffer.allocate(4);
-    
-    static
-        {
-        MAGIC_COOKIE_BUF.putInt(0x2112A442);
-        }
-    
     /**
      * Creates a new STUN message.
      * 
@@ -47,7 +35,7 @@ public abstract class AbstractStunMessage implements StunMessage
      */
     public AbstractStunMessage(final StunMessageType messageType)
         {
-        this(createTransactionId(), messageType, EMPTY_MAP);
+        this(StunTransactionId.create(), messageType, EMPTY_MAP);
         }
     
     /**
@@ -59,7 +47,7 @@ public abstract class AbstractStunMessage implements StunMessage
     public AbstractStunMessage(final StunMessageType messageType,
         final Map<StunAttributeType, StunAttribute> attributes)
         {
-        this (createTransactionId(), messageType, attributes);
+        this (StunTransactionId.create(), messageType, attributes);
         }
 
     /**
@@ -69,6 +57,19 @@ public abstract class AbstractStunMessage implements StunMessage
      * @param messageType The type of message.
      */
     public AbstractStunMessage(final UUID transactionId,
+        final StunMessageType messageType)
+        {
+        this (StunTransactionId.fromUuid(transactionId), messageType, 
+            EMPTY_MAP);
+        }
+    
+    /**
+     * Creates a new STUN message.
+     * 
+     * @param transactionId The transaction ID.
+     * @param messageType The type of message.
+     */
+    public AbstractStunMessage(final StunTransactionId transactionId,
         final StunMessageType messageType)
         {
         this (transactionId, messageType, EMPTY_MAP);
@@ -82,46 +83,42 @@ public abstract class AbstractStunMessage implements StunMessage
      * @param messageType The type of the message.
      */
     public AbstractStunMessage(final UUID transactionId, 
+        final StunMessageType messageType,
+        final Map<StunAttributeType, StunAttribute> attributes)
+        {
+        this (StunTransactionId.fromUuid(transactionId), messageType, 
+            attributes);
+        }
+    
+    /**
+     * Creates a new STUN message.
+     * 
+     * @param transactionId The transaction ID.
+     * @param attributes The message attributes.
+     * @param messageType The type of the message.
+     */
+    public AbstractStunMessage(final StunTransactionId transactionId, 
         final StunMessageType messageType,
         final Map<StunAttributeType, StunAttribute> attributes)
         {
         m_transactionId = transactionId;
-        m_attributes = attributes;
-        m_bodyLength = calculateBodyLength(attributes);
+        if (attributes instanceof AbstractStunAttributes)
+            {
+            m_attributes = attributes;
+            }
+        else
+            {
+            m_attributes = StunAttributeMap.copyOf(attributes);
+            }
+        m_bodyLength = calculateBodyLength(m_attributes);
         m_totalLength = m_bodyLength + 20;
         m_messageType = messageType;
         }
     
-    private static UUID createTransactionId()
-        {
-        final UUID id = UUID.randomUUID();
-        final byte[] idBytes = id.getRawBytes();
-        final ByteBuffer idBuf = ByteBuffer.wrap(idBytes);
-        
-        // Lower the limit to make room for the magic cookie.
-        idBuf.limit(idBytes.length - 4);
-        
-        final ByteBuffer newIdBuf = ByteBuffer.allocate(16);
-        MinaUtils.putUnsignedInt(newIdBuf, MAGIC_COOKIE);
-        newIdBuf.put(idBuf);
-        newIdBuf.flip();
-        
-        return new UUID(MinaUtils.toByteArray(newIdBuf));
-        }
-
-
     protected static Map<StunAttributeType, StunAttribute> createAttributes(
         final StunAttribute... attributes)
         {
-        final Map<StunAttributeType, StunAttribute> attributesMap = 
-            new HashMap<StunAttributeType, StunAttribute>();
-        
-        for (final StunAttribute attribute : attributes)
-            {
-            attributesMap.put(attribute.getAttributeType(), 
-                attribute);
-            }
-        return attributesMap;
+        return StunAttributeMap.create(attributes);
         }
     
     protected static Map<StunAttributeType, StunAttribute> createRemoteAddress(
@@ -135,16 +132,17 @@ public abstract class AbstractStunMessage implements StunMessage
     private static int calculateBodyLength(
         final Map<StunAttributeType, StunAttribute> attributesMap)
         {
-        final Collection<StunAttribute> attributes = attributesMap.values();
-        int length = 0;
-        for (final StunAttribute attribute : attributes)
-            {
-            length += attribute.getTotalLength();
-            }
-        return length;
+        // Decoded attributes know their length without decoding every
+        // attribute, and locally created ones compute it once up front.
+        return ((AbstractStunAttributes) attributesMap).getBodyLength();
         }
 
     public UUID getTransactionId()
+        {
+        return this.m_transactionId.toUuid();
+        }
+
+    public StunTransactionId getStunTransactionId()
         {
         return this.m_transactionId;
         }
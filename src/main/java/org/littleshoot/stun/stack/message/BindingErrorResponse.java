@@ -21,6 +21,20 @@ public class BindingErrorResponse extends AbstractStunMessage
      * @param reasonPhrase The reason description.
      */
     public BindingErrorResponse(final UUID transactionId, 
+        final int errorCode, final String reasonPhrase)
+        {
+        this(StunTransactionId.fromUuid(transactionId), 
+            errorCode, reasonPhrase);
+        }
+
+    /**
+     * Creates a new binding response message.
+     * 
+     * @param transactionId The ID of the transaction.
+     * @param errorCode The code for the error.
+     * @param reasonPhrase The reason description.
+     */
+    public BindingErrorResponse(final StunTransactionId transactionId, 
         final int errorCode, final String reasonPhrase)
         {
         super(transactionId, StunMessageType.BINDING_ERROR_RESPONSE, 
@@ -34,6 +48,18 @@ public class BindingErrorResponse extends AbstractStunMessage
      * @param attributes The response attributes.
      */
     public BindingErrorResponse(final UUID transactionId, 
+        final Map<StunAttributeType, StunAttribute> attributes)
+        {
+        this(StunTransactionId.fromUuid(transactionId), attributes);
+        }
+
+    /**
+     * Creates a new binding response message.
+     * 
+     * @param transactionId The transaction ID of the response.
+     * @param attributes The response attributes.
+     */
+    public BindingErrorResponse(final StunTransactionId transactionId, 
         final Map<StunAttributeType, StunAttribute> attributes)
         {
         super(transactionId, StunMessageType.BINDING_ERROR_RESPONSE, 
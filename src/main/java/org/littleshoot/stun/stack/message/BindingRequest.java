@@ -25,6 +25,19 @@ public class BindingRequest extends AbstractStunMessage
      * attributes associated with a particular STUN usage.
      */
     public BindingRequest(final UUID id, 
+        final Map<StunAttributeType, StunAttribute> attributes)
+        {
+        this(StunTransactionId.fromUuid(id), attributes);
+        }
+
+    /**
+     * Creates a new STUN binding message.
+     * 
+     * @param id The message's transaction ID.
+     * @param attributes Additional Binding Request attributes, typically 
+     * attributes associated with a particular STUN usage.
+     */
+    public BindingRequest(final StunTransactionId id, 
         final Map<StunAttributeType, StunAttribute> attributes)
         {
         super(id, StunMessageType.BINDING_REQUEST, attributes);
@@ -1,12 +1,12 @@
 package org.littleshoot.stun.stack.message;
 
 import java.net.InetSocketAddress;
-import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.id.uuid.UUID;
 import org.littleshoot.stun.stack.message.attributes.MappedAddressAttribute;
 import org.littleshoot.stun.stack.message.attributes.StunAttribute;
+import org.littleshoot.stun.stack.message.attributes.StunAttributeMap;
 import org.littleshoot.stun.stack.message.attributes.StunAttributeType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,7 +18,11 @@ public class BindingSuccessResponse extends AbstractStunMessage {
 
     private final Logger LOG = LoggerFactory
             .getLogger(BindingSuccessResponse.class);
-    private final InetSocketAddress m_mappedAddress;
+    /**
+     * The mapped address.  For responses read from the network this is only
+     * looked up in the attributes when first requested.
+     */
+    private volatile InetSocketAddress m_mappedAddress;
 
     /**
      * Creates a new binding response message.
@@ -30,8 +34,20 @@ public class BindingSuccessResponse extends AbstractStunMessage {
      */
     public BindingSuccessResponse(final byte[] transactionId,
             final InetSocketAddress address) {
-        super(new UUID(transactionId),
-                StunMessageType.BINDING_SUCCESS_RESPONSE,
+        this(StunTransactionId.fromBytes(transactionId), address);
+    }
+
+    /**
+     * Creates a new binding response message.
+     * 
+     * @param transactionId
+     *            The ID of the transaction.
+     * @param address
+     *            The mapped address.
+     */
+    public BindingSuccessResponse(final StunTransactionId transactionId,
+            final InetSocketAddress address) {
+        super(transactionId, StunMessageType.BINDING_SUCCESS_RESPONSE,
                 createAttributes(address));
         m_mappedAddress = address;
     }
@@ -46,9 +62,21 @@ public class BindingSuccessResponse extends AbstractStunMessage {
      */
     public BindingSuccessResponse(final UUID transactionId,
             final Map<StunAttributeType, StunAttribute> attributes) {
+        this(StunTransactionId.fromUuid(transactionId), attributes);
+    }
+
+    /**
+     * Creates a new binding response message.
+     * 
+     * @param transactionId
+     *            The transaction ID of the response.
+     * @param attributes
+     *            The response attributes.
+     */
+    public BindingSuccessResponse(final StunTransactionId transactionId,
+            final Map<StunAttributeType, StunAttribute> attributes) {
         super(transactionId, StunMessageType.BINDING_SUCCESS_RESPONSE,
                 attributes);
-        m_mappedAddress = getAddress(attributes);
     }
 
     private InetSocketAddress getAddress(
@@ -64,13 +92,7 @@ public class BindingSuccessResponse extends AbstractStunMessage {
 
     private static Map<StunAttributeType, StunAttribute> createAttributes(
             final InetSocketAddress address) {
-        final Map<StunAttributeType, StunAttribute> attributes = 
-            new HashMap<StunAttributeType, StunAttribute>();
-
-        final StunAttribute attribute = new MappedAddressAttribute(address);
-        attributes.put(StunAttributeType.MAPPED_ADDRESS, attribute);
-
-        return attributes;
+        return StunAttributeMap.create(new MappedAddressAttribute(address));
     }
 
     /**
@@ -79,6 +101,9 @@ public class BindingSuccessResponse extends AbstractStunMessage {
      * @return The client's mapped address.
      */
     public InetSocketAddress getMappedAddress() {
+        if (m_mappedAddress == null) {
+            m_mappedAddress = getAddress(getAttributes());
+        }
         return m_mappedAddress;
     }
 
@@ -0,0 +1,131 @@
+package org.littleshoot.stun.stack.message;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.stun.stack.message.attributes.StunAttributeType;
+
+/**
+ * Writes encoded {@link BindingSuccessResponse}s without creating the
+ * message, its attributes or going through the encoder.  A binding response
+ * is always the STUN header followed by a single MAPPED-ADDRESS attribute,
+ * so we keep a pre-encoded layout for each address family and only patch in
+ * the transaction ID, the port and the address.  The bytes written are
+ * identical to encoding a {@link BindingSuccessResponse} for the same
+ * transaction ID and address.
+ */
+public final class BindingSuccessResponseTemplate
+    {
+
+    private static final int HEADER_LENGTH = 20;
+
+    private static final int TRANSACTION_ID_OFFSET = 4;
+
+    private static final int PORT_OFFSET = HEADER_LENGTH + 6;
+
+    private static final int ADDRESS_OFFSET = HEADER_LENGTH + 8;
+
+    private static final byte[] IPV4_TEMPLATE = createTemplate(0x01, 4);
+
+    private static final byte[] IPV6_TEMPLATE = createTemplate(0x02, 16);
+
+    /**
+     * Length of an encoded response with an IPv4 address.
+     */
+    public static final int IPV4_LENGTH = IPV4_TEMPLATE.length;
+
+    /**
+     * Length of an encoded response with an IPv6 address.
+     */
+    public static final int IPV6_LENGTH = IPV6_TEMPLATE.length;
+
+    private BindingSuccessResponseTemplate()
+        {
+        // Should not be constructed.
+        }
+
+    private static byte[] createTemplate(final int family, 
+        final int addressLength)
+        {
+        final int attributeLength = 4 + addressLength;
+        final int bodyLength = 4 + attributeLength;
+        final byte[] template = new byte[HEADER_LENGTH + bodyLength];
+        final int type = StunMessageType.BINDING_SUCCESS_RESPONSE.toInt();
+        template[0] = (byte) (type >>> 8);
+        template[1] = (byte) type;
+        template[2] = (byte) (bodyLength >>> 8);
+        template[3] = (byte) bodyLength;
+
+        final int attributeType = StunAttributeType.MAPPED_ADDRESS.toInt();
+        template[HEADER_LENGTH] = (byte) (attributeType >>> 8);
+        template[HEADER_LENGTH + 1] = (byte) attributeType;
+        template[HEADER_LENGTH + 2] = (byte) (attributeLength >>> 8);
+        template[HEADER_LENGTH + 3] = (byte) attributeLength;
+        // The first byte of the address attribute body is ignored.
+        template[HEADER_LENGTH + 5] = (byte) family;
+        return template;
+        }
+
+    /**
+     * Returns the length of the encoded response for the specified mapped
+     * address.
+     * 
+     * @param address The mapped address.
+     * @return The length of the encoded response.
+     */
+    public static int getLength(final InetSocketAddress address)
+        {
+        if (address.getAddress() instanceof Inet4Address)
+            {
+            return IPV4_LENGTH;
+            }
+        return IPV6_LENGTH;
+        }
+
+    /**
+     * Writes a binding success response into the specified buffer, starting
+     * at the buffer's current position.  On return, the buffer is positioned
+     * after the response.  The buffer is not flipped.
+     * 
+     * @param transactionId The ID of the transaction we're responding to.
+     * @param address The mapped address of the client.
+     * @param buf The buffer to write to.
+     * @return The number of bytes written.
+     */
+    public static int write(final StunTransactionId transactionId, 
+        final InetSocketAddress address, final ByteBuffer buf)
+        {
+        final InetAddress ia = address.getAddress();
+        final int start = buf.position();
+        final int length;
+        if (ia instanceof Inet4Address)
+            {
+            length = IPV4_LENGTH;
+            buf.put(IPV4_TEMPLATE);
+            final byte[] addressBytes = ia.getAddress();
+            for (int i = 0; i < addressBytes.length; i++)
+                {
+                buf.put(start + ADDRESS_OFFSET + i, addressBytes[i]);
+                }
+            }
+        else
+            {
+            length = IPV6_LENGTH;
+            buf.put(IPV6_TEMPLATE);
+            final byte[] addressBytes = ia.getAddress();
+            final int after = buf.position();
+            buf.position(start + ADDRESS_OFFSET);
+            buf.put(addressBytes);
+            buf.position(after);
+            }
+        buf.putShort(start + PORT_OFFSET, (short) address.getPort());
+
+        final int end = buf.position();
+        buf.position(start + TRANSACTION_ID_OFFSET);
+        transactionId.write(buf);
+        buf.position(end);
+        return length;
+        }
+    }
@@ -33,6 +33,11 @@ public class ConnectErrorStunMessage implements StunMessage
         return UUID.randomUUID();
         }
 
+    public StunTransactionId getStunTransactionId()
+        {
+        return StunTransactionId.create();
+        }
+
     public StunMessageType getType()
         {
         return null;
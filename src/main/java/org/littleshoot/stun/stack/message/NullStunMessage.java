@@ -34,6 +34,11 @@ public class NullStunMessage implements StunMessage
         return UUID.randomUUID();
         }
 
+    public StunTransactionId getStunTransactionId()
+        {
+        return StunTransactionId.create();
+        }
+
     public StunMessageType getType()
         {
         return null;
@@ -0,0 +1,32 @@
+package org.littleshoot.stun.stack.message;
+
+import org.littleshoot.mina.common.IoSession;
+
+/**
+ * Factory for visitors that can handle every message on a session rather
+ * than just one.  When a factory says its visitors are reusable, the
+ * {@link org.littleshoot.stun.stack.StunIoHandler} creates a single visitor
+ * per session, stores it in the session, and hands it all the messages
+ * that session receives, so long-lived sessions don't allocate a visitor
+ * for each message.
+ * 
+ * @param <T> The type visitors return.
+ */
+public interface ReusableStunMessageVisitorFactory<T> 
+    extends StunMessageVisitorFactory<T>
+    {
+
+    /**
+     * Returns whether or not visitors from this factory can be reused for
+     * all messages on the session they were created for.  Reusable visitors
+     * must not keep state from one message that breaks the handling of the
+     * next, and must be thread safe if messages for a session can be 
+     * handled on more than one thread at once, such as with an executor
+     * filter that doesn't preserve ordering.
+     * 
+     * @return <code>true</code> if visitors can be reused, otherwise 
+     * <code>false</code>.
+     */
+    boolean isReusable();
+
+    }
@@ -13,12 +13,23 @@ public interface StunMessage extends VisitableStunMessage
     {
 
     /**
-     * Accessor for the ID of the message's transaction.
+     * Accessor for the ID of the message's transaction as a {@link UUID}.
+     * This is an adapter for {@link #getStunTransactionId()}.
      * 
      * @return The transaction ID.
      */
     UUID getTransactionId();
 
+    /**
+     * Accessor for the ID of the message's transaction.  Implementations
+     * that don't extend {@link AbstractStunMessage} and only have a
+     * {@link UUID} can return 
+     * {@link StunTransactionId#fromUuid(UUID)} of it.
+     * 
+     * @return The transaction ID.
+     */
+    StunTransactionId getStunTransactionId();
+
     /**
      * Accessor for the total length of the message, including headers.
      * 
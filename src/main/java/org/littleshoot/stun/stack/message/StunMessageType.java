@@ -1,8 +1,5 @@
 package org.littleshoot.stun.stack.message;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * STUN attribute types.  These are converted to the full values including
  * the class bits for ease of use.  This is just a little easier that forcing
@@ -67,15 +64,25 @@ public enum StunMessageType
     
     ;
     
-    private static final Map<Integer, StunMessageType> s_intsToEnums =
-        new HashMap<Integer, StunMessageType>();
-    
+    /**
+     * The top two bits of the message type are always zero, leaving a 14 bit
+     * type space we can index directly.
+     */
+    private static final int TYPE_SPACE = 0x4000;
+
+    /**
+     * Lookup table indexed by the int value of the message type.  This is
+     * consulted for every decoded message, so we avoid boxing the int and
+     * hashing.
+     */
+    private static final StunMessageType[] s_intsToEnums =
+        new StunMessageType[TYPE_SPACE];
     
     static
         {
         for (final StunMessageType type : values())
             {
-            s_intsToEnums.put(new Integer(type.toInt()), type);
+            s_intsToEnums[type.toInt()] = type;
             }
         }
     
@@ -106,7 +113,11 @@ public enum StunMessageType
      */
     public static StunMessageType toType(final int typeInt)
         {
-        return s_intsToEnums.get(new Integer(typeInt));
+        if (typeInt < 0 || typeInt >= TYPE_SPACE)
+            {
+            return null;
+            }
+        return s_intsToEnums[typeInt];
         }
 
     }
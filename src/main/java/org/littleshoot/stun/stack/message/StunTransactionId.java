@@ -0,0 +1,250 @@
+package org.littleshoot.stun.stack.message;
+
+import java.security.SecureRandom;
+
+import org.apache.commons.id.uuid.UUID;
+import org.littleshoot.mina.common.ByteBuffer;
+
+/**
+ * A STUN transaction ID, including the magic cookie that precedes the 96 bit
+ * ID on the wire.  The ID is held in primitive fields rather than in a byte
+ * array, so creating, comparing and hashing IDs is cheap.  This is what the
+ * stack uses internally, with {@link #toUuid()} for callers that still
+ * expect a {@link UUID}.
+ */
+public final class StunTransactionId
+    {
+
+    /**
+     * The STUN magic cookie.
+     */
+    public static final int MAGIC_COOKIE = 0x2112A442;
+
+    /**
+     * The length of the magic cookie and transaction ID on the wire.
+     */
+    public static final int LENGTH = 16;
+
+    private static final ThreadLocal<SecureRandom> RANDOM =
+        new ThreadLocal<SecureRandom>()
+        {
+        @Override
+        protected SecureRandom initialValue()
+            {
+            return new SecureRandom();
+            }
+        };
+
+    private final int m_magicCookie;
+
+    /**
+     * The first 32 bits of the 96 bit ID.
+     */
+    private final int m_high;
+
+    /**
+     * The last 64 bits of the 96 bit ID.
+     */
+    private final long m_low;
+
+    private final int m_hashCode;
+
+    private volatile UUID m_uuid;
+
+    /**
+     * Creates a new transaction ID.
+     *
+     * @param magicCookie The magic cookie.
+     * @param high The first 32 bits of the 96 bit ID.
+     * @param low The last 64 bits of the 96 bit ID.
+     */
+    public StunTransactionId(final int magicCookie, final int high,
+        final long low)
+        {
+        m_magicCookie = magicCookie;
+        m_high = high;
+        m_low = low;
+        int hash = magicCookie;
+        hash = 31 * hash + high;
+        hash = 31 * hash + (int) (low ^ (low >>> 32));
+        m_hashCode = hash;
+        }
+
+    /**
+     * Creates a new random transaction ID with the STUN magic cookie.
+     *
+     * @return The new ID.
+     */
+    public static StunTransactionId create()
+        {
+        final SecureRandom random = RANDOM.get();
+        return new StunTransactionId(MAGIC_COOKIE, random.nextInt(),
+            random.nextLong());
+        }
+
+    /**
+     * Reads a transaction ID, including the magic cookie, from the current
+     * position of the specified buffer.  This advances the position by
+     * {@link #LENGTH} bytes.
+     *
+     * @param buf The buffer to read from.
+     * @return The transaction ID.
+     */
+    public static StunTransactionId read(final ByteBuffer buf)
+        {
+        final int magicCookie = buf.getInt();
+        final int high = buf.getInt();
+        final long low = buf.getLong();
+        return new StunTransactionId(magicCookie, high, low);
+        }
+
+    /**
+     * Creates a transaction ID from the 16 raw bytes of the magic cookie
+     * and the ID.
+     *
+     * @param raw The raw bytes.
+     * @return The transaction ID.
+     */
+    public static StunTransactionId fromBytes(final byte[] raw)
+        {
+        if (raw.length != LENGTH)
+            {
+            throw new IllegalArgumentException(
+                "Transaction IDs must be "+LENGTH+" bytes, not: "+raw.length);
+            }
+        return read(ByteBuffer.wrap(raw));
+        }
+
+    /**
+     * Creates a transaction ID from a {@link UUID} holding the 16 raw bytes
+     * of the magic cookie and the ID.
+     *
+     * @param uuid The {@link UUID}.
+     * @return The transaction ID.
+     */
+    public static StunTransactionId fromUuid(final UUID uuid)
+        {
+        final StunTransactionId id = fromBytes(uuid.getRawBytes());
+        id.m_uuid = uuid;
+        return id;
+        }
+
+    /**
+     * Writes the magic cookie and the ID at the current position of the
+     * specified buffer.
+     *
+     * @param buf The buffer to write to.
+     */
+    public void write(final ByteBuffer buf)
+        {
+        buf.putInt(m_magicCookie);
+        buf.putInt(m_high);
+        buf.putLong(m_low);
+        }
+
+    /**
+     * Returns the raw bytes of the magic cookie and the ID.
+     *
+     * @return A new array holding the 16 raw bytes.
+     */
+    public byte[] toBytes()
+        {
+        final ByteBuffer buf = ByteBuffer.allocate(LENGTH);
+        write(buf);
+        buf.flip();
+        final byte[] raw = new byte[LENGTH];
+        buf.get(raw);
+        return raw;
+        }
+
+    /**
+     * Returns this ID as a {@link UUID}.  The {@link UUID} is created on the
+     * first call and cached.
+     *
+     * @return This ID as a {@link UUID}.
+     */
+    public UUID toUuid()
+        {
+        UUID uuid = m_uuid;
+        if (uuid == null)
+            {
+            uuid = new UUID(toBytes());
+            m_uuid = uuid;
+            }
+        return uuid;
+        }
+
+    /**
+     * Accessor for the magic cookie.
+     *
+     * @return The magic cookie.
+     */
+    public int getMagicCookie()
+        {
+        return m_magicCookie;
+        }
+
+    /**
+     * Accessor for the first 64 bits on the wire: the magic cookie followed
+     * by the first 32 bits of the ID.
+     *
+     * @return The first 64 bits.
+     */
+    public long getMostSignificantBits()
+        {
+        return ((long) m_magicCookie << 32) | (m_high & 0xffffffffL);
+        }
+
+    /**
+     * Accessor for the last 64 bits of the ID.
+     *
+     * @return The last 64 bits.
+     */
+    public long getLeastSignificantBits()
+        {
+        return m_low;
+        }
+
+    @Override
+    public boolean equals(final Object obj)
+        {
+        if (obj == this)
+            {
+            return true;
+            }
+        if (!(obj instanceof StunTransactionId))
+            {
+            return false;
+            }
+        final StunTransactionId other = (StunTransactionId) obj;
+        return m_low == other.m_low && m_high == other.m_high &&
+            m_magicCookie == other.m_magicCookie;
+        }
+
+    @Override
+    public int hashCode()
+        {
+        return m_hashCode;
+        }
+
+    @Override
+    public String toString()
+        {
+        final StringBuilder sb = new StringBuilder(32);
+        appendHex(sb, m_magicCookie);
+        appendHex(sb, m_high);
+        appendHex(sb, (int) (m_low >>> 32));
+        appendHex(sb, (int) m_low);
+        return sb.toString();
+        }
+
+    private static void appendHex(final StringBuilder sb, final int value)
+        {
+        final String hex = Integer.toHexString(value);
+        for (int i = hex.length(); i < 8; i++)
+            {
+            sb.append('0');
+            }
+        sb.append(hex);
+        }
+    }
@@ -0,0 +1,106 @@
+package org.littleshoot.stun.stack.message.attributes;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Base class for the read-only, array-backed attribute {@link Map}s the
+ * stack attaches to messages.  Attributes are kept in the order they appear
+ * on the wire and can be walked by index, so the encoder doesn't need to
+ * allocate an iterator for every message.
+ */
+public abstract class AbstractStunAttributes
+    extends AbstractMap<StunAttributeType, StunAttribute>
+    {
+
+    private Set<Map.Entry<StunAttributeType, StunAttribute>> m_entrySet;
+
+    /**
+     * Accessor for the type of the attribute at the specified index.
+     *
+     * @param index The index of the attribute in wire order.
+     * @return The type of the attribute.
+     */
+    public abstract StunAttributeType typeAt(int index);
+
+    /**
+     * Accessor for the attribute at the specified index.
+     *
+     * @param index The index of the attribute in wire order.
+     * @return The attribute.
+     */
+    public abstract StunAttribute attributeAt(int index);
+
+    /**
+     * Accessor for the length of the encoded attributes, including the
+     * attribute headers.
+     *
+     * @return The length of the message body.
+     */
+    public abstract int getBodyLength();
+
+    @Override
+    public abstract int size();
+
+    @Override
+    public boolean isEmpty()
+        {
+        return size() == 0;
+        }
+
+    @Override
+    public Set<Map.Entry<StunAttributeType, StunAttribute>> entrySet()
+        {
+        if (m_entrySet == null)
+            {
+            m_entrySet = new EntrySet();
+            }
+        return m_entrySet;
+        }
+
+    private final class EntrySet
+        extends AbstractSet<Map.Entry<StunAttributeType, StunAttribute>>
+        {
+
+        @Override
+        public Iterator<Map.Entry<StunAttributeType, StunAttribute>> iterator()
+            {
+            return new Iterator<Map.Entry<StunAttributeType, StunAttribute>>()
+                {
+                private int m_index;
+
+                public boolean hasNext()
+                    {
+                    return m_index < size();
+                    }
+
+                public Map.Entry<StunAttributeType, StunAttribute> next()
+                    {
+                    if (m_index >= size())
+                        {
+                        throw new NoSuchElementException();
+                        }
+                    final int index = m_index++;
+                    return new SimpleImmutableEntry<StunAttributeType,
+                        StunAttribute>(typeAt(index), attributeAt(index));
+                    }
+
+                public void remove()
+                    {
+                    throw new UnsupportedOperationException(
+                        "Message attributes are read-only");
+                    }
+                };
+            }
+
+        @Override
+        public int size()
+            {
+            return AbstractStunAttributes.this.size();
+            }
+        }
+    }
@@ -26,6 +26,35 @@ public class AddressAttributeReader
         // Should never be constructed.
         }
 
+    /**
+     * Checks whether an address attribute body can be read without reading
+     * it.
+     *
+     * @param body The bytes holding the attribute body.
+     * @param offset The offset of the attribute body.
+     * @param length The length of the attribute body.
+     * @return <code>true</code> if {@link #readAddress(ByteBuffer)} can read
+     * the body.
+     */
+    static boolean isReadable(final byte[] body, final int offset,
+        final int length)
+        {
+        if (length < 4)
+            {
+            return false;
+            }
+        final byte family = body[offset + 1];
+        if (family == IPv4)
+            {
+            return length >= 8;
+            }
+        if (family == IPv6)
+            {
+            return length >= 20;
+            }
+        return false;
+        }
+
     /**
      * Reads the the address and port from the STUN address attribute body.
      * 
@@ -0,0 +1,240 @@
+package org.littleshoot.stun.stack.message.attributes;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.util.Map;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-only attributes {@link Map} for a decoded STUN message.  Parsing the
+ * message body only records the type, offset and length of each attribute.
+ * An attribute is turned into a {@link StunAttribute} the first time it's
+ * accessed, so messages whose attributes are never read never pay for
+ * creating them.  Iteration follows the order attributes appeared on the
+ * wire.
+ * <p>
+ * Attributes we don't recognize, and attributes too short or otherwise too
+ * malformed to read, are skipped while indexing, so the map, its body
+ * length and the message we'd encode from it only cover attributes we can
+ * actually create.  Checking an attribute doesn't create it.
+ * <p>
+ * The body is copied once because the network buffer is recycled after
+ * decoding.  Decoded attributes are cached without locking -- two threads
+ * racing on the same attribute may both decode it, but both will see an
+ * equivalent immutable attribute.
+ */
+public final class LazyStunAttributes extends AbstractStunAttributes
+    {
+
+    private static final Logger LOG =
+        LoggerFactory.getLogger(LazyStunAttributes.class);
+
+    private final byte[] m_body;
+
+    private StunAttributeType[] m_types = new StunAttributeType[4];
+    private int[] m_offsets = new int[4];
+    private int[] m_lengths = new int[4];
+    private int m_size;
+    private int m_bodyLength;
+
+    private final StunAttribute[] m_decoded;
+
+    /**
+     * Indexes the attributes in the remaining bytes of the specified message
+     * body.  On return, the body buffer is positioned at its limit.
+     *
+     * @param body The body of the STUN message.
+     */
+    public LazyStunAttributes(final ByteBuffer body)
+        {
+        m_body = new byte[body.remaining()];
+        body.get(m_body);
+
+        int pos = 0;
+        while (pos + 4 <= m_body.length)
+            {
+            final int typeInt = readUnsignedShort(pos);
+            final int length = readUnsignedShort(pos + 2);
+            pos += 4;
+            if (pos + length > m_body.length)
+                {
+                LOG.error("Error reading attribute of type: "+typeInt+
+                    "\nExpected length:  "+length+
+                    "\nActual remaining: "+(m_body.length - pos));
+                throw new BufferUnderflowException();
+                }
+            final StunAttributeType type = StunAttributeType.toType(typeInt);
+
+            // Handle types we don't recognize, such as types returned from
+            // "foreign" STUN servers.
+            if (type == null)
+                {
+                LOG.debug("Did not recognize type: "+typeInt);
+                }
+            else if (!StunAttributesFactoryImpl.canCreateAttribute(type))
+                {
+                LOG.debug("No attribute implementation for: "+type);
+                }
+            else if (!isReadable(type, pos, length))
+                {
+                LOG.debug("Skipping malformed attribute: "+type);
+                }
+            else
+                {
+                index(type, pos, length);
+                }
+            pos += length;
+            }
+        m_decoded = new StunAttribute[m_size];
+        for (int i = 0; i < m_size; i++)
+            {
+            m_bodyLength += 4 + m_lengths[i];
+            }
+        }
+
+    /**
+     * Checks that the attribute is long enough and well-formed enough for
+     * {@link StunAttributesFactoryImpl#createAttribute} to read, so that
+     * creating it later can't fail.
+     */
+    private boolean isReadable(final StunAttributeType type, final int offset,
+        final int length)
+        {
+        switch (type)
+            {
+            case MAPPED_ADDRESS:
+            case RELAY_ADDRESS:
+            case REMOTE_ADDRESS:
+                return AddressAttributeReader.isReadable(m_body, offset,
+                    length);
+            case CONNECT_STAT:
+            case ERROR_CODE:
+            case ICE_PRIORITY:
+                return length >= 4;
+            case ICE_CONTROLLED:
+            case ICE_CONTROLLING:
+                return length >= 8;
+            default:
+                return true;
+            }
+        }
+
+    private void index(final StunAttributeType type, final int offset,
+        final int length)
+        {
+        // Later attributes of the same type replace earlier ones.
+        int i = indexOf(type);
+        if (i == -1)
+            {
+            if (m_size == m_types.length)
+                {
+                final int newLength = m_size * 2;
+                final StunAttributeType[] types =
+                    new StunAttributeType[newLength];
+                System.arraycopy(m_types, 0, types, 0, m_size);
+                m_types = types;
+                final int[] offsets = new int[newLength];
+                System.arraycopy(m_offsets, 0, offsets, 0, m_size);
+                m_offsets = offsets;
+                final int[] lengths = new int[newLength];
+                System.arraycopy(m_lengths, 0, lengths, 0, m_size);
+                m_lengths = lengths;
+                }
+            i = m_size;
+            m_size++;
+            }
+        m_types[i] = type;
+        m_offsets[i] = offset;
+        m_lengths[i] = length;
+        }
+
+    private int readUnsignedShort(final int pos)
+        {
+        return ((m_body[pos] & 0xff) << 8) | (m_body[pos + 1] & 0xff);
+        }
+
+    private int indexOf(final Object type)
+        {
+        for (int i = 0; i < m_size; i++)
+            {
+            if (m_types[i] == type)
+                {
+                return i;
+                }
+            }
+        return -1;
+        }
+
+    /**
+     * Accessor for the length of the attributes in the map once encoded.
+     * This leaves out attributes we skipped and those replaced by later
+     * attributes of the same type, so it can be shorter than the body on
+     * the wire.
+     *
+     * @return The length of the encoded attributes.
+     */
+    @Override
+    public int getBodyLength()
+        {
+        return m_bodyLength;
+        }
+
+    @Override
+    public StunAttributeType typeAt(final int index)
+        {
+        return m_types[index];
+        }
+
+    @Override
+    public StunAttribute attributeAt(final int index)
+        {
+        final StunAttribute cached = m_decoded[index];
+        if (cached != null)
+            {
+            return cached;
+            }
+        final int length = m_lengths[index];
+        final ByteBuffer body =
+            ByteBuffer.wrap(m_body, m_offsets[index], length);
+        try
+            {
+            final StunAttribute attribute =
+                StunAttributesFactoryImpl.createAttribute(m_types[index],
+                    body, length);
+            m_decoded[index] = attribute;
+            return attribute;
+            }
+        catch (final IOException e)
+            {
+            // We checked the attribute while indexing, so this is a bug.
+            throw new IllegalStateException(
+                "Could not create checked attribute: " + m_types[index], e);
+            }
+        }
+
+    @Override
+    public StunAttribute get(final Object key)
+        {
+        final int index = indexOf(key);
+        if (index == -1)
+            {
+            return null;
+            }
+        return attributeAt(index);
+        }
+
+    @Override
+    public boolean containsKey(final Object key)
+        {
+        return indexOf(key) != -1;
+        }
+
+    @Override
+    public int size()
+        {
+        return m_size;
+        }
+    }
@@ -0,0 +1,157 @@
+package org.littleshoot.stun.stack.message.attributes;
+
+import java.util.Map;
+
+/**
+ * Immutable attributes {@link Map} for messages we create locally.  Messages
+ * rarely have more than a handful of attributes, so this holds them in a
+ * small array in the order they'll be encoded, with a table indexed by the
+ * ordinal of the attribute type for lookups.  The body length is computed
+ * once up front.
+ */
+public final class StunAttributeMap extends AbstractStunAttributes
+    {
+
+    /**
+     * Shared map for messages without attributes.
+     */
+    public static final StunAttributeMap EMPTY = 
+        new StunAttributeMap(new StunAttribute[0]);
+
+    private static final int NUM_TYPES = StunAttributeType.values().length;
+
+    private final StunAttribute[] m_attributes;
+
+    /**
+     * Position of each attribute in {@link #m_attributes} plus one, indexed
+     * by the ordinal of its type.  Zero means the attribute is absent.
+     */
+    private final byte[] m_positions;
+
+    private final int m_bodyLength;
+
+    private StunAttributeMap(final StunAttribute[] attributes)
+        {
+        m_attributes = attributes;
+        m_positions = new byte[attributes.length == 0 ? 0 : NUM_TYPES];
+        int bodyLength = 0;
+        for (int i = 0; i < attributes.length; i++)
+            {
+            m_positions[attributes[i].getAttributeType().ordinal()] = 
+                (byte) (i + 1);
+            bodyLength += attributes[i].getTotalLength();
+            }
+        m_bodyLength = bodyLength;
+        }
+
+    /**
+     * Creates a new attributes map holding the specified attributes in the
+     * given order.  If more than one attribute has the same type, the last
+     * one wins.
+     *
+     * @param attributes The attributes.
+     * @return The new map.
+     */
+    public static StunAttributeMap create(final StunAttribute... attributes)
+        {
+        if (attributes.length == 0)
+            {
+            return EMPTY;
+            }
+        if (attributes.length > Byte.MAX_VALUE)
+            {
+            throw new IllegalArgumentException(
+                "Too many attributes: "+attributes.length);
+            }
+        final StunAttribute[] unique = new StunAttribute[attributes.length];
+        int size = 0;
+        for (final StunAttribute attribute : attributes)
+            {
+            final StunAttributeType type = attribute.getAttributeType();
+            int i = 0;
+            while (i < size && unique[i].getAttributeType() != type)
+                {
+                i++;
+                }
+            unique[i] = attribute;
+            if (i == size)
+                {
+                size++;
+                }
+            }
+        if (size == unique.length)
+            {
+            return new StunAttributeMap(unique);
+            }
+        final StunAttribute[] trimmed = new StunAttribute[size];
+        System.arraycopy(unique, 0, trimmed, 0, size);
+        return new StunAttributeMap(trimmed);
+        }
+
+    /**
+     * Copies the specified attributes into a new attributes map.
+     *
+     * @param attributes The attributes to copy.
+     * @return The new map.
+     */
+    public static StunAttributeMap copyOf(
+        final Map<StunAttributeType, StunAttribute> attributes)
+        {
+        if (attributes instanceof StunAttributeMap)
+            {
+            return (StunAttributeMap) attributes;
+            }
+        return create(attributes.values().toArray(
+            new StunAttribute[attributes.size()]));
+        }
+
+    private int indexOf(final Object key)
+        {
+        if (!(key instanceof StunAttributeType) || m_positions.length == 0)
+            {
+            return -1;
+            }
+        return m_positions[((StunAttributeType) key).ordinal()] - 1;
+        }
+
+    @Override
+    public StunAttributeType typeAt(final int index)
+        {
+        return m_attributes[index].getAttributeType();
+        }
+
+    @Override
+    public StunAttribute attributeAt(final int index)
+        {
+        return m_attributes[index];
+        }
+
+    @Override
+    public int getBodyLength()
+        {
+        return m_bodyLength;
+        }
+
+    @Override
+    public StunAttribute get(final Object key)
+        {
+        final int index = indexOf(key);
+        if (index == -1)
+            {
+            return null;
+            }
+        return m_attributes[index];
+        }
+
+    @Override
+    public boolean containsKey(final Object key)
+        {
+        return indexOf(key) != -1;
+        }
+
+    @Override
+    public int size()
+        {
+        return m_attributes.length;
+        }
+    }
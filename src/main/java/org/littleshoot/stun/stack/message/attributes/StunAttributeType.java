@@ -1,6 +1,5 @@
 package org.littleshoot.stun.stack.message.attributes;
 
-import java.util.HashMap;
 import java.util.Map;
 
 
@@ -133,15 +132,51 @@ public enum StunAttributeType
     
     ;
 
-    private static final Map<Integer, StunAttributeType> s_intsToEnums =
-        new HashMap<Integer, StunAttributeType>();
-    
+    /**
+     * Bit marking an attribute as comprehension-optional.
+     */
+    private static final int OPTIONAL_BIT = 0x8000;
+
+    /**
+     * Lookup tables for comprehension-required (0x0000-0x7FFF) and
+     * comprehension-optional (0x8000-0xFFFF) attributes, indexed by the type
+     * with the optional bit cleared.  Known types sit near the bottom of
+     * each range, so each table is only as long as its largest known type.
+     * This is consulted for every decoded attribute, so we avoid boxing the
+     * int and hashing.
+     */
+    private static final StunAttributeType[] s_required;
+    private static final StunAttributeType[] s_optional;
     
     static
         {
+        int maxRequired = -1;
+        int maxOptional = -1;
         for (final StunAttributeType type : values())
             {
-            s_intsToEnums.put(new Integer(type.toInt()), type);
+            final int index = type.toInt() & ~OPTIONAL_BIT;
+            if ((type.toInt() & OPTIONAL_BIT) == 0)
+                {
+                maxRequired = Math.max(maxRequired, index);
+                }
+            else
+                {
+                maxOptional = Math.max(maxOptional, index);
+                }
+            }
+        s_required = new StunAttributeType[maxRequired + 1];
+        s_optional = new StunAttributeType[maxOptional + 1];
+        for (final StunAttributeType type : values())
+            {
+            final int index = type.toInt() & ~OPTIONAL_BIT;
+            if ((type.toInt() & OPTIONAL_BIT) == 0)
+                {
+                s_required[index] = type;
+                }
+            else
+                {
+                s_optional[index] = type;
+                }
             }
         }
 
@@ -172,7 +207,18 @@ public enum StunAttributeType
      */
     public static StunAttributeType toType(final int typeInt)
         {
-        return s_intsToEnums.get(new Integer(typeInt));
+        if (typeInt < 0 || typeInt > 0xFFFF)
+            {
+            return null;
+            }
+        final int index = typeInt & ~OPTIONAL_BIT;
+        final StunAttributeType[] table = 
+            (typeInt & OPTIONAL_BIT) == 0 ? s_required : s_optional;
+        if (index >= table.length)
+            {
+            return null;
+            }
+        return table[index];
         }
 
     }
@@ -3,7 +3,6 @@ package org.littleshoot.stun.stack.message.attributes;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.littleshoot.stun.stack.message.attributes.ice.IceControlledAttribute;
 import org.littleshoot.stun.stack.message.attributes.ice.IceControllingAttribute;
@@ -25,63 +24,64 @@ import org.slf4j.LoggerFactory;
 public class StunAttributesFactoryImpl implements StunAttributesFactory
     {
 
-    private final Logger LOG = LoggerFactory.getLogger(StunAttributesFactoryImpl.class);
+    private static final Logger LOG = 
+        LoggerFactory.getLogger(StunAttributesFactoryImpl.class);
     
+    /**
+     * Creates the attributes for the specified message body.  Attributes
+     * are only indexed here and are created on first access.  See
+     * {@link LazyStunAttributes}.
+     */
     public Map<StunAttributeType, StunAttribute> createAttributes(
         final ByteBuffer body)
         {
-        final Map<StunAttributeType, StunAttribute> attributes =
-            new ConcurrentHashMap<StunAttributeType, StunAttribute>();
-        while (body.hasRemaining())
-            {
-            addAttribute(attributes, body);
-            }
-        return attributes;
+        return new LazyStunAttributes(body);
         }
 
-    private void addAttribute(
-        final Map<StunAttributeType, StunAttribute> attributes, 
-        final ByteBuffer buf)
+    /**
+     * Returns whether or not we have an attribute implementation for the
+     * specified type.  This must stay in sync with 
+     * {@link #createAttribute(StunAttributeType, ByteBuffer, int)}.
+     * 
+     * @param type The attribute type.
+     * @return <code>true</code> if we can create attributes of this type,
+     * otherwise <code>false</code>.
+     */
+    static boolean canCreateAttribute(final StunAttributeType type)
         {
-        final int typeInt = buf.getUnsignedShort();
-        final StunAttributeType type = StunAttributeType.toType(typeInt);
-        final int length = buf.getUnsignedShort();
-        
-        if (buf.remaining() < length)
-            {
-            LOG.error("Error reading attribute of type: "+type+
-                "\nExpected length:  "+length+
-                "\nActual remaining: "+buf.remaining());
-            }
-        final byte[] body = new byte[length];
-        buf.get(body);
-        
-        // Handle types we don't recognize, such as types returned from
-        // "foreign" STUN servers.
-        if (type == null)
-            {
-            LOG.debug("Did not recognize type: "+typeInt);
-            return;
-            }
-        try
-            {
-            final StunAttribute attribute = createAttribute(type, body);
-            if (attribute != null)
-                {
-                attributes.put(type, attribute);
-                }
-            }
-        catch (final IOException e)
+        switch (type)
             {
-            LOG.warn("Could not process attribute", e);
+            case MAPPED_ADDRESS:
+            case SERVER:
+            case RELAY_ADDRESS:
+            case REMOTE_ADDRESS:
+            case DATA:
+            case CONNECT_STAT:
+            case ERROR_CODE:
+            case ICE_PRIORITY:
+            case ICE_USE_CANDIDATE:
+            case ICE_CONTROLLED:
+            case ICE_CONTROLLING:
+                return true;
+            default:
+                return false;
             }
-
         }
     
-    private StunAttribute createAttribute(final StunAttributeType type, 
-        final byte[] bodyBytes) throws IOException
+    /**
+     * Creates a single attribute from its body.
+     * 
+     * @param type The type of the attribute.
+     * @param body The attribute body, from the buffer's position to its 
+     * limit.
+     * @param length The length of the attribute body.
+     * @return The new attribute, or <code>null</code> if the type is not
+     * supported.
+     * @throws IOException If the body could not be read.
+     */
+    static StunAttribute createAttribute(final StunAttributeType type, 
+        final ByteBuffer body, final int length) throws IOException
         {
-        final ByteBuffer body = ByteBuffer.wrap(bodyBytes);
         switch (type)
             {
             case MAPPED_ADDRESS:
@@ -93,7 +93,7 @@ public class StunAttributesFactoryImpl implements StunAttributesFactory
             case SERVER:
                 {
                 final String serverText = MinaUtils.toAsciiString(body);
-                return new StunServerAttribute(bodyBytes.length, serverText);
+                return new StunServerAttribute(length, serverText);
                 }
                 
             case RELAY_ADDRESS:
@@ -110,7 +110,12 @@ public class StunAttributesFactoryImpl implements StunAttributesFactory
                 }
             case DATA:
                 {
-                return new DataAttribute(bodyBytes);
+                // The body is our own copy of the message, so the data can
+                // share it.
+                final ByteBuffer data = body.slice();
+                data.limit(length);
+                body.skip(length);
+                return new DataAttribute(data);
                 }
             case CONNECT_STAT:
                 {
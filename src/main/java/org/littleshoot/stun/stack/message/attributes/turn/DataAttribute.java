@@ -1,5 +1,6 @@
 package org.littleshoot.stun.stack.message.attributes.turn;
 
+import org.littleshoot.mina.common.ByteBuffer;
 import org.littleshoot.stun.stack.message.attributes.AbstractStunAttribute;
 import org.littleshoot.stun.stack.message.attributes.StunAttributeType;
 import org.littleshoot.stun.stack.message.attributes.StunAttributeVisitor;
@@ -8,11 +9,17 @@ import org.littleshoot.stun.stack.message.attributes.StunAttributeVisitor;
  * Class that wraps incoming data from a remote host.  It adds the address of 
  * the remote host so that the TURN client can demultiplex incoming data to the
  * hosts that data is arriving from.
+ * <p>
+ * The data is held as a read-only buffer.  Decoded attributes share the
+ * buffer holding the decoded message body rather than copying the data out
+ * of it, and the encoder can hand the buffer to a gathering write.
  */
 public final class DataAttribute extends AbstractStunAttribute 
     {
 
-    private final byte[] m_data;
+    private final ByteBuffer m_data;
+
+    private volatile byte[] m_dataBytes;
 
     /**
      * Creates a new data attribute wraping the specified data from a remote 
@@ -22,17 +29,52 @@ public final class DataAttribute extends AbstractStunAttribute
     public DataAttribute(final byte[] bodyBytes)
         {
         super(StunAttributeType.DATA, bodyBytes.length);
-        this.m_data = bodyBytes;
+        this.m_data = ByteBuffer.wrap(bodyBytes).asReadOnlyBuffer();
+        this.m_dataBytes = bodyBytes;
+        }
+
+    /**
+     * Creates a new data attribute wrapping the remaining bytes of the 
+     * specified buffer without copying them.  Changes to the buffer's
+     * content will be visible through the attribute, so callers should only
+     * pass buffers that won't be reused.
+     * 
+     * @param data The data to wrap.
+     */
+    public DataAttribute(final ByteBuffer data)
+        {
+        super(StunAttributeType.DATA, data.remaining());
+        this.m_data = data.slice().asReadOnlyBuffer();
         }
 
     /**
-     * Accesses the raw data.
+     * Accesses the raw data.  For decoded attributes, this copies the data 
+     * on the first call.  Use {@link #getDataBuffer()} to avoid the copy.
      * 
      * @return The raw data encapsulated in the attribute.
      */
     public byte[] getData()
         {
-        return this.m_data;
+        byte[] dataBytes = this.m_dataBytes;
+        if (dataBytes == null)
+            {
+            dataBytes = new byte[this.m_data.limit()];
+            this.m_data.duplicate().get(dataBytes);
+            this.m_dataBytes = dataBytes;
+            }
+        return dataBytes;
+        }
+
+    /**
+     * Accesses the data as a read-only buffer positioned at the start of 
+     * the data.  Each call returns a new view, so callers are free to change
+     * its position and limit.
+     * 
+     * @return The data encapsulated in the attribute.
+     */
+    public ByteBuffer getDataBuffer()
+        {
+        return this.m_data.duplicate();
         }
 
     public void accept(final StunAttributeVisitor visitor)
@@ -44,6 +86,6 @@ public final class DataAttribute extends AbstractStunAttribute
     public String toString()
         {
         return getClass().getSimpleName() + " with "+ 
-            this.m_data.length +" bytes of data...";
+            this.m_data.limit() +" bytes of data...";
         }
     }
@@ -4,8 +4,10 @@ import java.net.InetSocketAddress;
 import java.util.Map;
 
 import org.apache.commons.id.uuid.UUID;
+import org.littleshoot.mina.common.ByteBuffer;
 import org.littleshoot.stun.stack.message.AbstractStunMessage;
 import org.littleshoot.stun.stack.message.StunMessageType;
+import org.littleshoot.stun.stack.message.StunTransactionId;
 import org.littleshoot.stun.stack.message.attributes.StunAttribute;
 import org.littleshoot.stun.stack.message.attributes.StunAttributeType;
 import org.littleshoot.stun.stack.message.attributes.turn.DataAttribute;
@@ -20,7 +22,7 @@ public abstract class AbstractStunDataMessage extends AbstractStunMessage
     {
     
     private final InetSocketAddress m_remoteAddress;
-    private final byte[] m_data;
+    private final DataAttribute m_data;
 
     /**
      * Creates a new STUN data message.
@@ -30,6 +32,21 @@ public abstract class AbstractStunDataMessage extends AbstractStunMessage
      * @param attributes The message attributes.
      */
     public AbstractStunDataMessage(final UUID transactionId, 
+        final StunMessageType messageType, 
+        final Map<StunAttributeType, StunAttribute> attributes)
+        {
+        this(StunTransactionId.fromUuid(transactionId), 
+            messageType, attributes);
+        }
+
+    /**
+     * Creates a new STUN data message.
+     * 
+     * @param transactionId The transaction ID.
+     * @param messageType The message type;
+     * @param attributes The message attributes.
+     */
+    public AbstractStunDataMessage(final StunTransactionId transactionId, 
         final StunMessageType messageType, 
         final Map<StunAttributeType, StunAttribute> attributes)
         {
@@ -37,8 +54,7 @@ public abstract class AbstractStunDataMessage extends AbstractStunMessage
         m_remoteAddress = 
             ((RemoteAddressAttribute) attributes.get(
                 StunAttributeType.REMOTE_ADDRESS)).getInetSocketAddress();
-        m_data = 
-            ((DataAttribute) attributes.get(StunAttributeType.DATA)).getData();
+        m_data = (DataAttribute) attributes.get(StunAttributeType.DATA);
         }
     
     /**
@@ -60,7 +76,7 @@ public abstract class AbstractStunDataMessage extends AbstractStunMessage
                 data.length);
             }
         m_remoteAddress = remoteAddress;
-        m_data = data;
+        m_data = (DataAttribute) getAttributes().get(StunAttributeType.DATA);
         }
 
     private static Map<StunAttributeType, StunAttribute> createDataAttributes(
@@ -76,13 +92,24 @@ public abstract class AbstractStunDataMessage extends AbstractStunMessage
 
 
     /**
-     * Accessor for the data.
+     * Accessor for the data.  For decoded messages, this copies the data on
+     * the first call.
      * 
      * @return The data.
      */
     public final byte[] getData()
         {
-        return m_data;
+        return m_data.getData();
+        }
+
+    /**
+     * Accessor for the data as a read-only buffer, avoiding any copy.
+     * 
+     * @return The data.
+     */
+    public final ByteBuffer getDataBuffer()
+        {
+        return m_data.getDataBuffer();
         }
 
     /**
@@ -6,6 +6,7 @@ import org.apache.commons.id.uuid.UUID;
 import org.littleshoot.stun.stack.message.AbstractStunMessage;
 import org.littleshoot.stun.stack.message.StunMessageType;
 import org.littleshoot.stun.stack.message.StunMessageVisitor;
+import org.littleshoot.stun.stack.message.StunTransactionId;
 import org.littleshoot.stun.stack.message.attributes.ErrorCodeAttribute;
 import org.littleshoot.stun.stack.message.attributes.StunAttribute;
 import org.littleshoot.stun.stack.message.attributes.StunAttributeType;
@@ -29,6 +30,19 @@ public final class AllocateErrorResponse extends AbstractStunMessage
      * @param attributes The message attributes.
      */
     public AllocateErrorResponse(final UUID transactionId, 
+        final Map<StunAttributeType, StunAttribute> attributes)
+        {
+        this(StunTransactionId.fromUuid(transactionId), attributes);
+        }
+
+    /**
+     * Creates a new successful response to an allocate request.
+     * 
+     * @param transactionId The ID of the transaction, matching the ID of the
+     * request.
+     * @param attributes The message attributes.
+     */
+    public AllocateErrorResponse(final StunTransactionId transactionId, 
         final Map<StunAttributeType, StunAttribute> attributes)
         {
         super(transactionId, StunMessageType.ALLOCATE_ERROR_RESPONSE,
@@ -44,6 +58,21 @@ public final class AllocateErrorResponse extends AbstractStunMessage
      * @param reasonPhrase The reason description.
      */
     public AllocateErrorResponse(final UUID transactionId,
+        final int errorCode, final String reasonPhrase)
+        {
+        this(StunTransactionId.fromUuid(transactionId), 
+            errorCode, reasonPhrase);
+        }
+
+    /**
+     * Creates a new successful response to an allocate request.
+     * 
+     * @param transactionId The ID of the transaction, matching the ID of the
+     * request.
+     * @param errorCode The code for the error.
+     * @param reasonPhrase The reason description.
+     */
+    public AllocateErrorResponse(final StunTransactionId transactionId,
         final int errorCode, final String reasonPhrase)
         {
         super(transactionId, StunMessageType.ALLOCATE_ERROR_RESPONSE,
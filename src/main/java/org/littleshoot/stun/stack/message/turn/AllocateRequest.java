@@ -4,6 +4,7 @@ import org.apache.commons.id.uuid.UUID;
 import org.littleshoot.stun.stack.message.AbstractStunMessage;
 import org.littleshoot.stun.stack.message.StunMessageType;
 import org.littleshoot.stun.stack.message.StunMessageVisitor;
+import org.littleshoot.stun.stack.message.StunTransactionId;
 
 /**
  * Allocate request message.  This can create an allocate request from scratch
@@ -28,6 +29,17 @@ public final class AllocateRequest extends AbstractStunMessage
      * @param id The ID of the request.
      */
     public AllocateRequest(final UUID id)
+        {
+        this(StunTransactionId.fromUuid(id));
+        }
+
+    /**
+     * Creates a new request from the network with the given transaction ID 
+     * and factory for creating attributes.
+     * 
+     * @param id The ID of the request.
+     */
+    public AllocateRequest(final StunTransactionId id)
         {
         super(id, StunMessageType.ALLOCATE_REQUEST); 
         }
@@ -7,6 +7,7 @@ import org.apache.commons.id.uuid.UUID;
 import org.littleshoot.stun.stack.message.AbstractStunMessage;
 import org.littleshoot.stun.stack.message.StunMessageType;
 import org.littleshoot.stun.stack.message.StunMessageVisitor;
+import org.littleshoot.stun.stack.message.StunTransactionId;
 import org.littleshoot.stun.stack.message.attributes.MappedAddressAttribute;
 import org.littleshoot.stun.stack.message.attributes.StunAttribute;
 import org.littleshoot.stun.stack.message.attributes.StunAttributeType;
@@ -35,6 +36,19 @@ public final class AllocateSuccessResponse extends AbstractStunMessage
      * @param attributes The message attributes.
      */
     public AllocateSuccessResponse(final UUID transactionId, 
+        final Map<StunAttributeType, StunAttribute> attributes)
+        {
+        this(StunTransactionId.fromUuid(transactionId), attributes);
+        }
+
+    /**
+     * Creates a new successful response to an allocate request.
+     * 
+     * @param transactionId The ID of the transaction, matching the ID of the
+     * request.
+     * @param attributes The message attributes.
+     */
+    public AllocateSuccessResponse(final StunTransactionId transactionId, 
         final Map<StunAttributeType, StunAttribute> attributes)
         {
         super(transactionId, StunMessageType.ALLOCATE_SUCCESS_RESPONSE,
@@ -58,6 +72,23 @@ public final class AllocateSuccessResponse extends AbstractStunMessage
      * address.
      */
     public AllocateSuccessResponse(final UUID transactionId,
+        final InetSocketAddress relayAddress,
+        final InetSocketAddress mappedAddress)
+        {
+        this(StunTransactionId.fromUuid(transactionId), 
+            relayAddress, mappedAddress);
+        }
+
+    /**
+     * Creates a new successful response to an allocate request.
+     * 
+     * @param transactionId The ID of the transaction, matching the ID of the
+     * request.
+     * @param relayAddress The allocated RELAY ADDRESS on the server.
+     * @param mappedAddress The MAPPED ADDRESS, or the "server reflexive"
+     * address.
+     */
+    public AllocateSuccessResponse(final StunTransactionId transactionId,
         final InetSocketAddress relayAddress,
         final InetSocketAddress mappedAddress)
         {
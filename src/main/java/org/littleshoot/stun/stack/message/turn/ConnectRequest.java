@@ -7,6 +7,7 @@ import org.apache.commons.id.uuid.UUID;
 import org.littleshoot.stun.stack.message.AbstractStunMessage;
 import org.littleshoot.stun.stack.message.StunMessageType;
 import org.littleshoot.stun.stack.message.StunMessageVisitor;
+import org.littleshoot.stun.stack.message.StunTransactionId;
 import org.littleshoot.stun.stack.message.attributes.StunAttribute;
 import org.littleshoot.stun.stack.message.attributes.StunAttributeType;
 import org.littleshoot.stun.stack.message.attributes.turn.RemoteAddressAttribute;
@@ -26,6 +27,18 @@ public class ConnectRequest extends AbstractStunMessage
      * @param attributes
      */
     public ConnectRequest(final UUID transactionId, 
+        final Map<StunAttributeType, StunAttribute> attributes)
+        {
+        this(StunTransactionId.fromUuid(transactionId), attributes);
+        }
+
+    /**
+     * Creates a new connection request.
+     * 
+     * @param transactionId The ID of the transaction.
+     * @param attributes
+     */
+    public ConnectRequest(final StunTransactionId transactionId, 
         final Map<StunAttributeType, StunAttribute> attributes)
         {
         super(transactionId, StunMessageType.CONNECT_REQUEST, attributes);
@@ -41,7 +54,7 @@ public class ConnectRequest extends AbstractStunMessage
      */
     public ConnectRequest(final InetSocketAddress remoteAddress)
         {
-        super(UUID.randomUUID(), StunMessageType.CONNECT_REQUEST, 
+        super(StunTransactionId.create(), StunMessageType.CONNECT_REQUEST, 
             createRemoteAddress(remoteAddress));
         this.m_remoteAddress = remoteAddress;
         }
@@ -2,12 +2,12 @@ package org.littleshoot.stun.stack.message.turn;
 
 import java.net.InetSocketAddress;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.id.uuid.UUID;
 import org.littleshoot.stun.stack.message.AbstractStunMessage;
 import org.littleshoot.stun.stack.message.StunMessageType;
 import org.littleshoot.stun.stack.message.StunMessageVisitor;
+import org.littleshoot.stun.stack.message.StunTransactionId;
 import org.littleshoot.stun.stack.message.attributes.StunAttribute;
 import org.littleshoot.stun.stack.message.attributes.StunAttributeType;
 import org.littleshoot.stun.stack.message.attributes.turn.ConnectionStatus;
@@ -31,6 +31,18 @@ public class ConnectionStatusIndication extends AbstractStunMessage
      * @param attributes The message attributes.
      */
     public ConnectionStatusIndication(final UUID transactionId, 
+        final Map<StunAttributeType, StunAttribute> attributes)
+        {
+        this(StunTransactionId.fromUuid(transactionId), attributes);
+        }
+
+    /**
+     * Creates a new connection status indication message.
+     * 
+     * @param transactionId The ID of the transaction.
+     * @param attributes The message attributes.
+     */
+    public ConnectionStatusIndication(final StunTransactionId transactionId, 
         final Map<StunAttributeType, StunAttribute> attributes)
         {
         super(transactionId, StunMessageType.CONNECTION_STATUS_INDICATION,
@@ -55,7 +67,8 @@ public class ConnectionStatusIndication extends AbstractStunMessage
     public ConnectionStatusIndication(final InetSocketAddress remoteAddress, 
         final ConnectionStatus connectionStatus)
         {
-        super(UUID.randomUUID(), StunMessageType.CONNECTION_STATUS_INDICATION,
+        super(StunTransactionId.create(), 
+            StunMessageType.CONNECTION_STATUS_INDICATION,
             createAttributes(remoteAddress, connectionStatus));
         this.m_remoteAddress = remoteAddress;
         this.m_connectionStatus = connectionStatus;
@@ -65,16 +78,11 @@ public class ConnectionStatusIndication extends AbstractStunMessage
         final InetSocketAddress remoteAddress, 
         final ConnectionStatus connectionStatus)
         {
-        final Map<StunAttributeType, StunAttribute> attributes = 
-            new ConcurrentHashMap<StunAttributeType, StunAttribute>();
         final StunAttribute remoteAddressAttribute =
             new RemoteAddressAttribute(remoteAddress);
         final StunAttribute status = 
             new ConnectionStatusAttribute(connectionStatus);
-        attributes.put(remoteAddressAttribute.getAttributeType(), 
-            remoteAddressAttribute);
-        attributes.put(status.getAttributeType(), status);
-        return attributes;
+        return createAttributes(remoteAddressAttribute, status);
         }
 
     public <T> T accept(StunMessageVisitor<T> visitor)
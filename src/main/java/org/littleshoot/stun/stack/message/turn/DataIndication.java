@@ -6,6 +6,7 @@ import java.util.Map;
 import org.apache.commons.id.uuid.UUID;
 import org.littleshoot.stun.stack.message.StunMessageType;
 import org.littleshoot.stun.stack.message.StunMessageVisitor;
+import org.littleshoot.stun.stack.message.StunTransactionId;
 import org.littleshoot.stun.stack.message.attributes.StunAttribute;
 import org.littleshoot.stun.stack.message.attributes.StunAttributeType;
 
@@ -23,6 +24,18 @@ public final class DataIndication extends AbstractStunDataMessage
      * @param attributes The message attributes.
      */
     public DataIndication(final UUID transactionId, 
+        final Map<StunAttributeType, StunAttribute> attributes)
+        {
+        this(StunTransactionId.fromUuid(transactionId), attributes);
+        }
+
+    /**
+     * Creates a new Data Indication message.
+     * 
+     * @param transactionId The transaction ID.
+     * @param attributes The message attributes.
+     */
+    public DataIndication(final StunTransactionId transactionId, 
         final Map<StunAttributeType, StunAttribute> attributes)
         {
         super(transactionId, StunMessageType.DATA_INDICATION, attributes);
@@ -6,6 +6,7 @@ import java.util.Map;
 import org.apache.commons.id.uuid.UUID;
 import org.littleshoot.stun.stack.message.StunMessageType;
 import org.littleshoot.stun.stack.message.StunMessageVisitor;
+import org.littleshoot.stun.stack.message.StunTransactionId;
 import org.littleshoot.stun.stack.message.attributes.StunAttribute;
 import org.littleshoot.stun.stack.message.attributes.StunAttributeType;
 
@@ -22,6 +23,18 @@ public final class SendIndication extends AbstractStunDataMessage
      * @param attributes The message attributes.
      */
     public SendIndication(final UUID transactionId, 
+        final Map<StunAttributeType, StunAttribute> attributes)
+        {
+        this(StunTransactionId.fromUuid(transactionId), attributes);
+        }
+
+    /**
+     * Creates a new Send Indication message with data from the network.
+     * 
+     * @param transactionId The ID of the transaction.
+     * @param attributes The message attributes.
+     */
+    public SendIndication(final StunTransactionId transactionId, 
         final Map<StunAttributeType, StunAttribute> attributes)
         {
         super(transactionId, StunMessageType.SEND_INDICATION, attributes);
@@ -0,0 +1,29 @@
+package org.littleshoot.stun.stack.nio;
+
+import java.net.InetSocketAddress;
+
+import org.littleshoot.stun.stack.message.StunMessageVisitor;
+import org.littleshoot.stun.stack.transaction.StunMessageSender;
+
+/**
+ * Factory for creating visitors for messages received by a 
+ * {@link NioStunEngine}.  This plays the part of 
+ * {@link org.littleshoot.stun.stack.message.StunMessageVisitorFactory} 
+ * without any MINA session: visitors respond through the sender instead of
+ * writing to a session.  Existing factories can run unchanged through a
+ * {@link SessionVisitorFactoryAdapter}.
+ * 
+ * @param <T> The type visitors return.
+ */
+public interface NioStunVisitorFactory<T> {
+
+    /**
+     * Creates a visitor for a message from the specified remote host.
+     * 
+     * @param remoteAddress The address the message came from.
+     * @param sender The sender for responding to the remote host.
+     * @return The visitor.
+     */
+    StunMessageVisitor<T> createVisitor(InetSocketAddress remoteAddress,
+        StunMessageSender sender);
+}
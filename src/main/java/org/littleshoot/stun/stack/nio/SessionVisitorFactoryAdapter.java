@@ -0,0 +1,152 @@
+package org.littleshoot.stun.stack.nio;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import org.littleshoot.mina.common.IoFilter.WriteRequest;
+import org.littleshoot.mina.common.IoFilterChain;
+import org.littleshoot.mina.common.IoHandler;
+import org.littleshoot.mina.common.IoService;
+import org.littleshoot.mina.common.IoServiceConfig;
+import org.littleshoot.mina.common.IoSession;
+import org.littleshoot.mina.common.IoSessionConfig;
+import org.littleshoot.mina.common.TransportType;
+import org.littleshoot.mina.common.support.BaseIoSession;
+import org.littleshoot.stun.stack.message.StunMessage;
+import org.littleshoot.stun.stack.message.StunMessageVisitor;
+import org.littleshoot.stun.stack.message.StunMessageVisitorFactory;
+import org.littleshoot.stun.stack.transaction.StunMessageSender;
+
+/**
+ * Runs visitors from an ordinary {@link StunMessageVisitorFactory} on a
+ * {@link NioStunEngine}, so existing visitors don't need porting.  Each
+ * visitor gets a lightweight {@link IoSession} standing in for the MINA
+ * session it expects.  Writing a {@link StunMessage} to the session sends
+ * it to the remote host through the engine, and attributes, idle times and
+ * closing work as usual, but only for the life of the visitor.
+ * <p>
+ * There's no MINA service, handler, configuration or filter chain behind
+ * the session, so the methods returning those throw
+ * {@link UnsupportedOperationException}.  Visitors that need them, or that
+ * keep state in the session across messages, should implement
+ * {@link NioStunVisitorFactory} directly.  Creating the session costs an
+ * allocation per message, so performance-sensitive visitors should too.
+ *
+ * @param <T> The type visitors return.
+ */
+public class SessionVisitorFactoryAdapter<T>
+        implements NioStunVisitorFactory<T> {
+
+    private final StunMessageVisitorFactory<T> m_factory;
+
+    private final InetSocketAddress m_localAddress;
+
+    /**
+     * Creates a new adapter.
+     *
+     * @param factory The factory creating visitors for MINA sessions.
+     * @param localAddress The local address sessions report, normally the
+     * address the engine is bound to.  This may be <code>null</code> if no
+     * visitor asks.
+     */
+    public SessionVisitorFactoryAdapter(
+            final StunMessageVisitorFactory<T> factory,
+            final InetSocketAddress localAddress) {
+        this.m_factory = factory;
+        this.m_localAddress = localAddress;
+    }
+
+    public StunMessageVisitor<T> createVisitor(
+            final InetSocketAddress remoteAddress,
+            final StunMessageSender sender) {
+        return this.m_factory.createVisitor(
+            new SenderSession(remoteAddress, this.m_localAddress, sender));
+    }
+
+    /**
+     * Session writing messages through a {@link StunMessageSender}.
+     */
+    private static final class SenderSession extends BaseIoSession {
+
+        private final InetSocketAddress m_remoteAddress;
+
+        private final InetSocketAddress m_localAddress;
+
+        private final StunMessageSender m_sender;
+
+        private SenderSession(final InetSocketAddress remoteAddress,
+                final InetSocketAddress localAddress,
+                final StunMessageSender sender) {
+            this.m_remoteAddress = remoteAddress;
+            this.m_localAddress = localAddress;
+            this.m_sender = sender;
+        }
+
+        @Override
+        protected void write0(final WriteRequest request) {
+            final Object message = request.getMessage();
+            if (!(message instanceof StunMessage)) {
+                throw new IllegalArgumentException("Not a STUN message: "
+                        + message);
+            }
+            this.m_sender.send((StunMessage) message);
+            increaseWrittenMessages();
+            request.getFuture().setWritten(true);
+        }
+
+        @Override
+        protected void updateTrafficMask() {
+            // Reads and writes are the engine's business.
+        }
+
+        public TransportType getTransportType() {
+            return TransportType.DATAGRAM;
+        }
+
+        public SocketAddress getRemoteAddress() {
+            return this.m_remoteAddress;
+        }
+
+        public SocketAddress getLocalAddress() {
+            return this.m_localAddress;
+        }
+
+        public SocketAddress getServiceAddress() {
+            return this.m_localAddress;
+        }
+
+        public int getScheduledWriteRequests() {
+            // The engine takes each message as soon as it's written.
+            return 0;
+        }
+
+        public int getScheduledWriteBytes() {
+            return 0;
+        }
+
+        public IoService getService() {
+            throw unsupported();
+        }
+
+        public IoServiceConfig getServiceConfig() {
+            throw unsupported();
+        }
+
+        public IoHandler getHandler() {
+            throw unsupported();
+        }
+
+        public IoSessionConfig getConfig() {
+            throw unsupported();
+        }
+
+        public IoFilterChain getFilterChain() {
+            throw unsupported();
+        }
+
+        private static UnsupportedOperationException unsupported() {
+            return new UnsupportedOperationException(
+                "No MINA service behind sessions on the NIO engine");
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.littleshoot.stun.stack.nio;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * UDP server that spreads load across cores by opening several sockets on
+ * the same port with SO_REUSEPORT, each with its own {@link NioStunEngine}
+ * and so its own receive loop and buffers.  The kernel hashes each flow to
+ * one of the sockets.  Where SO_REUSEPORT isn't available, either because
+ * the platform doesn't support it or because the JVM predates it, the
+ * server runs a single shard.
+ * <p>
+ * Per-shard counters show whether the kernel is spreading flows evenly.
+ */
+public class ShardedNioStunServer {
+
+    private static final Logger LOG =
+        LoggerFactory.getLogger(ShardedNioStunServer.class);
+
+    private final List<NioStunEngine> m_shards;
+
+    /**
+     * Creates a new server with one shard per available processor.
+     *
+     * @param bindAddress The local address to bind to.
+     * @param visitorFactory The factory for visitors for received messages.
+     * @throws IOException If we can't bind to the address.
+     */
+    public ShardedNioStunServer(final InetSocketAddress bindAddress,
+            final NioStunVisitorFactory<?> visitorFactory) throws IOException {
+        this(bindAddress, visitorFactory,
+            Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new server.
+     *
+     * @param bindAddress The local address to bind to.  If the port is
+     * zero, all shards share whichever port the first shard gets.
+     * @param visitorFactory The factory for visitors for received messages.
+     * @param shards The number of sockets to open.
+     * @throws IOException If we can't bind to the address.
+     */
+    public ShardedNioStunServer(final InetSocketAddress bindAddress,
+            final NioStunVisitorFactory<?> visitorFactory, final int shards)
+            throws IOException {
+        if (shards <= 0) {
+            throw new IllegalArgumentException("Bad shard count: " + shards);
+        }
+        final List<NioStunEngine> engines = new ArrayList<NioStunEngine>();
+        try {
+            InetSocketAddress address = bindAddress;
+            for (int i = 0; i < shards; i++) {
+                final DatagramChannel channel = DatagramChannel.open();
+                final boolean reusePort = setReusePort(channel);
+                try {
+                    channel.socket().bind(address);
+                } catch (final IOException e) {
+                    channel.close();
+                    throw e;
+                }
+                final NioStunEngine engine =
+                    new NioStunEngine(channel, visitorFactory);
+                engines.add(engine);
+                address = engine.getLocalAddress();
+                if (!reusePort) {
+                    LOG.info("SO_REUSEPORT not available -- using one shard");
+                    break;
+                }
+            }
+        } catch (final IOException e) {
+            for (final NioStunEngine engine : engines) {
+                engine.close();
+            }
+            throw e;
+        }
+        this.m_shards = Collections.unmodifiableList(engines);
+    }
+
+    /**
+     * Enables SO_REUSEPORT on the specified channel.  We go through
+     * reflection, as the option is only in Java 9 and later.
+     *
+     * @param channel The channel.
+     * @return <code>true</code> if the option was set, otherwise
+     * <code>false</code>.
+     */
+    private static boolean setReusePort(final DatagramChannel channel) {
+        try {
+            final Object option =
+                Class.forName("java.net.StandardSocketOptions")
+                    .getField("SO_REUSEPORT").get(null);
+            final Method setOption = DatagramChannel.class.getMethod(
+                "setOption", Class.forName("java.net.SocketOption"),
+                Object.class);
+            setOption.invoke(channel, option, Boolean.TRUE);
+            return true;
+        } catch (final Exception e) {
+            // This includes UnsupportedOperationException on platforms
+            // without the option, wrapped in an InvocationTargetException.
+            LOG.debug("Could not set SO_REUSEPORT", e);
+            return false;
+        }
+    }
+
+    /**
+     * Starts all shards.
+     */
+    public void start() {
+        for (final NioStunEngine shard : this.m_shards) {
+            shard.start();
+        }
+    }
+
+    /**
+     * Stops all shards.
+     */
+    public void close() {
+        for (final NioStunEngine shard : this.m_shards) {
+            shard.close();
+        }
+    }
+
+    /**
+     * Accessor for the address all shards are bound to.
+     *
+     * @return The local address.
+     */
+    public InetSocketAddress getLocalAddress() {
+        return this.m_shards.get(0).getLocalAddress();
+    }
+
+    /**
+     * Accessor for the shards, for example for their counters.
+     *
+     * @return The shards.
+     */
+    public List<NioStunEngine> getShards() {
+        return this.m_shards;
+    }
+
+    /**
+     * Returns the number of messages each shard has received, which shows
+     * how evenly the kernel is spreading flows.
+     *
+     * @return The number of messages received by each shard, in order.
+     */
+    public long[] getReceivedCounts() {
+        final long[] counts = new long[this.m_shards.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = this.m_shards.get(i).getReceivedCount();
+        }
+        return counts;
+    }
+}
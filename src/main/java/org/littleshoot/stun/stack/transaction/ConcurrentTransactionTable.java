@@ -0,0 +1,29 @@
+package org.littleshoot.stun.stack.transaction;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.littleshoot.stun.stack.message.StunTransactionId;
+
+/**
+ * {@link TransactionTable} backed by a {@link ConcurrentHashMap}.
+ *
+ * @param <V> The type of the stored values.
+ */
+final class ConcurrentTransactionTable<V> implements TransactionTable<V> {
+
+    private final Map<StunTransactionId, V> m_map =
+        new ConcurrentHashMap<StunTransactionId, V>();
+
+    public V put(final StunTransactionId id, final V value) {
+        return this.m_map.put(id, value);
+    }
+
+    public V get(final StunTransactionId id) {
+        return this.m_map.get(id);
+    }
+
+    public V remove(final StunTransactionId id) {
+        return this.m_map.remove(id);
+    }
+}
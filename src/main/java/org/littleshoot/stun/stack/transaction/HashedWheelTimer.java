@@ -0,0 +1,244 @@
+package org.littleshoot.stun.stack.transaction;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Timer for scheduling large numbers of short-lived timeouts, such as STUN
+ * retransmissions, on a single thread.  Timeouts are hashed into a ring of
+ * buckets by their deadline, and each tick of the wheel only looks at one
+ * bucket, so scheduling and cancelling are constant time no matter how many
+ * timeouts are outstanding.  The price is precision: timeouts fire on the
+ * first tick after their deadline.
+ * <p>
+ * Tasks run on the timer thread and should return quickly.
+ */
+public class HashedWheelTimer {
+
+    private static final Logger LOG =
+        LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    private final long m_tickNanos;
+
+    private final List<Timeout>[] m_wheel;
+
+    private final int m_mask;
+
+    /**
+     * Timeouts scheduled since the last tick.  Only the timer thread touches
+     * the wheel itself, so other threads hand timeouts over through here.
+     */
+    private final Queue<Timeout> m_pending =
+        new ConcurrentLinkedQueue<Timeout>();
+
+    private final AtomicBoolean m_started = new AtomicBoolean(false);
+
+    private volatile boolean m_stopped;
+
+    private final Thread m_thread;
+
+    private long m_startTime;
+
+    private long m_tick;
+
+    /**
+     * Creates a new timer with a 10 millisecond tick and 512 buckets.
+     */
+    public HashedWheelTimer() {
+        this(10, TimeUnit.MILLISECONDS, 512);
+    }
+
+    /**
+     * Creates a new timer.
+     *
+     * @param tickDuration The duration of each tick.
+     * @param unit The unit of the tick duration.
+     * @param wheelSize The number of buckets on the wheel.  This is rounded
+     * up to a power of two.
+     */
+    @SuppressWarnings("unchecked")
+    public HashedWheelTimer(final long tickDuration, final TimeUnit unit,
+            final int wheelSize) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("Bad tick duration: "
+                    + tickDuration);
+        }
+        if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+            throw new IllegalArgumentException("Bad wheel size: " + wheelSize);
+        }
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        this.m_tickNanos = unit.toNanos(tickDuration);
+        this.m_wheel = new List[size];
+        for (int i = 0; i < size; i++) {
+            this.m_wheel[i] = new ArrayList<Timeout>();
+        }
+        this.m_mask = size - 1;
+        this.m_thread = new Thread(new Runnable() {
+            public void run() {
+                runWheel();
+            }
+        }, "STUN-Wheel-Timer");
+        this.m_thread.setDaemon(true);
+    }
+
+    /**
+     * Schedules the specified task to run once after the specified delay.
+     * This starts the timer thread if it's not already running.
+     *
+     * @param task The task to run.
+     * @param delay The delay before running the task.
+     * @param unit The unit of the delay.
+     * @return The handle for cancelling the task.
+     */
+    public Timeout newTimeout(final Runnable task, final long delay,
+            final TimeUnit unit) {
+        if (this.m_stopped) {
+            throw new IllegalStateException("Timer is stopped");
+        }
+        start();
+        final Timeout timeout =
+            new Timeout(task, System.nanoTime() + unit.toNanos(delay));
+        this.m_pending.add(timeout);
+        return timeout;
+    }
+
+    private void start() {
+        if (this.m_started.compareAndSet(false, true)) {
+            this.m_startTime = System.nanoTime();
+            this.m_thread.start();
+        }
+    }
+
+    /**
+     * Stops the timer.  Outstanding timeouts never fire.
+     */
+    public void stop() {
+        this.m_stopped = true;
+        this.m_thread.interrupt();
+    }
+
+    private void runWheel() {
+        while (!this.m_stopped) {
+            final long deadline = this.m_startTime + (this.m_tick + 1)
+                    * this.m_tickNanos;
+            final long sleepNanos = deadline - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (final InterruptedException e) {
+                    if (this.m_stopped) {
+                        break;
+                    }
+                }
+                continue;
+            }
+            transferPending();
+            expire(this.m_wheel[(int) (this.m_tick & this.m_mask)]);
+            this.m_tick++;
+        }
+        this.m_pending.clear();
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = this.m_pending.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            final long ticks =
+                (timeout.m_deadline - this.m_startTime + this.m_tickNanos - 1)
+                    / this.m_tickNanos;
+
+            // Never schedule into the past -- anything already due fires on
+            // this tick.
+            final long tick = Math.max(ticks, this.m_tick);
+            timeout.m_rounds = (tick - this.m_tick) / this.m_wheel.length;
+            this.m_wheel[(int) (tick & this.m_mask)].add(timeout);
+        }
+    }
+
+    private void expire(final List<Timeout> bucket) {
+        final Iterator<Timeout> iter = bucket.iterator();
+        while (iter.hasNext()) {
+            final Timeout timeout = iter.next();
+            if (timeout.isCancelled()) {
+                iter.remove();
+            } else if (timeout.m_rounds > 0) {
+                timeout.m_rounds--;
+            } else {
+                iter.remove();
+                timeout.expire();
+            }
+        }
+    }
+
+    /**
+     * Handle for a scheduled task.
+     */
+    public static final class Timeout {
+
+        private final Runnable m_task;
+
+        private final long m_deadline;
+
+        private final AtomicBoolean m_done = new AtomicBoolean(false);
+
+        private volatile boolean m_cancelled;
+
+        /**
+         * The number of full turns of the wheel left before this expires.
+         * Only accessed on the timer thread.
+         */
+        private long m_rounds;
+
+        private Timeout(final Runnable task, final long deadline) {
+            this.m_task = task;
+            this.m_deadline = deadline;
+        }
+
+        /**
+         * Cancels the task if it hasn't run yet.
+         *
+         * @return <code>true</code> if the task was cancelled, otherwise
+         * <code>false</code> if it already ran or was already cancelled.
+         */
+        public boolean cancel() {
+            if (!this.m_done.compareAndSet(false, true)) {
+                return false;
+            }
+            this.m_cancelled = true;
+            return true;
+        }
+
+        /**
+         * Returns whether or not the task was cancelled.
+         *
+         * @return <code>true</code> if the task was cancelled.
+         */
+        public boolean isCancelled() {
+            return this.m_cancelled;
+        }
+
+        private void expire() {
+            if (!this.m_done.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                this.m_task.run();
+            } catch (final Throwable t) {
+                LOG.warn("Error running timer task", t);
+            }
+        }
+    }
+}
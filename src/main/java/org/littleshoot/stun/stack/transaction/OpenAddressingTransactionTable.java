@@ -0,0 +1,255 @@
+package org.littleshoot.stun.stack.transaction;
+
+import org.littleshoot.stun.stack.message.StunTransactionId;
+
+/**
+ * {@link TransactionTable} that stores the raw bits of each transaction ID
+ * in primitive arrays, with values in a parallel array.  Each key costs two
+ * longs and an int, with no per-entry objects, and lookups compare
+ * primitives without following any pointers besides the value.
+ * <p>
+ * The table is split into independently locked stripes, each a linear
+ * probing hash table that doubles when half full.  Removal shifts later
+ * entries back rather than leaving tombstones, so probe sequences stay
+ * short no matter how many transactions come and go.
+ *
+ * @param <V> The type of the stored values.
+ */
+final class OpenAddressingTransactionTable<V> implements TransactionTable<V> {
+
+    private final Stripe[] m_stripes;
+
+    private final int m_stripeMask;
+
+    /**
+     * Creates a new table.
+     *
+     * @param stripes The number of independently locked stripes.  This is
+     * rounded up to a power of two.
+     * @param initialCapacity The initial capacity of each stripe.
+     */
+    OpenAddressingTransactionTable(final int stripes,
+            final int initialCapacity) {
+        final int numStripes = powerOfTwo(stripes);
+        this.m_stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            this.m_stripes[i] = new Stripe(powerOfTwo(initialCapacity * 2));
+        }
+        this.m_stripeMask = numStripes - 1;
+    }
+
+    private static int powerOfTwo(final int n) {
+        if (n <= 0 || n > (1 << 30)) {
+            throw new IllegalArgumentException("Bad size: " + n);
+        }
+        int size = 1;
+        while (size < n) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private static int hash(final StunTransactionId id) {
+        final int h = id.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private Stripe stripeFor(final int hash) {
+        return this.m_stripes[hash & this.m_stripeMask];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(final StunTransactionId id, final V value) {
+        if (value == null) {
+            throw new NullPointerException("Null value");
+        }
+        final int hash = hash(id);
+        return (V) stripeFor(hash).put(hash, id.getMostSignificantBits(),
+            id.getLeastSignificantBits(), value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(final StunTransactionId id) {
+        final int hash = hash(id);
+        return (V) stripeFor(hash).get(hash, id.getMostSignificantBits(),
+            id.getLeastSignificantBits());
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(final StunTransactionId id) {
+        final int hash = hash(id);
+        return (V) stripeFor(hash).remove(hash, id.getMostSignificantBits(),
+            id.getLeastSignificantBits());
+    }
+
+    /**
+     * Returns the length of the longest probe sequence in any stripe, to
+     * check that entries are spread over the whole table.
+     *
+     * @return The longest probe sequence.
+     */
+    int maxProbeLength() {
+        int max = 0;
+        for (final Stripe stripe : this.m_stripes) {
+            max = Math.max(max, stripe.maxProbeLength());
+        }
+        return max;
+    }
+
+    /**
+     * A single linear probing table.  A slot is empty when its value is
+     * <code>null</code>.
+     */
+    private static final class Stripe {
+
+        private long[] m_high;
+
+        private long[] m_low;
+
+        private int[] m_hashes;
+
+        private Object[] m_values;
+
+        private int m_mask;
+
+        /**
+         * How far to shift a mixed hash right to keep just enough of its top
+         * bits to index the table.
+         */
+        private int m_shift;
+
+        private int m_size;
+
+        private Stripe(final int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(final int capacity) {
+            this.m_high = new long[capacity];
+            this.m_low = new long[capacity];
+            this.m_hashes = new int[capacity];
+            this.m_values = new Object[capacity];
+            this.m_mask = capacity - 1;
+            this.m_shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        }
+
+        /**
+         * The first slot to probe for a hash.  The low bits of the hash
+         * picked the stripe, so we multiply to mix all the bits into the
+         * top ones and take as many of those as the table needs.  The mask
+         * only matters for a single slot table, where the shift is 32 and
+         * so does nothing.
+         */
+        private int home(final int hash) {
+            return ((hash * 0x9E3779B9) >>> this.m_shift) & this.m_mask;
+        }
+
+        /**
+         * Returns the length of the longest probe sequence for any entry.
+         */
+        private synchronized int maxProbeLength() {
+            int max = 0;
+            for (int i = 0; i < this.m_values.length; i++) {
+                if (this.m_values[i] != null) {
+                    final int length =
+                        ((i - home(this.m_hashes[i])) & this.m_mask) + 1;
+                    max = Math.max(max, length);
+                }
+            }
+            return max;
+        }
+
+        private int indexOf(final int hash, final long high, final long low) {
+            int i = home(hash);
+            while (this.m_values[i] != null) {
+                if (this.m_hashes[i] == hash && this.m_low[i] == low
+                        && this.m_high[i] == high) {
+                    return i;
+                }
+                i = (i + 1) & this.m_mask;
+            }
+            return -1;
+        }
+
+        private synchronized Object get(final int hash, final long high,
+                final long low) {
+            final int i = indexOf(hash, high, low);
+            return i == -1 ? null : this.m_values[i];
+        }
+
+        private synchronized Object put(final int hash, final long high,
+                final long low, final Object value) {
+            final int existing = indexOf(hash, high, low);
+            if (existing != -1) {
+                final Object old = this.m_values[existing];
+                this.m_values[existing] = value;
+                return old;
+            }
+            if ((this.m_size + 1) * 2 > this.m_values.length) {
+                resize();
+            }
+            insert(hash, high, low, value);
+            this.m_size++;
+            return null;
+        }
+
+        private void insert(final int hash, final long high, final long low,
+                final Object value) {
+            int i = home(hash);
+            while (this.m_values[i] != null) {
+                i = (i + 1) & this.m_mask;
+            }
+            this.m_hashes[i] = hash;
+            this.m_high[i] = high;
+            this.m_low[i] = low;
+            this.m_values[i] = value;
+        }
+
+        private void resize() {
+            final long[] high = this.m_high;
+            final long[] low = this.m_low;
+            final int[] hashes = this.m_hashes;
+            final Object[] values = this.m_values;
+            allocate(values.length * 2);
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    insert(hashes[i], high[i], low[i], values[i]);
+                }
+            }
+        }
+
+        private synchronized Object remove(final int hash, final long high,
+                final long low) {
+            int i = indexOf(hash, high, low);
+            if (i == -1) {
+                return null;
+            }
+            final Object old = this.m_values[i];
+            this.m_values[i] = null;
+            this.m_size--;
+
+            // Shift back any later entries in the same run that can't be
+            // found from their home slot anymore.
+            int j = i;
+            while (true) {
+                j = (j + 1) & this.m_mask;
+                if (this.m_values[j] == null) {
+                    break;
+                }
+                final int k = home(this.m_hashes[j]);
+                final boolean reachable = i <= j ? (i < k && k <= j)
+                        : (i < k || k <= j);
+                if (reachable) {
+                    continue;
+                }
+                this.m_hashes[i] = this.m_hashes[j];
+                this.m_high[i] = this.m_high[j];
+                this.m_low[i] = this.m_low[j];
+                this.m_values[i] = this.m_values[j];
+                this.m_values[j] = null;
+                i = j;
+            }
+            return old;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.littleshoot.stun.stack.transaction;
+
+/**
+ * Transaction tracker for very large numbers of outstanding transactions,
+ * such as long ICE check lists.  It behaves exactly like 
+ * {@link StunTransactionTrackerImpl}, but stores transactions in a 
+ * lock-striped open addressing table keyed by the raw bits of each 
+ * transaction ID instead of in a hash map, so tracking a transaction 
+ * doesn't create map nodes and looking one up doesn't allocate.
+ */
+public class PrimitiveStunTransactionTracker 
+    extends StunTransactionTrackerImpl {
+
+    /**
+     * The default number of independently locked stripes.
+     */
+    public static final int DEFAULT_STRIPES = 32;
+
+    /**
+     * Creates a new tracker using the RFC 5389 retransmission defaults and
+     * a timer shared by all trackers.
+     */
+    public PrimitiveStunTransactionTracker() {
+        this(sharedTimer(), DEFAULT_INITIAL_RTO, DEFAULT_RC, 
+            DEFAULT_RM, DEFAULT_MAX_TRANSACTIONS, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a new tracker.
+     *
+     * @param timer The timer for retransmissions and timeouts.
+     * @param initialRto The initial retransmission timeout, in
+     * milliseconds.
+     * @param rc The maximum number of times to send a request.
+     * @param rm The multiple of the initial RTO to wait for a response
+     * after the last send.
+     * @param maxTransactions The maximum number of outstanding transactions.
+     * @param stripes The number of independently locked stripes.  More 
+     * stripes means less contention between threads.
+     */
+    public PrimitiveStunTransactionTracker(final HashedWheelTimer timer,
+            final long initialRto, final int rc, final int rm,
+            final int maxTransactions, final int stripes) {
+        super(new OpenAddressingTransactionTable<Retransmitter>(stripes, 16),
+            timer, initialRto, rc, rm, maxTransactions);
+    }
+}
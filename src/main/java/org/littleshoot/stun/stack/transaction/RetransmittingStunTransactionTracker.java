@@ -0,0 +1,66 @@
+package org.littleshoot.stun.stack.transaction;
+
+import java.net.InetSocketAddress;
+
+import org.littleshoot.mina.common.IoSession;
+import org.littleshoot.stun.stack.message.StunMessage;
+
+/**
+ * Transaction tracker that sends requests itself, retransmitting them over
+ * unreliable transports until a response arrives or the transaction times 
+ * out.  Over reliable transports, requests are sent only once, as RFC 5389
+ * section 7.2.2 requires, and the transaction simply times out if no 
+ * response arrives.
+ * 
+ * @param <T> The type visitors for transactions return. 
+ */
+public interface RetransmittingStunTransactionTracker<T> 
+    extends StunTransactionTracker<T>
+    {
+
+    /**
+     * Adds a transaction for the specified request and sends the request 
+     * over the specified session.  The tracker retransmits the request 
+     * until a response arrives or the transaction times out, at which point
+     * the listener is notified of the failure.  Callers should not send the
+     * request themselves.
+     * 
+     * @param request The request to add a transaction for.
+     * @param listener The listener for transaction events.
+     * @param localAddress The local address the request will be sent from.
+     * @param remoteAddress The remote address the request will be sent to.  
+     * @param session The session to send the request over.
+     */
+    void addTransaction(StunMessage request, StunTransactionListener listener, 
+        InetSocketAddress localAddress, InetSocketAddress remoteAddress,
+        IoSession session);
+
+    /**
+     * Adds a transaction for the specified request and sends the request 
+     * with the specified sender, retransmitting it as needed just as when
+     * sending over a session.  Callers should not send the request 
+     * themselves.
+     * 
+     * @param request The request to add a transaction for.
+     * @param listener The listener for transaction events.
+     * @param localAddress The local address the request will be sent from.
+     * @param remoteAddress The remote address the request will be sent to.  
+     * @param sender The sender for the request.
+     */
+    void addTransaction(StunMessage request, StunTransactionListener listener, 
+        InetSocketAddress localAddress, InetSocketAddress remoteAddress,
+        StunMessageSender sender);
+
+    /**
+     * Cancels the transaction for the specified request, if it hasn't 
+     * already completed.  This stops any retransmissions, and listeners are
+     * told the transaction failed with a 
+     * {@link org.littleshoot.stun.stack.message.CanceledStunMessage}.
+     * 
+     * @param request The request that started the transaction.
+     * @return <code>true</code> if the transaction was outstanding, 
+     * otherwise <code>false</code>.
+     */
+    boolean cancelTransaction(StunMessage request);
+
+    }
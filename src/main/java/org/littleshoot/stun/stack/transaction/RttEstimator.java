@@ -0,0 +1,140 @@
+package org.littleshoot.stun.stack.transaction;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a smoothed round trip time (SRTT) and round trip time variation
+ * (RTTVAR) for each destination we send requests to, and derives the
+ * retransmission timeout (RTO) for new transactions to that destination
+ * using the algorithm from RFC 6298.  Only the most recently used
+ * destinations are remembered.
+ */
+public class RttEstimator {
+
+    /**
+     * The default number of destinations to remember.
+     */
+    public static final int DEFAULT_MAX_DESTINATIONS = 4096;
+
+    /**
+     * The smallest RTO we'll use, in milliseconds.
+     */
+    public static final long MIN_RTO = 100;
+
+    /**
+     * The largest RTO we'll use, in milliseconds.
+     */
+    public static final long MAX_RTO = 5000;
+
+    /**
+     * The clock granularity in nanoseconds, used as a floor for the variance
+     * term of the RTO.
+     */
+    private static final long GRANULARITY = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Map<InetSocketAddress, Estimate> m_estimates;
+
+    /**
+     * Creates a new estimator remembering up to
+     * {@link #DEFAULT_MAX_DESTINATIONS} destinations.
+     */
+    public RttEstimator() {
+        this(DEFAULT_MAX_DESTINATIONS);
+    }
+
+    /**
+     * Creates a new estimator.
+     *
+     * @param maxDestinations The maximum number of destinations to
+     * remember.
+     */
+    public RttEstimator(final int maxDestinations) {
+        this.m_estimates =
+            new LinkedHashMap<InetSocketAddress, Estimate>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<InetSocketAddress, Estimate> eldest) {
+                return size() > maxDestinations;
+            }
+        };
+    }
+
+    /**
+     * Records a round trip time measured for the specified destination.
+     * Following Karn's algorithm, callers should only pass times for
+     * requests that were never retransmitted, as we can't tell which send
+     * a response to a retransmitted request belongs to.
+     *
+     * @param destination The destination.
+     * @param rttNanos The round trip time, in nanoseconds.
+     */
+    public void addSample(final InetSocketAddress destination,
+            final long rttNanos) {
+        if (destination == null || rttNanos < 0) {
+            return;
+        }
+        synchronized (this.m_estimates) {
+            final Estimate estimate = this.m_estimates.get(destination);
+            if (estimate == null) {
+                this.m_estimates.put(destination, new Estimate(rttNanos));
+            } else {
+                estimate.update(rttNanos);
+            }
+        }
+    }
+
+    /**
+     * Returns the RTO to use for a new transaction to the specified
+     * destination.
+     *
+     * @param destination The destination.
+     * @param defaultRto The RTO to use if we know nothing about the
+     * destination, in milliseconds.
+     * @return The RTO, in milliseconds.
+     */
+    public long getRto(final InetSocketAddress destination,
+            final long defaultRto) {
+        if (destination == null) {
+            return defaultRto;
+        }
+        final long rtoNanos;
+        synchronized (this.m_estimates) {
+            final Estimate estimate = this.m_estimates.get(destination);
+            if (estimate == null) {
+                return defaultRto;
+            }
+            rtoNanos = estimate.m_srtt
+                + Math.max(GRANULARITY, 4 * estimate.m_rttvar);
+        }
+        final long rto = TimeUnit.NANOSECONDS.toMillis(rtoNanos);
+        return Math.min(MAX_RTO, Math.max(MIN_RTO, rto));
+    }
+
+    /**
+     * The estimate for a single destination.  Guarded by the map lock.
+     */
+    private static final class Estimate {
+
+        private long m_srtt;
+
+        private long m_rttvar;
+
+        private Estimate(final long rtt) {
+            this.m_srtt = rtt;
+            this.m_rttvar = rtt / 2;
+        }
+
+        private void update(final long rtt) {
+            // RTTVAR <- 3/4 * RTTVAR + 1/4 * |SRTT - R'|
+            // SRTT <- 7/8 * SRTT + 1/8 * R'
+            this.m_rttvar = this.m_rttvar - (this.m_rttvar >> 2)
+                + (Math.abs(this.m_srtt - rtt) >> 2);
+            this.m_srtt = this.m_srtt - (this.m_srtt >> 3) + (rtt >> 3);
+        }
+    }
+}
@@ -1,9 +1,10 @@
 package org.littleshoot.stun.stack.transaction;
 
 import java.net.InetSocketAddress;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.littleshoot.stun.stack.message.BindingErrorResponse;
 import org.littleshoot.stun.stack.message.BindingRequest;
@@ -22,30 +23,46 @@ import org.littleshoot.stun.stack.message.turn.SendIndication;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Function;
-
 /**
  * Implementation of a STUN client transaction.
  */
 public class StunClientTransactionImpl implements
         StunClientTransaction<StunMessage> {
 
+    private static final StunTransactionListener[] NO_LISTENERS =
+        new StunTransactionListener[0];
+
+    private static final AtomicReferenceFieldUpdater<
+        StunClientTransactionImpl, StunTransactionListener[]> LISTENERS =
+            AtomicReferenceFieldUpdater.newUpdater(
+                StunClientTransactionImpl.class,
+                StunTransactionListener[].class, "m_listeners");
+
     private final Logger m_log = LoggerFactory.getLogger(getClass());
 
     private final StunMessage m_request;
 
-    private long m_transactionTime = Long.MAX_VALUE;
+    private volatile long m_transactionTime = Long.MAX_VALUE;
 
     /**
-     * The listeners for a transaction. We must lock this whenever it's
-     * accessed.
+     * The listeners for a transaction.  The array is never modified -- 
+     * adding a listener swaps in a copy -- so we can notify listeners 
+     * without locking, and listeners are free to call back into the 
+     * transaction or the tracker.
      */
-    private List<StunTransactionListener> m_transactionListeners;
+    private volatile StunTransactionListener[] m_listeners;
 
     private final long m_transactionStartTime;
 
     private final InetSocketAddress m_remoteAddress;
 
+    /**
+     * Whether or not listeners have been told the outcome of the 
+     * transaction.  With retransmissions, the same response can arrive more
+     * than once, and a timeout can race with the response.
+     */
+    private final AtomicBoolean m_complete = new AtomicBoolean(false);
+
     /**
      * Creates a new STUN client transaction.
      * 
@@ -60,10 +77,9 @@ public class StunClientTransactionImpl implements
             final List<StunTransactionListener> transactionListeners,
             final InetSocketAddress remoteAddress) {
         this.m_request = request;
-        this.m_transactionListeners = Collections
-                .synchronizedList(transactionListeners);
+        this.m_listeners = transactionListeners.toArray(NO_LISTENERS);
         this.m_remoteAddress = remoteAddress;
-        this.m_transactionStartTime = System.currentTimeMillis();
+        this.m_transactionStartTime = System.nanoTime();
     }
 
     /**
@@ -80,16 +96,23 @@ public class StunClientTransactionImpl implements
             final StunTransactionListener transactionListener,
             final InetSocketAddress remoteAddress) {
         this.m_request = request;
-        final List<StunTransactionListener> listeners = 
-            new ArrayList<StunTransactionListener>();
-        listeners.add(transactionListener);
-        this.m_transactionListeners = Collections.synchronizedList(listeners);
+        this.m_listeners = 
+            new StunTransactionListener[] { transactionListener };
         this.m_remoteAddress = remoteAddress;
-        this.m_transactionStartTime = System.currentTimeMillis();
+        this.m_transactionStartTime = System.nanoTime();
     }
 
     public void addListener(final StunTransactionListener listener) {
-        this.m_transactionListeners.add(listener);
+        while (true) {
+            final StunTransactionListener[] current = this.m_listeners;
+            final StunTransactionListener[] updated =
+                new StunTransactionListener[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = listener;
+            if (LISTENERS.compareAndSet(this, current, updated)) {
+                return;
+            }
+        }
     }
 
     public StunMessage getRequest() {
@@ -107,14 +130,15 @@ public class StunClientTransactionImpl implements
     public StunMessage visitBindingSuccessResponse(
             final BindingSuccessResponse response) {
         m_log.debug("Received success response");
-        final Function<StunTransactionListener, Boolean> success = 
-            new Function<StunTransactionListener, Boolean>() {
-            public Boolean apply(final StunTransactionListener listener) {
-                listener.onTransactionSucceeded(m_request, response);
-                return true;
+        if (!isSameTransaction(response)) {
+            return new NullStunMessage();
+        }
+        if (complete(true)) {
+            for (final StunTransactionListener stl : this.m_listeners) {
+                stl.onTransactionSucceeded(m_request, response);
             }
-        };
-        return notifyListeners(response, success);
+        }
+        return response;
     }
 
     public StunMessage visitBindingErrorResponse(
@@ -128,49 +152,85 @@ public class StunClientTransactionImpl implements
     }
 
     private StunMessage notifyFailure(final StunMessage message) {
-        final Function<StunTransactionListener, Boolean> error = 
-            new Function<StunTransactionListener, Boolean>() {
-            public Boolean apply(final StunTransactionListener listener) {
-                listener.onTransactionFailed(m_request, message);
-                return true;
-            }
-        };
-        return notifyListeners(message, error);
-    }
-
-    private StunMessage notifyListeners(final StunMessage response,
-            final Function<StunTransactionListener, Boolean> closure) {
-        if (isSameTransaction(response)) {
-            m_log.info("About to notify " + this.m_transactionListeners.size()
-                    + " listeners...");
-            synchronized (this.m_transactionListeners) {
-                for (final StunTransactionListener stl : this.m_transactionListeners) {
-                    closure.apply(stl);
-                }
-            }
-            return response;
-        } else {
-            m_log.warn("Received response from different transaction.");
+        if (!isSameTransaction(message)) {
             return new NullStunMessage();
         }
+        if (complete(true)) {
+            notifyFailed(message);
+        }
+        return message;
+    }
+
+    /**
+     * Called when the transaction timed out without a response.  This 
+     * notifies listeners that the transaction failed, passing a 
+     * {@link NullStunMessage} as the response.  Listeners are notified at
+     * most once for any transaction, so this does nothing if a response 
+     * already arrived.
+     */
+    public void onTimeout() {
+        m_log.debug("Transaction timed out");
+        if (complete(false)) {
+            notifyFailed(new NullStunMessage());
+        }
+    }
+
+    /**
+     * Called when the transaction was cancelled before it completed, for
+     * example because the tracker holding it was full.  This notifies
+     * listeners that the transaction failed, passing a 
+     * {@link CanceledStunMessage} as the response.  Listeners are notified
+     * at most once for any transaction, so this does nothing if the 
+     * transaction already completed.
+     */
+    public void onCanceled() {
+        m_log.debug("Transaction cancelled");
+        if (complete(false)) {
+            notifyFailed(new CanceledStunMessage());
+        }
+    }
+
+    /**
+     * Marks the transaction complete.
+     * 
+     * @param responded Whether or not the transaction completed because a
+     * response arrived, in which case we record the transaction time.
+     * @return <code>true</code> if this call completed the transaction, or
+     * <code>false</code> if it had already completed and listeners should
+     * not be notified again.
+     */
+    private boolean complete(final boolean responded) {
+        if (!this.m_complete.compareAndSet(false, true)) {
+            m_log.debug("Transaction already completed");
+            return false;
+        }
+        if (responded) {
+            setTransactionTime();
+        }
+        return true;
+    }
+
+    private void notifyFailed(final StunMessage response) {
+        for (final StunTransactionListener stl : this.m_listeners) {
+            stl.onTransactionFailed(m_request, response);
+        }
     }
 
     private boolean isSameTransaction(final StunMessage response) {
-        if (!this.m_request.getTransactionId().equals(
-                response.getTransactionId())) {
+        if (!this.m_request.getStunTransactionId().equals(
+                response.getStunTransactionId())) {
             m_log.error("Unexpected transaction ID.  Expected "
-                    + this.m_request.getTransactionId() + " but was "
-                    + response.getTransactionId());
+                    + this.m_request.getStunTransactionId() + " but was "
+                    + response.getStunTransactionId());
             return false;
         } else {
-            setTransactionTime();
             return true;
         }
     }
 
     private void setTransactionTime() {
-        this.m_transactionTime = System.currentTimeMillis()
-                - this.m_transactionStartTime;
+        this.m_transactionTime = TimeUnit.NANOSECONDS.toMillis(
+                System.nanoTime() - this.m_transactionStartTime);
     }
 
     public StunMessage visitBindingRequest(final BindingRequest binding) {
@@ -0,0 +1,34 @@
+package org.littleshoot.stun.stack.transaction;
+
+import org.littleshoot.stun.stack.message.StunMessage;
+
+/**
+ * Sends requests on behalf of the transaction tracker.  This lets the
+ * tracker retransmit requests over transports other than MINA sessions.
+ */
+public interface StunMessageSender {
+
+    /**
+     * Sends the specified message.
+     *
+     * @param message The message to send.
+     */
+    void send(StunMessage message);
+
+    /**
+     * Returns whether or not the underlying transport is closed or closing,
+     * in which case transactions fail rather than retransmit.
+     *
+     * @return <code>true</code> if we can no longer send messages.
+     */
+    boolean isClosed();
+
+    /**
+     * Returns whether or not the underlying transport is reliable, such as
+     * TCP or TLS.  Requests sent over reliable transports are never
+     * retransmitted.
+     *
+     * @return <code>true</code> if the transport is reliable.
+     */
+    boolean isReliable();
+}
@@ -1,47 +1,285 @@
 package org.littleshoot.stun.stack.transaction;
 
 import java.net.InetSocketAddress;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.commons.id.uuid.UUID;
+import org.littleshoot.mina.common.IoSession;
+import org.littleshoot.stun.stack.message.CanceledStunMessage;
+import org.littleshoot.stun.stack.message.NullStunMessage;
+import org.littleshoot.stun.stack.message.StunTransactionId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.littleshoot.stun.stack.message.StunMessage;
 
 /**
  * Class for matching requests and responses to their associated transactions.
+ * The tracker also times out transactions and, for requests it sends itself,
+ * retransmits them following RFC 5389 section 7.2.1: the request is sent up
+ * to Rc times, doubling the retransmission timeout (RTO) after each send,
+ * and the transaction fails if no response arrives Rm times the initial RTO
+ * after the last send.  Over reliable transports such as TCP, the request
+ * is sent only once, as section 7.2.2 requires, and the transaction fails if
+ * no response arrives within the same total time, 39.5 seconds with the
+ * defaults.  Rather than always starting with the same RTO, the tracker
+ * measures round trip times to each destination with an
+ * {@link RttEstimator} and starts new transactions to known destinations
+ * with an RTO based on those measurements.  All timeouts for all
+ * transactions share a single {@link HashedWheelTimer}, so every
+ * transaction expires without any sweep over the table.
+ * <p>
+ * The number of outstanding transactions is also capped.  When the cap is
+ * reached, the oldest transactions are cancelled to make room, and their
+ * listeners are told the transaction failed with a 
+ * {@link CanceledStunMessage}.
  */
 public class StunTransactionTrackerImpl implements
-    StunTransactionTracker<StunMessage>, StunTransactionListener {
+    RetransmittingStunTransactionTracker<StunMessage>, 
+    StunTransactionListener {
+
+    /**
+     * The initial retransmission timeout RFC 5389 recommends, in
+     * milliseconds.
+     */
+    public static final long DEFAULT_INITIAL_RTO = 500;
+
+    /**
+     * The number of times RFC 5389 recommends sending a request.
+     */
+    public static final int DEFAULT_RC = 7;
+
+    /**
+     * The multiple of the initial RTO RFC 5389 recommends waiting for a
+     * response after the last send.
+     */
+    public static final int DEFAULT_RM = 16;
+
+    /**
+     * The default maximum number of outstanding transactions.
+     */
+    public static final int DEFAULT_MAX_TRANSACTIONS = 1 << 20;
+
+    private static HashedWheelTimer s_sharedTimer;
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private final Map<UUID, StunClientTransaction<StunMessage>> transactions = 
-        new ConcurrentHashMap<UUID, StunClientTransaction<StunMessage>>();
+    private final TransactionTable<Retransmitter> transactions;
+
+    /**
+     * Outstanding transactions in the order they were added, linked through
+     * the transactions themselves, for evicting the oldest ones when we're
+     * full.  Transactions unlink themselves when they complete, so the list
+     * only ever holds live transactions.  Guarded by {@link #ageLock}.
+     */
+    private Retransmitter oldest;
+
+    private Retransmitter newest;
+
+    private final Object ageLock = new Object();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicLong matched = new AtomicLong();
+
+    private final AtomicLong expired = new AtomicLong();
+
+    private final AtomicLong evicted = new AtomicLong();
+
+    private final HashedWheelTimer timer;
+
+    private final long initialRto;
+
+    private final RttEstimator rttEstimator = new RttEstimator();
+
+    private final int rc;
+
+    private final int rm;
+
+    private final int maxTransactions;
+
+    /**
+     * Creates a new tracker using the RFC 5389 defaults and a timer shared
+     * by all trackers.
+     */
+    public StunTransactionTrackerImpl() {
+        this(sharedTimer(), DEFAULT_INITIAL_RTO, DEFAULT_RC, DEFAULT_RM);
+    }
+
+    /**
+     * Creates a new tracker allowing up to 
+     * {@link #DEFAULT_MAX_TRANSACTIONS} outstanding transactions.
+     *
+     * @param timer The timer for retransmissions and timeouts.
+     * @param initialRto The initial retransmission timeout, in
+     * milliseconds.
+     * @param rc The maximum number of times to send a request.
+     * @param rm The multiple of the initial RTO to wait for a response
+     * after the last send.
+     */
+    public StunTransactionTrackerImpl(final HashedWheelTimer timer,
+            final long initialRto, final int rc, final int rm) {
+        this(timer, initialRto, rc, rm, DEFAULT_MAX_TRANSACTIONS);
+    }
+
+    /**
+     * Creates a new tracker storing transactions in a 
+     * {@link java.util.concurrent.ConcurrentHashMap}.
+     *
+     * @param timer The timer for retransmissions and timeouts.
+     * @param initialRto The initial retransmission timeout, in
+     * milliseconds.
+     * @param rc The maximum number of times to send a request.
+     * @param rm The multiple of the initial RTO to wait for a response
+     * after the last send.
+     * @param maxTransactions The maximum number of outstanding transactions.
+     */
+    public StunTransactionTrackerImpl(final HashedWheelTimer timer,
+            final long initialRto, final int rc, final int rm,
+            final int maxTransactions) {
+        this(new ConcurrentTransactionTable<Retransmitter>(), timer,
+            initialRto, rc, rm, maxTransactions);
+    }
+
+    /**
+     * Creates a new tracker.
+     *
+     * @param transactions The table for storing transactions.
+     * @param timer The timer for retransmissions and timeouts.
+     * @param initialRto The initial retransmission timeout for destinations
+     * we have no round trip times for, in milliseconds.
+     * @param rc The maximum number of times to send a request.
+     * @param rm The multiple of the initial RTO to wait for a response
+     * after the last send.
+     * @param maxTransactions The maximum number of outstanding transactions.
+     */
+    StunTransactionTrackerImpl(
+            final TransactionTable<Retransmitter> transactions,
+            final HashedWheelTimer timer, final long initialRto,
+            final int rc, final int rm, final int maxTransactions) {
+        if (initialRto <= 0 || rc <= 0 || rm <= 0) {
+            throw new IllegalArgumentException("Bad retransmission settings: "
+                    + initialRto + ", " + rc + ", " + rm);
+        }
+        if (maxTransactions <= 0) {
+            throw new IllegalArgumentException("Bad maximum transactions: "
+                    + maxTransactions);
+        }
+        this.transactions = transactions;
+        this.timer = timer;
+        this.initialRto = initialRto;
+        this.rc = rc;
+        this.rm = rm;
+        this.maxTransactions = maxTransactions;
+    }
+
+    static synchronized HashedWheelTimer sharedTimer() {
+        if (s_sharedTimer == null) {
+            s_sharedTimer = new HashedWheelTimer();
+        }
+        return s_sharedTimer;
+    }
 
     @Override
     public void addTransaction(final StunMessage request,
             final StunTransactionListener listener,
             final InetSocketAddress localAddress,
             final InetSocketAddress remoteAddress) {
-        final List<StunTransactionListener> transactionListeners = 
-            new LinkedList<StunTransactionListener>();
-        transactionListeners.add(listener);
+        addTransaction(request, listener, localAddress, remoteAddress,
+            (StunMessageSender) null);
+    }
+
+    @Override
+    public void addTransaction(final StunMessage request,
+            final StunTransactionListener listener,
+            final InetSocketAddress localAddress,
+            final InetSocketAddress remoteAddress, final IoSession session) {
+        addTransaction(request, listener, localAddress, remoteAddress,
+            session == null ? null : new SessionSender(session));
+    }
+
+    @Override
+    public void addTransaction(final StunMessage request,
+            final StunTransactionListener listener,
+            final InetSocketAddress localAddress,
+            final InetSocketAddress remoteAddress,
+            final StunMessageSender sender) {
+        final StunClientTransactionImpl ct =
+            new StunClientTransactionImpl(request, listener, remoteAddress);
+        final Retransmitter retransmitter = new Retransmitter(ct, sender);
+        trackTransaction(retransmitter);
+        evictIfFull();
+        retransmitter.start();
+    }
+
+    private void evictIfFull() {
+        while (this.size.get() > this.maxTransactions) {
+            final Retransmitter eldest;
+            synchronized (this.ageLock) {
+                eldest = this.oldest;
+                if (eldest == null) {
+                    return;
+                }
+                unlink(eldest);
+            }
+            log.debug("Evicting transaction -- too many outstanding");
+            this.evicted.incrementAndGet();
+            eldest.m_transaction.onCanceled();
+        }
+    }
+
+    private void link(final Retransmitter retransmitter) {
+        synchronized (this.ageLock) {
+            retransmitter.m_older = this.newest;
+            if (this.newest == null) {
+                this.oldest = retransmitter;
+            } else {
+                this.newest.m_newer = retransmitter;
+            }
+            this.newest = retransmitter;
+            retransmitter.m_linked = true;
+        }
+    }
 
-        final StunClientTransaction<StunMessage> ct = 
-            new StunClientTransactionImpl(request, transactionListeners, 
-                remoteAddress);
-        trackTransaction(ct);
+    private void unlink(final Retransmitter retransmitter) {
+        synchronized (this.ageLock) {
+            if (!retransmitter.m_linked) {
+                return;
+            }
+            final Retransmitter older = retransmitter.m_older;
+            final Retransmitter newer = retransmitter.m_newer;
+            if (older == null) {
+                this.oldest = newer;
+            } else {
+                older.m_newer = newer;
+            }
+            if (newer == null) {
+                this.newest = older;
+            } else {
+                newer.m_older = older;
+            }
+            retransmitter.m_older = null;
+            retransmitter.m_newer = null;
+            retransmitter.m_linked = false;
+        }
     }
 
-    private void trackTransaction(final StunClientTransaction<StunMessage> ct) {
+    private void trackTransaction(final Retransmitter retransmitter) {
         log.debug("Tracking transaction...");
-        final StunMessage message = ct.getRequest();
-        final UUID key = getTransactionKey(message);
-        this.transactions.put(key, ct);
+        final StunClientTransactionImpl ct = retransmitter.m_transaction;
+        final StunTransactionId key = getTransactionKey(ct.getRequest());
+        // Link before the transaction can be found, so it can't complete
+        // and unlink itself before it's linked.
+        link(retransmitter);
+        final Retransmitter existing =
+            this.transactions.put(key, retransmitter);
+        if (existing == null) {
+            this.size.incrementAndGet();
+        } else {
+            // Someone reused a transaction ID.  The old transaction can no
+            // longer be matched, so stop tracking its age too.
+            unlink(existing);
+        }
         ct.addListener(this);
     }
 
@@ -49,44 +287,309 @@ public class StunTransactionTrackerImpl implements
     public StunClientTransaction<StunMessage> getClientTransaction(
             final StunMessage message) {
         log.debug("Accessing client transaction...");
-        final UUID key = getTransactionKey(message);
-        final StunClientTransaction<StunMessage> ct = this.transactions
-                .get(key);
-        if (ct == null) {
+        final StunTransactionId key = getTransactionKey(message);
+        final Retransmitter retransmitter = this.transactions.get(key);
+        if (retransmitter == null) {
             // This will happen fairly often with STUN using UDP because
             // multiple requests and responses could be sent. We should just
             // silently ignore it.
-            log.debug("Nothing known about transaction: " + key);
-            log.debug("Known transactions: " + this.transactions.keySet());
+            log.debug("Nothing known about transaction: {}", key);
+            return null;
+        }
+        return retransmitter.m_transaction;
+    }
+
+    @Override
+    public boolean cancelTransaction(final StunMessage request) {
+        final Retransmitter retransmitter =
+            this.transactions.get(getTransactionKey(request));
+        if (retransmitter == null) {
+            return false;
         }
-        return ct;
+        retransmitter.m_transaction.onCanceled();
+        return true;
     }
 
-    private UUID getTransactionKey(final StunMessage message) {
-        return message.getTransactionId();
+    private StunTransactionId getTransactionKey(final StunMessage message) {
+        return message.getStunTransactionId();
     }
 
     @Override
     public Object onTransactionFailed(final StunMessage request,
             final StunMessage response) {
         log.debug("Transaction failed...");
-        return removeTransaction(request);
+        if (response instanceof NullStunMessage
+                || response instanceof CanceledStunMessage) {
+            return removeTransaction(request, false);
+        }
+        this.matched.incrementAndGet();
+        return removeTransaction(request, true);
     }
 
     @Override
     public Object onTransactionSucceeded(final StunMessage request,
             final StunMessage response) {
         log.debug("Transaction succeeded...");
-        return removeTransaction(request);
+        this.matched.incrementAndGet();
+        return removeTransaction(request, true);
     }
 
-    private Object removeTransaction(final StunMessage message) {
+    private Object removeTransaction(final StunMessage message,
+            final boolean responded) {
         // We now consider the transaction completed and remove the
         // transaction.
-        final UUID key = getTransactionKey(message);
+        final StunTransactionId key = getTransactionKey(message);
 
         log.debug("Removing transaction with key '" + key + "'");
-        this.transactions.remove(key);
+        final Retransmitter retransmitter = this.transactions.remove(key);
+        if (retransmitter != null) {
+            this.size.decrementAndGet();
+            unlink(retransmitter);
+            retransmitter.cancel();
+            if (responded) {
+                retransmitter.sampleRtt();
+            }
+        }
         return null;
     }
+
+    /**
+     * Accessor for the round trip time estimates the tracker keeps.
+     *
+     * @return The round trip time estimator.
+     */
+    public RttEstimator getRttEstimator() {
+        return this.rttEstimator;
+    }
+
+    /**
+     * Accessor for the number of outstanding transactions.
+     *
+     * @return The number of outstanding transactions.
+     */
+    public int getTransactionCount() {
+        return this.size.get();
+    }
+
+    /**
+     * Returns the number of transactions in the age list, which should
+     * always match the number of outstanding transactions.
+     *
+     * @return The length of the age list.
+     */
+    int getAgeListLength() {
+        synchronized (this.ageLock) {
+            int length = 0;
+            for (Retransmitter r = this.oldest; r != null; r = r.m_newer) {
+                length++;
+            }
+            return length;
+        }
+    }
+
+    /**
+     * Accessor for the number of transactions that completed with a
+     * response.
+     *
+     * @return The number of transactions matched to a response.
+     */
+    public long getMatchedCount() {
+        return this.matched.get();
+    }
+
+    /**
+     * Accessor for the number of transactions that timed out.
+     *
+     * @return The number of expired transactions.
+     */
+    public long getExpiredCount() {
+        return this.expired.get();
+    }
+
+    /**
+     * Accessor for the number of transactions cancelled because too many
+     * were outstanding.
+     *
+     * @return The number of evicted transactions.
+     */
+    public long getEvictedCount() {
+        return this.evicted.get();
+    }
+
+    /**
+     * Returns how long a transaction lasts when the request is sent once
+     * and never retransmitted: as long as a full run of retransmissions
+     * with the configured initial RTO would take, plus the final wait.  
+     * This is Ti in RFC 5389 section 7.2.2.
+     */
+    private long transactionTimeout() {
+        long total = 0;
+        long rto = this.initialRto;
+        for (int i = 1; i < this.rc; i++) {
+            total += rto;
+            rto *= 2;
+        }
+        return total + this.rm * this.initialRto;
+    }
+
+    /**
+     * Sends and retransmits the request for a single transaction, and times
+     * the transaction out once we've given up.  Without a sender, this
+     * only times the transaction out.
+     */
+    final class Retransmitter implements Runnable {
+
+        private final StunClientTransactionImpl m_transaction;
+
+        private final StunMessageSender m_sender;
+
+        /**
+         * The number of times the request has been sent.  Only written from
+         * the thread that starts the transaction and then the timer thread.
+         */
+        private volatile int m_sends;
+
+        /**
+         * When the request was first sent, from {@link System#nanoTime()}.
+         */
+        private volatile long m_sentTime;
+
+        private final long m_initialRto;
+
+        private long m_rto;
+
+        private volatile HashedWheelTimer.Timeout m_timeout;
+
+        private volatile boolean m_cancelled;
+
+        /**
+         * Links to the neighbouring transactions in age order.  Guarded by
+         * the tracker's age lock.
+         */
+        private Retransmitter m_older;
+
+        private Retransmitter m_newer;
+
+        private boolean m_linked;
+
+        private Retransmitter(final StunClientTransactionImpl ct,
+                final StunMessageSender sender) {
+            this.m_transaction = ct;
+            this.m_sender = sender;
+            this.m_initialRto = rttEstimator.getRto(
+                ct.getIntendedDestination(), initialRto);
+            this.m_rto = this.m_initialRto;
+        }
+
+        private void start() {
+            if (this.m_sender == null) {
+                // We're not sending the request, so just wait as long as
+                // a full run of retransmissions would take.
+                this.m_sends = rc;
+                schedule(transactionTimeout());
+            } else if (this.m_sender.isReliable()) {
+                // RFC 5389 section 7.2.2: never retransmit over reliable
+                // transports, but give up after the same total time.
+                if (this.m_sender.isClosed()) {
+                    run();
+                    return;
+                }
+                this.m_sender.send(this.m_transaction.getRequest());
+                this.m_sends = rc;
+                schedule(transactionTimeout());
+            } else {
+                run();
+            }
+        }
+
+        public void run() {
+            if (this.m_cancelled) {
+                return;
+            }
+            if (this.m_sends >= rc) {
+                log.debug("Transaction timed out after {} sends",
+                    this.m_sends);
+                expired.incrementAndGet();
+                this.m_transaction.onTimeout();
+                return;
+            }
+            if (this.m_sender.isClosed()) {
+                log.debug("Transport closed -- failing transaction");
+                expired.incrementAndGet();
+                this.m_transaction.onTimeout();
+                return;
+            }
+            if (this.m_sends == 0) {
+                this.m_sentTime = System.nanoTime();
+            }
+            this.m_sender.send(this.m_transaction.getRequest());
+            this.m_sends++;
+
+            // Update our state before scheduling, as the next run can
+            // happen on the timer thread right away.
+            final long delay;
+            if (this.m_sends < rc) {
+                delay = this.m_rto;
+                this.m_rto *= 2;
+            } else {
+                delay = rm * this.m_initialRto;
+            }
+            schedule(delay);
+        }
+
+        /**
+         * Records the round trip time for the transaction.  Following Karn's
+         * algorithm, we skip transactions we retransmitted, as we can't tell
+         * which send the response belongs to.  We also skip reliable 
+         * transports, whose own retransmissions would skew the estimates.
+         */
+        private void sampleRtt() {
+            if (this.m_sender == null || this.m_sender.isReliable()
+                    || this.m_sends != 1) {
+                return;
+            }
+            rttEstimator.addSample(this.m_transaction.getIntendedDestination(),
+                System.nanoTime() - this.m_sentTime);
+        }
+
+        private void schedule(final long delay) {
+            this.m_timeout = timer.newTimeout(this, delay,
+                TimeUnit.MILLISECONDS);
+            if (this.m_cancelled) {
+                this.m_timeout.cancel();
+            }
+        }
+
+        private void cancel() {
+            this.m_cancelled = true;
+            final HashedWheelTimer.Timeout timeout = this.m_timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+    }
+
+    /**
+     * Sends requests over a MINA session.
+     */
+    private static final class SessionSender implements StunMessageSender {
+
+        private final IoSession m_session;
+
+        private SessionSender(final IoSession session) {
+            this.m_session = session;
+        }
+
+        public void send(final StunMessage message) {
+            this.m_session.write(message);
+        }
+
+        public boolean isClosed() {
+            return this.m_session.isClosing();
+        }
+
+        public boolean isReliable() {
+            return !this.m_session.getTransportType().isConnectionless();
+        }
+    }
 }
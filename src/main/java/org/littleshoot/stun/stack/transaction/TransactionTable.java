@@ -0,0 +1,38 @@
+package org.littleshoot.stun.stack.transaction;
+
+import org.littleshoot.stun.stack.message.StunTransactionId;
+
+/**
+ * Storage for outstanding transactions keyed by transaction ID.  
+ * Implementations must be safe for concurrent use.
+ *
+ * @param <V> The type of the stored values.
+ */
+interface TransactionTable<V> {
+
+    /**
+     * Stores the value for the specified ID.
+     *
+     * @param id The transaction ID.
+     * @param value The value.
+     * @return The value previously stored for the ID, or <code>null</code>
+     * if there was none.
+     */
+    V put(StunTransactionId id, V value);
+
+    /**
+     * Accessor for the value stored for the specified ID.
+     *
+     * @param id The transaction ID.
+     * @return The value, or <code>null</code> if there is none.
+     */
+    V get(StunTransactionId id);
+
+    /**
+     * Removes the value stored for the specified ID.
+     *
+     * @param id The transaction ID.
+     * @return The removed value, or <code>null</code> if there was none.
+     */
+    V remove(StunTransactionId id);
+}
@@ -0,0 +1,260 @@
+package org.littleshoot.stun.stack;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.ConnectFuture;
+import org.littleshoot.mina.common.IoHandlerAdapter;
+import org.littleshoot.mina.common.IoSession;
+import org.littleshoot.mina.filter.codec.ProtocolCodecFilter;
+import org.littleshoot.mina.transport.socket.nio.DatagramConnector;
+import org.littleshoot.stun.stack.decoder.StunDatagramDecodingState;
+import org.littleshoot.stun.stack.encoder.StunMessageEncoder;
+import org.littleshoot.stun.stack.message.BindingRequest;
+import org.littleshoot.stun.stack.message.BindingSuccessResponse;
+import org.littleshoot.stun.stack.message.NullStunMessage;
+import org.littleshoot.stun.stack.message.StunMessage;
+import org.littleshoot.stun.stack.transaction.HashedWheelTimer;
+import org.littleshoot.stun.stack.transaction.StunClientTransaction;
+import org.littleshoot.stun.stack.transaction.StunTransactionTrackerImpl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Tests the asynchronous client over a MINA datagram session to a simple 
+ * server on the loopback interface.
+ */
+public class AsyncStunClientTest extends TestCase
+    {
+
+    private HashedWheelTimer m_timer;
+
+    private StunTransactionTrackerImpl m_tracker;
+
+    private DatagramSocket m_server;
+
+    private DatagramConnector m_connector;
+
+    private IoSession m_session;
+
+    private AsyncStunClient m_client;
+
+    private volatile Exception m_serverFailure;
+
+    @Override
+    protected void setUp() throws Exception
+        {
+        m_timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 64);
+        m_tracker = new StunTransactionTrackerImpl(m_timer, 10, 3, 2);
+        m_server = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        m_connector = new DatagramConnector();
+        m_connector.getDefaultConfig().getFilterChain().addLast("codec", 
+            new ProtocolCodecFilter(new StunProtocolCodecFactory(true)));
+        final ConnectFuture connect = m_connector.connect(
+            m_server.getLocalSocketAddress(), new IoHandlerAdapter()
+                {
+                @Override
+                public void messageReceived(final IoSession session, 
+                    final Object message)
+                    {
+                    final StunMessage response = (StunMessage) message;
+                    final StunClientTransaction<StunMessage> ct = 
+                        m_tracker.getClientTransaction(response);
+                    if (ct != null)
+                        {
+                        response.accept(ct);
+                        }
+                    }
+                });
+        connect.join();
+        m_session = connect.getSession();
+        m_client = new AsyncStunClient(m_tracker);
+        }
+
+    @Override
+    protected void tearDown() throws Exception
+        {
+        m_session.close().join();
+        m_server.close();
+        m_timer.stop();
+        }
+
+    public void testSuccess() throws Exception
+        {
+        final Thread server = respond();
+        final BindingRequest request = new BindingRequest();
+        final StunMessage response = 
+            m_client.send(request, m_session).get(5, TimeUnit.SECONDS);
+        server.join();
+        if (m_serverFailure != null)
+            {
+            throw m_serverFailure;
+            }
+
+        assertTrue(response instanceof BindingSuccessResponse);
+        assertEquals(request.getStunTransactionId(), 
+            response.getStunTransactionId());
+        assertEquals(m_session.getLocalAddress(), 
+            ((BindingSuccessResponse) response).getMappedAddress());
+
+        // The tracker hears about the outcome after the future does.
+        for (int i = 0; i < 100 && m_tracker.getMatchedCount() == 0; i++)
+            {
+            Thread.sleep(10);
+            }
+        assertEquals(1, m_tracker.getMatchedCount());
+        }
+
+    public void testTimeout() throws Exception
+        {
+        final BindingRequest request = new BindingRequest();
+        final ListenableFuture<StunMessage> future = 
+            m_client.send(request, m_session);
+        try
+            {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected the transaction to time out");
+            }
+        catch (final ExecutionException e)
+            {
+            final StunTransactionException ste = 
+                (StunTransactionException) e.getCause();
+            assertTrue(ste.isTimeout());
+            assertSame(request, ste.getRequest());
+            assertTrue(ste.getResponse() instanceof NullStunMessage);
+            }
+        assertEquals(1, m_tracker.getExpiredCount());
+
+        // We should have seen every retransmission.
+        assertEquals(3, countRequests());
+        }
+
+    public void testCancelCancelsTransaction() throws Exception
+        {
+        final BindingRequest request = new BindingRequest();
+        final ListenableFuture<StunMessage> future = 
+            m_client.send(request, m_session);
+        assertTrue(future.cancel(false));
+        assertNull(m_tracker.getClientTransaction(request));
+        assertEquals(0, m_tracker.getTransactionCount());
+
+        // Wait longer than the whole transaction would have taken, and
+        // check the request was never retransmitted or timed out.
+        Thread.sleep(200);
+        assertEquals(1, countRequests());
+        assertEquals(0, m_tracker.getExpiredCount());
+        }
+
+    public void testFirstSuccessfulAfterFailure() throws Exception
+        {
+        final SettableFuture<StunMessage> first = SettableFuture.create();
+        final SettableFuture<StunMessage> second = SettableFuture.create();
+        final ListenableFuture<StunMessage> any = 
+            AsyncStunClient.firstSuccessful(
+                ImmutableList.<ListenableFuture<StunMessage>>of(first, 
+                    second));
+
+        first.setException(new StunTransactionException(
+            new BindingRequest(), new NullStunMessage()));
+        assertFalse(any.isDone());
+
+        final BindingRequest request = new BindingRequest();
+        final StunMessage response = new BindingSuccessResponse(
+            request.getStunTransactionId(), 
+            new InetSocketAddress("127.0.0.1", 4242));
+        second.set(response);
+        assertSame(response, any.get(0, TimeUnit.SECONDS));
+        }
+
+    public void testFirstSuccessfulAllFail() throws Exception
+        {
+        final SettableFuture<StunMessage> first = SettableFuture.create();
+        final SettableFuture<StunMessage> second = SettableFuture.create();
+        final ListenableFuture<StunMessage> any = 
+            AsyncStunClient.firstSuccessful(Arrays.asList(first, second));
+        first.setException(new StunTransactionException(
+            new BindingRequest(), new NullStunMessage()));
+        final StunTransactionException last = new StunTransactionException(
+            new BindingRequest(), new NullStunMessage());
+        second.setException(last);
+        try
+            {
+            any.get(0, TimeUnit.SECONDS);
+            fail("Expected the combined future to fail");
+            }
+        catch (final ExecutionException e)
+            {
+            assertSame(last, e.getCause());
+            }
+        }
+
+    /**
+     * Starts a thread that answers a single binding request.
+     */
+    private Thread respond()
+        {
+        final Thread server = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                try
+                    {
+                    final DatagramPacket packet = 
+                        new DatagramPacket(new byte[1500], 1500);
+                    m_server.receive(packet);
+                    final StunMessage request = 
+                        StunDatagramDecodingState.decode(ByteBuffer.wrap(
+                            packet.getData(), 0, packet.getLength()));
+                    final InetSocketAddress from = 
+                        (InetSocketAddress) packet.getSocketAddress();
+                    final ByteBuffer buf = new StunMessageEncoder().encode(
+                        new BindingSuccessResponse(
+                            request.getStunTransactionId(), from));
+                    final byte[] response = new byte[buf.remaining()];
+                    buf.get(response);
+                    m_server.send(new DatagramPacket(response, 
+                        response.length, from));
+                    }
+                catch (final Exception e)
+                    {
+                    m_serverFailure = e;
+                    }
+                }
+            });
+        server.start();
+        return server;
+        }
+
+    /**
+     * Counts the requests the server has received that it hasn't read yet.
+     */
+    private int countRequests() throws Exception
+        {
+        m_server.setSoTimeout(100);
+        final DatagramPacket packet = new DatagramPacket(new byte[1500], 1500);
+        int count = 0;
+        try
+            {
+            while (true)
+                {
+                m_server.receive(packet);
+                count++;
+                }
+            }
+        catch (final SocketTimeoutException e)
+            {
+            return count;
+            }
+        }
+    }
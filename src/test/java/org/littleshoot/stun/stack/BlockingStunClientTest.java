@@ -0,0 +1,238 @@
+package org.littleshoot.stun.stack;
+
+import java.io.InterruptedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.stun.stack.decoder.StunDatagramDecodingState;
+import org.littleshoot.stun.stack.encoder.StunMessageEncoder;
+import org.littleshoot.stun.stack.message.BindingSuccessResponse;
+import org.littleshoot.stun.stack.message.NullStunMessage;
+import org.littleshoot.stun.stack.message.StunMessage;
+import org.littleshoot.stun.stack.transaction.HashedWheelTimer;
+import org.littleshoot.stun.stack.transaction.StunTransactionTrackerImpl;
+
+/**
+ * Tests the blocking client against a simple server on the loopback 
+ * interface.
+ */
+public class BlockingStunClientTest extends TestCase
+    {
+
+    private HashedWheelTimer m_timer;
+
+    private DatagramSocket m_server;
+
+    private BlockingStunClient m_client;
+
+    private volatile Exception m_serverFailure;
+
+    @Override
+    protected void setUp() throws Exception
+        {
+        m_timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 64);
+        m_server = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        m_client = new BlockingStunClient(
+            new InetSocketAddress("127.0.0.1", 0),
+            new StunTransactionTrackerImpl(m_timer, 10, 3, 2));
+        }
+
+    @Override
+    protected void tearDown() throws Exception
+        {
+        m_client.close();
+        m_server.close();
+        m_timer.stop();
+        }
+
+    public void testBinding() throws Exception
+        {
+        final Thread server = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                try
+                    {
+                    final DatagramPacket packet = 
+                        new DatagramPacket(new byte[1500], 1500);
+                    m_server.receive(packet);
+                    final StunMessage request = StunDatagramDecodingState.decode(
+                        ByteBuffer.wrap(packet.getData(), 0, packet.getLength()));
+                    final InetSocketAddress from = 
+                        (InetSocketAddress) packet.getSocketAddress();
+                    final ByteBuffer buf = new StunMessageEncoder().encode(
+                        new BindingSuccessResponse(
+                            request.getStunTransactionId(), from));
+                    final byte[] response = new byte[buf.remaining()];
+                    buf.get(response);
+                    m_server.send(new DatagramPacket(response, response.length,
+                        from));
+                    }
+                catch (final Exception e)
+                    {
+                    m_serverFailure = e;
+                    }
+                }
+            });
+        server.start();
+
+        final InetSocketAddress mapped = m_client.getServerReflexiveAddress(
+            (InetSocketAddress) m_server.getLocalSocketAddress());
+        server.join();
+        if (m_serverFailure != null)
+            {
+            throw m_serverFailure;
+            }
+        assertEquals(m_client.getLocalAddress(), mapped);
+        }
+
+    public void testTimeout() throws Exception
+        {
+        try
+            {
+            m_client.getServerReflexiveAddress(
+                (InetSocketAddress) m_server.getLocalSocketAddress());
+            fail("Expected the transaction to time out");
+            }
+        catch (final StunTransactionException e)
+            {
+            assertTrue(e.isTimeout());
+            assertTrue(e.getResponse() instanceof NullStunMessage);
+            }
+        }
+
+    public void testInterruptedCallerLeavesClientWorking() throws Exception
+        {
+        final Thread server = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                final DatagramPacket packet = 
+                    new DatagramPacket(new byte[1500], 1500);
+                while (!m_server.isClosed())
+                    {
+                    try
+                        {
+                        m_server.receive(packet);
+                        final StunMessage request = 
+                            StunDatagramDecodingState.decode(ByteBuffer.wrap(
+                                packet.getData(), 0, packet.getLength()));
+                        final InetSocketAddress from = 
+                            (InetSocketAddress) packet.getSocketAddress();
+                        final ByteBuffer buf = new StunMessageEncoder().encode(
+                            new BindingSuccessResponse(
+                                request.getStunTransactionId(), from));
+                        final byte[] response = new byte[buf.remaining()];
+                        buf.get(response);
+                        m_server.send(new DatagramPacket(response, 
+                            response.length, from));
+                        }
+                    catch (final Exception e)
+                        {
+                        // Closed.
+                        }
+                    }
+                }
+            });
+        server.setDaemon(true);
+        server.start();
+        final InetSocketAddress address = 
+            (InetSocketAddress) m_server.getLocalSocketAddress();
+
+        // A caller that's already interrupted mustn't close the socket
+        // everyone shares.  It normally gives up, but if the answer beats
+        // it to checking the interrupt, it returns that instead.  Either
+        // way it keeps its interrupt.
+        Thread.currentThread().interrupt();
+        try
+            {
+            m_client.getServerReflexiveAddress(address);
+            }
+        catch (final InterruptedIOException e)
+            {
+            // Expected.
+            }
+        assertTrue(Thread.interrupted());
+
+        final InetSocketAddress[] mapped = new InetSocketAddress[1];
+        final Exception[] thrown = new Exception[1];
+        final Thread caller = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                try
+                    {
+                    mapped[0] = m_client.getServerReflexiveAddress(address);
+                    }
+                catch (final Exception e)
+                    {
+                    thrown[0] = e;
+                    }
+                }
+            });
+        caller.start();
+        caller.join(5000);
+        if (thrown[0] != null)
+            {
+            throw thrown[0];
+            }
+        assertEquals(m_client.getLocalAddress(), mapped[0]);
+        }
+
+    public void testInterruptCancelsTransaction() throws Exception
+        {
+        // Retransmit slowly enough that the transaction can't time out 
+        // during the test.
+        final StunTransactionTrackerImpl tracker = 
+            new StunTransactionTrackerImpl(m_timer, 10000, 3, 2);
+        final BlockingStunClient client = new BlockingStunClient(
+            new InetSocketAddress("127.0.0.1", 0), tracker);
+        final Exception[] thrown = new Exception[1];
+        final boolean[] interrupted = new boolean[1];
+        final Thread caller = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                try
+                    {
+                    client.getServerReflexiveAddress(
+                        (InetSocketAddress) m_server.getLocalSocketAddress());
+                    }
+                catch (final Exception e)
+                    {
+                    thrown[0] = e;
+                    }
+                interrupted[0] = Thread.currentThread().isInterrupted();
+                }
+            });
+        try
+            {
+            caller.start();
+            for (int i = 0; i < 500 && tracker.getTransactionCount() == 0; 
+                i++)
+                {
+                Thread.sleep(10);
+                }
+            assertEquals(1, tracker.getTransactionCount());
+
+            caller.interrupt();
+            caller.join(5000);
+            assertFalse(caller.isAlive());
+            assertTrue(String.valueOf(thrown[0]), 
+                thrown[0] instanceof InterruptedIOException);
+            assertTrue(interrupted[0]);
+            assertEquals(0, tracker.getTransactionCount());
+            assertEquals(0, tracker.getExpiredCount());
+            }
+        finally
+            {
+            client.close();
+            }
+        }
+    }
@@ -0,0 +1,140 @@
+package org.littleshoot.stun.stack;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests caching, coalescing and refreshing addresses.
+ */
+public class CachingStunAddressProviderTest extends TestCase
+    {
+
+    public void testCoalescesConcurrentCallers() throws Exception
+        {
+        final CountingProvider delegate = new CountingProvider(100);
+        final CachingStunAddressProvider provider = 
+            new CachingStunAddressProvider(delegate, 60000);
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++)
+            {
+            final Thread thread = new Thread(new Runnable()
+                {
+                public void run()
+                    {
+                    try
+                        {
+                        provider.getServerReflexiveAddress();
+                        }
+                    catch (final IOException e)
+                        {
+                        fail("Unexpected: " + e);
+                        }
+                    }
+                });
+            thread.start();
+            threads.add(thread);
+            }
+        for (final Thread thread : threads)
+            {
+            thread.join();
+            }
+        assertEquals(1, delegate.m_calls.get());
+        assertEquals(delegate.address(1), 
+            provider.getServerReflexiveAddress());
+        assertEquals(1, delegate.m_calls.get());
+        provider.close();
+        }
+
+    public void testRefreshNotifiesChanges() throws Exception
+        {
+        final CountingProvider delegate = new CountingProvider(0);
+        final CachingStunAddressProvider provider = 
+            new CachingStunAddressProvider(delegate, 100);
+        final CountDownLatch changed = new CountDownLatch(1);
+        provider.addListener(new StunAddressListener()
+            {
+            public void onServerReflexiveAddressChanged(
+                final InetSocketAddress oldAddress, 
+                final InetSocketAddress newAddress)
+                {
+                assertEquals(delegate.address(1), oldAddress);
+                assertEquals(delegate.address(2), newAddress);
+                changed.countDown();
+                }
+
+            public void onRelayAddressChanged(
+                final InetSocketAddress oldAddress, 
+                final InetSocketAddress newAddress)
+                {
+                }
+            });
+        assertEquals(delegate.address(1), 
+            provider.getServerReflexiveAddress());
+        assertTrue(changed.await(5, TimeUnit.SECONDS));
+        provider.close();
+        }
+
+    /**
+     * Provider that returns a new port each time it's asked.
+     */
+    private static final class CountingProvider 
+        implements StunAddressProvider
+        {
+
+        private final AtomicInteger m_calls = new AtomicInteger();
+
+        private final long m_delay;
+
+        private CountingProvider(final long delay)
+            {
+            m_delay = delay;
+            }
+
+        private InetSocketAddress address(final int call)
+            {
+            return new InetSocketAddress("127.0.0.1", 5000 + call);
+            }
+
+        public InetSocketAddress getServerReflexiveAddress() 
+            throws IOException
+            {
+            final int call = m_calls.incrementAndGet();
+            try
+                {
+                Thread.sleep(m_delay);
+                }
+            catch (final InterruptedException e)
+                {
+                throw new IOException("Interrupted");
+                }
+            return address(call);
+            }
+
+        public InetSocketAddress getHostAddress()
+            {
+            return null;
+            }
+
+        public InetAddress getStunServerAddress()
+            {
+            return null;
+            }
+
+        public InetSocketAddress getRelayAddress()
+            {
+            return null;
+            }
+
+        public void close()
+            {
+            }
+        }
+    }
@@ -0,0 +1,200 @@
+package org.littleshoot.stun.stack;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.stun.stack.decoder.StunDatagramDecodingState;
+import org.littleshoot.stun.stack.encoder.StunMessageEncoder;
+import org.littleshoot.stun.stack.message.BindingSuccessResponse;
+import org.littleshoot.stun.stack.message.StunMessage;
+import org.littleshoot.stun.stack.transaction.HashedWheelTimer;
+import org.littleshoot.stun.stack.transaction.StunTransactionTrackerImpl;
+
+/**
+ * Tests that lookups hedge around servers that never answer.
+ */
+public class HedgedStunAddressProviderTest extends TestCase
+    {
+
+    private HashedWheelTimer m_timer;
+
+    private DatagramSocket m_silent;
+
+    private DatagramSocket m_first;
+
+    private DatagramSocket m_second;
+
+    private final AtomicInteger m_firstRequests = new AtomicInteger();
+
+    private final AtomicInteger m_secondRequests = new AtomicInteger();
+
+    private HedgedStunAddressProvider m_provider;
+
+    @Override
+    protected void setUp() throws Exception
+        {
+        final InetAddress lo = InetAddress.getByName("127.0.0.1");
+        m_timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 64);
+        m_silent = new DatagramSocket(0, lo);
+        m_first = respond(new DatagramSocket(0, lo), m_firstRequests);
+        m_second = respond(new DatagramSocket(0, lo), m_secondRequests);
+        final BlockingStunClient client = new BlockingStunClient(
+            new InetSocketAddress(lo, 0),
+            new StunTransactionTrackerImpl(m_timer, 100, 3, 4));
+        m_provider = new HedgedStunAddressProvider(client, 
+            new StunServerResolver(), Arrays.asList(
+            address(m_silent), address(m_first), address(m_second)), 1, 
+            5000);
+        }
+
+    @Override
+    protected void tearDown() throws Exception
+        {
+        m_provider.close();
+        m_silent.close();
+        m_first.close();
+        m_second.close();
+        m_timer.stop();
+        }
+
+    public void testHedgesAroundSilentServer() throws Exception
+        {
+        final InetSocketAddress local = m_provider.getHostAddress();
+        assertEquals(local, m_provider.getServerReflexiveAddress());
+        assertTrue(drain(m_silent) > 0);
+
+        // The silent server should now rank last, and the first answer
+        // confirms what we already know.
+        assertEquals(local, m_provider.getServerReflexiveAddress());
+        assertFalse(m_provider.getStunServerAddress() == null);
+        assertEquals(0, drain(m_silent));
+        }
+
+    public void testAsksNextServerToConfirm() throws Exception
+        {
+        m_provider.close();
+        final BlockingStunClient client = new BlockingStunClient(
+            new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0),
+            new StunTransactionTrackerImpl(m_timer, 100, 3, 4));
+        m_provider = new HedgedStunAddressProvider(client, 
+            new StunServerResolver(), Arrays.asList(
+            address(m_first), address(m_second)), 1, 5000);
+
+        // Nothing confirms the first answer, so rather than settle for it
+        // the lookup asks the second server as soon as the first answers.
+        final long start = System.currentTimeMillis();
+        assertEquals(m_provider.getHostAddress(), 
+            m_provider.getServerReflexiveAddress());
+        assertTrue(System.currentTimeMillis() - start < 250);
+        assertEquals(1, m_firstRequests.get());
+        assertEquals(1, m_secondRequests.get());
+        }
+
+    public void testCanceledLookupsLeaveClientWorking() throws Exception
+        {
+        m_provider.close();
+        final StunTransactionTrackerImpl tracker = 
+            new StunTransactionTrackerImpl(m_timer, 100, 3, 4);
+        final BlockingStunClient client = new BlockingStunClient(
+            new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0),
+            tracker);
+        m_provider = new HedgedStunAddressProvider(client, 
+            new StunServerResolver(), Arrays.asList(
+            address(m_first), address(m_second), address(m_silent)), 3, 
+            5000);
+
+        // Every lookup queries all three servers and returns once the two
+        // that answer agree, abandoning the lookup of the silent one at 
+        // whatever point it has reached.
+        for (int i = 0; i < 20; i++)
+            {
+            assertEquals(client.getLocalAddress(), 
+                m_provider.getServerReflexiveAddress());
+            }
+        for (int i = 0; i < 100 && tracker.getTransactionCount() > 0; i++)
+            {
+            Thread.sleep(10);
+            }
+        assertEquals(0, tracker.getTransactionCount());
+        assertEquals(0, tracker.getExpiredCount());
+        assertEquals(client.getLocalAddress(), 
+            client.getServerReflexiveAddress(address(m_first)));
+        }
+
+    /**
+     * Returns the number of requests the given server has received since
+     * we last asked.
+     */
+    private static int drain(final DatagramSocket socket) throws Exception
+        {
+        final DatagramPacket packet = new DatagramPacket(new byte[1500], 1500);
+        socket.setSoTimeout(100);
+        int count = 0;
+        while (true)
+            {
+            try
+                {
+                socket.receive(packet);
+                count++;
+                }
+            catch (final SocketTimeoutException e)
+                {
+                return count;
+                }
+            }
+        }
+
+    private static InetSocketAddress address(final DatagramSocket socket)
+        {
+        return (InetSocketAddress) socket.getLocalSocketAddress();
+        }
+
+    private static DatagramSocket respond(final DatagramSocket socket,
+        final AtomicInteger requests)
+        {
+        final Thread thread = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                final DatagramPacket packet = 
+                    new DatagramPacket(new byte[1500], 1500);
+                while (!socket.isClosed())
+                    {
+                    try
+                        {
+                        socket.receive(packet);
+                        requests.incrementAndGet();
+                        final StunMessage request = 
+                            StunDatagramDecodingState.decode(ByteBuffer.wrap(
+                                packet.getData(), 0, packet.getLength()));
+                        final InetSocketAddress from = 
+                            (InetSocketAddress) packet.getSocketAddress();
+                        final ByteBuffer buf = new StunMessageEncoder().encode(
+                            new BindingSuccessResponse(
+                                request.getStunTransactionId(), from));
+                        final byte[] response = new byte[buf.remaining()];
+                        buf.get(response);
+                        socket.send(new DatagramPacket(response, 
+                            response.length, from));
+                        }
+                    catch (final Exception e)
+                        {
+                        // Closed.
+                        }
+                    }
+                }
+            });
+        thread.setDaemon(true);
+        thread.start();
+        return socket;
+        }
+    }
@@ -0,0 +1,379 @@
+package org.littleshoot.stun.stack;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.IoHandler;
+import org.littleshoot.mina.common.IoSession;
+import org.littleshoot.mina.filter.codec.ProtocolCodecFilter;
+import org.littleshoot.mina.transport.socket.nio.DatagramAcceptor;
+import org.littleshoot.stun.stack.encoder.StunMessageEncoder;
+import org.littleshoot.stun.stack.message.BindingRequest;
+import org.littleshoot.stun.stack.message.BindingSuccessResponse;
+import org.littleshoot.stun.stack.message.StunMessageVisitor;
+import org.littleshoot.stun.stack.message.StunMessageVisitorAdapter;
+import org.littleshoot.stun.stack.message.StunMessageVisitorFactory;
+import org.littleshoot.stun.stack.nio.NioStunEngine;
+import org.littleshoot.stun.stack.nio.NioStunVisitorFactory;
+import org.littleshoot.stun.stack.nio.SessionVisitorFactoryAdapter;
+import org.littleshoot.stun.stack.transaction.StunMessageSender;
+
+/**
+ * Loopback throughput harness for the STUN servers.  This isn't a unit test
+ * and surefire doesn't run it.  Run it by hand after
+ * <code>mvn test-compile</code>, with the test classpath:
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;dependencies&gt; \
+ *     org.littleshoot.stun.stack.LoopbackBenchmark \
+ *     [server] [client sockets] [window] [seconds]
+ * </pre>
+ * Each client socket has its own thread, which keeps <code>window</code>
+ * binding requests in flight and sends another for every response.  Lost
+ * requests are replaced after a short timeout.  The harness warms up for a
+ * second and then reports responses per second over the run.
+ * <p>
+ * The servers are:
+ * <ul>
+ * <li><code>binding</code>: {@link StunBindingServer} on one address.</li>
+ * <li><code>nio</code>: {@link NioStunEngine} with a visitor answering
+ * through its sender.</li>
+ * <li><code>nio-adapted</code>: {@link NioStunEngine} running the MINA
+ * visitor through a {@link SessionVisitorFactoryAdapter}.</li>
+ * <li><code>mina</code>: a MINA {@link DatagramAcceptor} with a
+ * {@link StunIoHandler} and the MINA visitor.</li>
+ * <li><code>mina-sessionless</code>: the same with a
+ * {@link SessionlessStunIoHandler} and a session per datagram.</li>
+ * </ul>
+ * Apart from the binding server, which writes responses from a template,
+ * every visitor builds and encodes a {@link BindingSuccessResponse}.
+ */
+public final class LoopbackBenchmark
+    {
+
+    private static final int WARMUP_SECONDS = 1;
+
+    private static final int RECEIVE_TIMEOUT = 200;
+
+    private LoopbackBenchmark()
+        {
+        // Not instantiated.
+        }
+
+    /**
+     * A server under test.
+     */
+    private interface Server
+        {
+
+        /**
+         * Starts the server.
+         *
+         * @return The address the server listens on.
+         * @throws Exception If the server can't start.
+         */
+        InetSocketAddress start() throws Exception;
+
+        /**
+         * Stops the server.
+         */
+        void stop();
+        }
+
+    /**
+     * Runs the harness.
+     *
+     * @param args The server, the number of client sockets, the number of
+     * requests each keeps in flight and the run time in seconds.
+     * @throws Exception If anything goes wrong.
+     */
+    public static void main(final String[] args) throws Exception
+        {
+        final String name = args.length > 0 ? args[0] : "binding";
+        final int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        final int window = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+        final int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        final Server server = server(name);
+        final InetSocketAddress address = server.start();
+        try
+            {
+            final long rate = run(address, clients, window, seconds);
+            System.out.println(name + ": " + clients + " client socket(s), "
+                + window + " in flight, " + seconds + " s: " + rate
+                + " responses/s");
+            }
+        finally
+            {
+            server.stop();
+            }
+        }
+
+    private static Server server(final String name)
+        {
+        if ("binding".equals(name))
+            {
+            return new Server()
+                {
+                private StunBindingServer m_server;
+
+                public InetSocketAddress start() throws Exception
+                    {
+                    m_server = new StunBindingServer(Arrays.asList(
+                        new InetSocketAddress("127.0.0.1", 0)));
+                    m_server.start();
+                    return m_server.getLocalAddresses().get(0);
+                    }
+
+                public void stop()
+                    {
+                    m_server.close();
+                    }
+                };
+            }
+        if ("nio".equals(name))
+            {
+            return new NioServer(new NioStunVisitorFactory<Void>()
+                {
+                public StunMessageVisitor<Void> createVisitor(
+                    final InetSocketAddress remoteAddress,
+                    final StunMessageSender sender)
+                    {
+                    return new StunMessageVisitorAdapter<Void>()
+                        {
+                        @Override
+                        public Void visitBindingRequest(
+                            final BindingRequest request)
+                            {
+                            sender.send(new BindingSuccessResponse(
+                                request.getStunTransactionId(),
+                                remoteAddress));
+                            return null;
+                            }
+                        };
+                    }
+                });
+            }
+        if ("nio-adapted".equals(name))
+            {
+            return new NioServer(new SessionVisitorFactoryAdapter<Void>(
+                new SessionBindingFactory(), null));
+            }
+        if ("mina".equals(name))
+            {
+            return new MinaServer(
+                new StunIoHandler<Void>(new SessionBindingFactory()), false);
+            }
+        if ("mina-sessionless".equals(name))
+            {
+            return new MinaServer(new SessionlessStunIoHandler<Void>(
+                new SessionBindingFactory()), true);
+            }
+        throw new IllegalArgumentException("Unknown server: " + name);
+        }
+
+    private static final class NioServer implements Server
+        {
+
+        private final NioStunVisitorFactory<Void> m_factory;
+
+        private NioStunEngine m_engine;
+
+        private NioServer(final NioStunVisitorFactory<Void> factory)
+            {
+            m_factory = factory;
+            }
+
+        public InetSocketAddress start() throws Exception
+            {
+            m_engine = new NioStunEngine(
+                new InetSocketAddress("127.0.0.1", 0), m_factory);
+            m_engine.start();
+            return m_engine.getLocalAddress();
+            }
+
+        public void stop()
+            {
+            m_engine.close();
+            }
+        }
+
+    private static final class MinaServer implements Server
+        {
+
+        private final IoHandler m_handler;
+
+        private final boolean m_perDatagram;
+
+        private DatagramAcceptor m_acceptor;
+
+        private MinaServer(final IoHandler handler,
+            final boolean perDatagram)
+            {
+            m_handler = handler;
+            m_perDatagram = perDatagram;
+            }
+
+        public InetSocketAddress start() throws Exception
+            {
+            final DatagramSocket probe = new DatagramSocket(0);
+            final InetSocketAddress address =
+                new InetSocketAddress("127.0.0.1", probe.getLocalPort());
+            probe.close();
+            m_acceptor = new DatagramAcceptor();
+            if (m_perDatagram)
+                {
+                SessionlessStunIoHandler.configure(
+                    m_acceptor.getDefaultConfig());
+                }
+            m_acceptor.getDefaultConfig().getFilterChain().addLast("codec",
+                new ProtocolCodecFilter(new StunProtocolCodecFactory(true)));
+            m_acceptor.bind(address, m_handler);
+            return address;
+            }
+
+        public void stop()
+            {
+            m_acceptor.unbindAll();
+            }
+        }
+
+    /**
+     * An ordinary MINA visitor factory, answering through the session.
+     */
+    private static final class SessionBindingFactory
+        implements StunMessageVisitorFactory<Void>
+        {
+        public StunMessageVisitor<Void> createVisitor(final IoSession session)
+            {
+            return new StunMessageVisitorAdapter<Void>()
+                {
+                @Override
+                public Void visitBindingRequest(final BindingRequest request)
+                    {
+                    session.write(new BindingSuccessResponse(
+                        request.getStunTransactionId(),
+                        (InetSocketAddress) session.getRemoteAddress()));
+                    return null;
+                    }
+                };
+            }
+        }
+
+    private static long run(final InetSocketAddress server,
+        final int clients, final int window, final int seconds)
+        throws Exception
+        {
+        final ByteBuffer buf = new StunMessageEncoder().encode(
+            new BindingRequest());
+        final byte[] request = new byte[buf.remaining()];
+        buf.get(request);
+
+        final AtomicLong responses = new AtomicLong();
+        final List<Client> threads = new ArrayList<Client>();
+        for (int i = 0; i < clients; i++)
+            {
+            final Client client =
+                new Client(server, request, window, responses);
+            threads.add(client);
+            client.start();
+            }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(WARMUP_SECONDS));
+        final long before = responses.get();
+        final long start = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        final long count = responses.get() - before;
+        final long elapsed = System.nanoTime() - start;
+        for (final Client client : threads)
+            {
+            client.close();
+            }
+        for (final Client client : threads)
+            {
+            client.join();
+            }
+        return count * TimeUnit.SECONDS.toNanos(1) / elapsed;
+        }
+
+    /**
+     * A single client socket keeping a window of requests in flight.
+     */
+    private static final class Client extends Thread
+        {
+
+        private final DatagramSocket m_socket;
+
+        private final DatagramPacket m_request;
+
+        private final int m_window;
+
+        private final AtomicLong m_responses;
+
+        private volatile boolean m_closed;
+
+        private Client(final InetSocketAddress server, final byte[] request,
+            final int window, final AtomicLong responses) throws Exception
+            {
+            super("Loopback-Client");
+            m_socket = new DatagramSocket(new InetSocketAddress("127.0.0.1", 0));
+            m_socket.setSoTimeout(RECEIVE_TIMEOUT);
+            m_request = new DatagramPacket(request, request.length, server);
+            m_window = window;
+            m_responses = responses;
+            setDaemon(true);
+            }
+
+        @Override
+        public void run()
+            {
+            final DatagramPacket response =
+                new DatagramPacket(new byte[1500], 1500);
+            try
+                {
+                fill();
+                while (!m_closed)
+                    {
+                    try
+                        {
+                        m_socket.receive(response);
+                        m_responses.incrementAndGet();
+                        m_socket.send(m_request);
+                        }
+                    catch (final SocketTimeoutException e)
+                        {
+                        // Requests or responses were dropped.
+                        fill();
+                        }
+                    }
+                }
+            catch (final Exception e)
+                {
+                if (!m_closed)
+                    {
+                    e.printStackTrace();
+                    }
+                }
+            }
+
+        private void fill() throws Exception
+            {
+            for (int i = 0; i < m_window; i++)
+                {
+                m_socket.send(m_request);
+                }
+            }
+
+        private void close()
+            {
+            m_closed = true;
+            m_socket.close();
+            }
+        }
+    }
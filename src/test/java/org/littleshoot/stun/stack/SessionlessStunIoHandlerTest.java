@@ -0,0 +1,335 @@
+package org.littleshoot.stun.stack;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.IdleStatus;
+import org.littleshoot.mina.common.IoSession;
+import org.littleshoot.mina.filter.codec.ProtocolCodecFilter;
+import org.littleshoot.mina.transport.socket.nio.DatagramAcceptor;
+import org.littleshoot.mina.transport.socket.nio.DatagramAcceptorConfig;
+import org.littleshoot.stun.stack.decoder.StunDatagramDecodingState;
+import org.littleshoot.stun.stack.encoder.StunMessageEncoder;
+import org.littleshoot.stun.stack.message.BindingRequest;
+import org.littleshoot.stun.stack.message.BindingSuccessResponse;
+import org.littleshoot.stun.stack.message.StunMessage;
+import org.littleshoot.stun.stack.message.StunMessageVisitor;
+import org.littleshoot.stun.stack.message.StunMessageVisitorAdapter;
+import org.littleshoot.stun.stack.message.StunMessageVisitorFactory;
+import org.littleshoot.stun.stack.message.StunTransactionId;
+
+/**
+ * Tests handling each datagram without keeping its session around.
+ */
+public class SessionlessStunIoHandlerTest extends TestCase
+    {
+
+    public void testSessionCreatedSkipsInitialization() throws Exception
+        {
+        final FakeSession fake = new FakeSession(true);
+        new SessionlessStunIoHandler<Void>(new WritingFactory(1))
+            .sessionCreated(fake.m_session);
+
+        // SessionUtil.initialize would have configured the session and set
+        // its attributes -- we only set a short idle time.
+        assertEquals(1, fake.m_calls.size());
+        assertEquals("setIdleTime", fake.m_calls.get(0));
+        assertEquals(1, fake.m_idleTime);
+        assertTrue(fake.m_attributes.isEmpty());
+        }
+
+    public void testClosesOnlyOnceVisitorReturnsAndWritesAreSent()
+        {
+        final FakeSession fake = new FakeSession(true);
+        final SessionlessStunIoHandler<Void> handler =
+            new SessionlessStunIoHandler<Void>(new StunMessageVisitorFactory()
+                {
+                public StunMessageVisitor createVisitor(
+                    final IoSession session)
+                    {
+                    return new StunMessageVisitorAdapter<Void>()
+                        {
+                        @Override
+                        public Void visitBindingRequest(
+                            final BindingRequest request)
+                            {
+                            session.write(request);
+
+                            // The first response goes out before we write
+                            // the second.
+                            fake.m_scheduled--;
+                            fake.m_handler.messageSent(session, request);
+                            assertFalse(fake.m_closed);
+                            session.write(request);
+                            return null;
+                            }
+                        };
+                    }
+                });
+        fake.m_handler = handler;
+        handler.messageReceived(fake.m_session, new BindingRequest());
+        assertFalse(fake.m_closed);
+
+        fake.m_scheduled--;
+        handler.messageSent(fake.m_session, new Object());
+        assertTrue(fake.m_closed);
+        }
+
+    public void testClosesAtOnceWithoutResponse()
+        {
+        final FakeSession fake = new FakeSession(true);
+        new SessionlessStunIoHandler<Void>(new WritingFactory(0))
+            .messageReceived(fake.m_session, new BindingRequest());
+        assertTrue(fake.m_closed);
+        }
+
+    public void testSharedSessionsOnlyCloseWhenIdle()
+        {
+        final FakeSession fake = new FakeSession(false);
+        final SessionlessStunIoHandler<Void> handler =
+            new SessionlessStunIoHandler<Void>(new WritingFactory(1));
+        handler.messageReceived(fake.m_session, new BindingRequest());
+        fake.m_scheduled--;
+        handler.messageSent(fake.m_session, new Object());
+        assertFalse(fake.m_closed);
+
+        handler.sessionIdle(fake.m_session, IdleStatus.BOTH_IDLE);
+        assertTrue(fake.m_closed);
+        }
+
+    public void testSendsEveryResponseOverAcceptor() throws Exception
+        {
+        final DatagramAcceptor acceptor = new DatagramAcceptor();
+        SessionlessStunIoHandler.configure(acceptor.getDefaultConfig());
+        final InetSocketAddress address = bind(acceptor, 3);
+        final DatagramSocket client =
+            new DatagramSocket(new InetSocketAddress("127.0.0.1", 0));
+        client.setSoTimeout(5000);
+        try
+            {
+            // Back-to-back requests each get a fresh session, and every
+            // response the visitor writes arrives before it closes.
+            for (int i = 0; i < 2; i++)
+                {
+                final BindingRequest request = send(client, address);
+                for (int j = 0; j < 3; j++)
+                    {
+                    assertEquals(request.getStunTransactionId(),
+                        receive(client).getStunTransactionId());
+                    }
+                for (int j = 0; j < 100 &&
+                    !acceptor.getManagedSessions(address).isEmpty(); j++)
+                    {
+                    Thread.sleep(10);
+                    }
+                assertTrue(acceptor.getManagedSessions(address).isEmpty());
+                }
+            }
+        finally
+            {
+            client.close();
+            acceptor.unbindAll();
+            }
+        }
+
+    public void testAnswersPipelinedRequests() throws Exception
+        {
+        // Requests sent without waiting for answers share a session under
+        // MINA's default recycler, so it mustn't close under them.
+        final DatagramAcceptor acceptor = new DatagramAcceptor();
+        final InetSocketAddress address = bind(acceptor, 1);
+        final DatagramSocket client =
+            new DatagramSocket(new InetSocketAddress("127.0.0.1", 0));
+        client.setSoTimeout(5000);
+        try
+            {
+            final Set<StunTransactionId> ids =
+                new HashSet<StunTransactionId>();
+            for (int i = 0; i < 5; i++)
+                {
+                ids.add(send(client, address).getStunTransactionId());
+                }
+            for (int i = 0; i < 5; i++)
+                {
+                assertTrue(ids.remove(receive(client).getStunTransactionId()));
+                }
+            }
+        finally
+            {
+            client.close();
+            acceptor.unbindAll();
+            }
+        }
+
+    private static InetSocketAddress bind(final DatagramAcceptor acceptor,
+        final int responses) throws Exception
+        {
+        acceptor.getDefaultConfig().getFilterChain().addLast("codec",
+            new ProtocolCodecFilter(new StunProtocolCodecFactory(true)));
+        final DatagramSocket probe = new DatagramSocket(0);
+        final InetSocketAddress address =
+            new InetSocketAddress("127.0.0.1", probe.getLocalPort());
+        probe.close();
+        acceptor.bind(address,
+            new SessionlessStunIoHandler<Void>(new WritingFactory(responses)));
+        return address;
+        }
+
+    private static BindingRequest send(final DatagramSocket client,
+        final InetSocketAddress address) throws Exception
+        {
+        final BindingRequest request = new BindingRequest();
+        final ByteBuffer buf = new StunMessageEncoder().encode(request);
+        final byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        client.send(new DatagramPacket(bytes, bytes.length, address));
+        return request;
+        }
+
+    private static StunMessage receive(final DatagramSocket client)
+        throws Exception
+        {
+        final DatagramPacket packet = new DatagramPacket(new byte[1500], 1500);
+        client.receive(packet);
+        return StunDatagramDecodingState.decode(ByteBuffer.wrap(
+            packet.getData(), 0, packet.getLength()));
+        }
+
+    /**
+     * Creates visitors answering each binding request with the specified
+     * number of responses.
+     */
+    private static final class WritingFactory
+        implements StunMessageVisitorFactory<Void>
+        {
+
+        private final int m_responses;
+
+        private WritingFactory(final int responses)
+            {
+            m_responses = responses;
+            }
+
+        public StunMessageVisitor<Void> createVisitor(final IoSession session)
+            {
+            return new StunMessageVisitorAdapter<Void>()
+                {
+                @Override
+                public Void visitBindingRequest(final BindingRequest request)
+                    {
+                    for (int i = 0; i < m_responses; i++)
+                        {
+                        session.write(new BindingSuccessResponse(
+                            request.getStunTransactionId(),
+                            (InetSocketAddress) session.getRemoteAddress()));
+                        }
+                    return null;
+                    }
+                };
+            }
+        }
+
+    /**
+     * A connected session that records what the handler does with it.
+     * Writes are queued until the test says they're sent.
+     */
+    private static final class FakeSession
+        {
+
+        private final List<String> m_calls = new LinkedList<String>();
+
+        private final Map<String, Object> m_attributes =
+            new HashMap<String, Object>();
+
+        private final IoSession m_session;
+
+        private SessionlessStunIoHandler<Void> m_handler;
+
+        private int m_scheduled;
+
+        private int m_idleTime = -1;
+
+        private boolean m_closed;
+
+        private FakeSession(final boolean perDatagram)
+            {
+            final DatagramAcceptorConfig config = new DatagramAcceptorConfig();
+            if (perDatagram)
+                {
+                SessionlessStunIoHandler.configure(config);
+                }
+            final InvocationHandler handler = new InvocationHandler()
+                {
+                public Object invoke(final Object proxy, final Method method,
+                    final Object[] args)
+                    {
+                    final String name = method.getName();
+                    m_calls.add(name);
+                    if (name.equals("isConnected"))
+                        {
+                        return Boolean.TRUE;
+                        }
+                    if (name.equals("isClosing"))
+                        {
+                        return Boolean.valueOf(m_closed);
+                        }
+                    if (name.equals("setIdleTime"))
+                        {
+                        assertEquals(IdleStatus.BOTH_IDLE, args[0]);
+                        m_idleTime = ((Integer) args[1]).intValue();
+                        return null;
+                        }
+                    if (name.equals("setAttribute"))
+                        {
+                        return m_attributes.put((String) args[0],
+                            args.length > 1 ? args[1] : Boolean.TRUE);
+                        }
+                    if (name.equals("containsAttribute"))
+                        {
+                        return Boolean.valueOf(
+                            m_attributes.containsKey(args[0]));
+                        }
+                    if (name.equals("getServiceConfig"))
+                        {
+                        return config;
+                        }
+                    if (name.equals("getRemoteAddress"))
+                        {
+                        return new InetSocketAddress("127.0.0.1", 5000);
+                        }
+                    if (name.equals("write"))
+                        {
+                        m_scheduled++;
+                        return null;
+                        }
+                    if (name.equals("getScheduledWriteRequests"))
+                        {
+                        return Integer.valueOf(m_scheduled);
+                        }
+                    if (name.equals("close"))
+                        {
+                        m_closed = true;
+                        return null;
+                        }
+                    throw new UnsupportedOperationException(name);
+                    }
+                };
+            m_session = (IoSession) Proxy.newProxyInstance(
+                IoSession.class.getClassLoader(),
+                new Class[] {IoSession.class}, handler);
+            }
+        }
+    }
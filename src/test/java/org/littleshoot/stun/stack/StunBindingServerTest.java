@@ -0,0 +1,46 @@
+package org.littleshoot.stun.stack;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.littleshoot.stun.stack.transaction.StunTransactionTrackerImpl;
+
+/**
+ * Tests answering binding requests on several addresses.
+ */
+public class StunBindingServerTest extends TestCase
+    {
+
+    public void testAnswersOnEachAddress() throws Exception
+        {
+        final StunBindingServer server = new StunBindingServer(Arrays.asList(
+            new InetSocketAddress("127.0.0.1", 0), 
+            new InetSocketAddress("127.0.0.1", 0)));
+        server.start();
+        final BlockingStunClient client = new BlockingStunClient(
+            new InetSocketAddress("127.0.0.1", 0), 
+            new StunTransactionTrackerImpl());
+        try
+            {
+            for (final InetSocketAddress address : server.getLocalAddresses())
+                {
+                assertEquals(client.getLocalAddress(), 
+                    client.getServerReflexiveAddress(address));
+                }
+
+            // The server counts the send after the client may have seen it.
+            for (int i = 0; i < 100 && server.getResponseCount() < 2; i++)
+                {
+                Thread.sleep(10);
+                }
+            assertEquals(2, server.getResponseCount());
+            }
+        finally
+            {
+            client.close();
+            server.close();
+            }
+        }
+    }
@@ -0,0 +1,121 @@
+package org.littleshoot.stun.stack;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.littleshoot.mina.common.IoSession;
+import org.littleshoot.stun.stack.message.BindingRequest;
+import org.littleshoot.stun.stack.message.ReusableStunMessageVisitorFactory;
+import org.littleshoot.stun.stack.message.StunMessageVisitor;
+import org.littleshoot.stun.stack.message.StunMessageVisitorAdapter;
+
+/**
+ * Tests the STUN IO handler's creation of visitors.
+ */
+public class StunIoHandlerTest extends TestCase
+    {
+
+    public void testReusableVisitorsAreCachedPerSession()
+        {
+        final CountingFactory factory = new CountingFactory(true);
+        final StunIoHandler<Void> handler = new StunIoHandler<Void>(factory);
+        final IoSession first = createSession();
+        final IoSession second = createSession();
+        for (int i = 0; i < 3; i++)
+            {
+            handler.messageReceived(first, new BindingRequest());
+            handler.messageReceived(second, new BindingRequest());
+            }
+        assertEquals(2, factory.m_created);
+        assertEquals(6, factory.m_visited);
+        }
+
+    public void testVisitorsAreCreatedPerMessageByDefault()
+        {
+        final CountingFactory factory = new CountingFactory(false);
+        final StunIoHandler<Void> handler = new StunIoHandler<Void>(factory);
+        final IoSession session = createSession();
+        for (int i = 0; i < 3; i++)
+            {
+            handler.messageReceived(session, new BindingRequest());
+            }
+        assertEquals(3, factory.m_created);
+        assertEquals(3, factory.m_visited);
+        }
+
+    /**
+     * Creates a connected session that only supports attributes.
+     */
+    private static IoSession createSession()
+        {
+        final Map<Object, Object> attributes = new HashMap<Object, Object>();
+        final InvocationHandler handler = new InvocationHandler()
+            {
+            public Object invoke(final Object proxy, final Method method,
+                final Object[] args)
+                {
+                final String name = method.getName();
+                if (name.equals("isConnected"))
+                    {
+                    return Boolean.TRUE;
+                    }
+                if (name.equals("isClosing"))
+                    {
+                    return Boolean.FALSE;
+                    }
+                if (name.equals("getAttribute"))
+                    {
+                    return attributes.get(args[0]);
+                    }
+                if (name.equals("setAttribute"))
+                    {
+                    return attributes.put(args[0], args[1]);
+                    }
+                throw new UnsupportedOperationException(name);
+                }
+            };
+        return (IoSession) Proxy.newProxyInstance(
+            IoSession.class.getClassLoader(), new Class[] {IoSession.class},
+            handler);
+        }
+
+    private static final class CountingFactory 
+        implements ReusableStunMessageVisitorFactory<Void>
+        {
+
+        private final boolean m_reusable;
+
+        private int m_created;
+
+        private int m_visited;
+
+        private CountingFactory(final boolean reusable)
+            {
+            m_reusable = reusable;
+            }
+
+        public boolean isReusable()
+            {
+            return m_reusable;
+            }
+
+        public StunMessageVisitor<Void> createVisitor(final IoSession session)
+            {
+            m_created++;
+            return new StunMessageVisitorAdapter<Void>()
+                {
+                @Override
+                public Void visitBindingRequest(final BindingRequest request)
+                    {
+                    m_visited++;
+                    return null;
+                    }
+                };
+            }
+        }
+    }
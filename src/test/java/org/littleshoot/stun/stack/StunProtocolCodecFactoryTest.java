@@ -0,0 +1,119 @@
+package org.littleshoot.stun.stack;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.WriteFuture;
+import org.littleshoot.mina.filter.codec.ProtocolEncoder;
+import org.littleshoot.mina.filter.codec.ProtocolEncoderOutput;
+import org.littleshoot.stun.stack.encoder.StunMessageEncoder;
+import org.littleshoot.stun.stack.message.BindingRequest;
+import org.littleshoot.stun.stack.message.StunMessage;
+import org.littleshoot.stun.stack.message.turn.SendIndication;
+
+/**
+ * Tests the encoders the STUN codec factories create.
+ */
+public class StunProtocolCodecFactoryTest extends TestCase
+    {
+
+    public void testDirectOption() throws Exception
+        {
+        assertDirect(false, new StunProtocolCodecFactory(true).getEncoder());
+        assertDirect(true,
+            new StunProtocolCodecFactory(true, true).getEncoder());
+        assertDirect(false,
+            new StunStreamProtocolCodecFactory(false).getEncoder());
+        assertDirect(true,
+            new StunStreamProtocolCodecFactory(true, true).getEncoder());
+        assertDirect(false,
+            new StunDemuxableProtocolCodecFactory().newEncoder());
+        assertDirect(true,
+            new StunDemuxableProtocolCodecFactory(true).newEncoder());
+        }
+
+    public void testStreamEncoderWritesDataSeparately() throws Exception
+        {
+        final byte[] data = new byte[1000];
+        new Random().nextBytes(data);
+        final SendIndication indication = new SendIndication(
+            new InetSocketAddress("127.0.0.1", 4242), data);
+        final ByteBuffer expected = new StunMessageEncoder().encode(indication);
+
+        // Over UDP, the message has to go out in one datagram.
+        final List<ByteBuffer> datagram = encode(
+            new StunProtocolCodecFactory(true).getEncoder(), indication);
+        assertEquals(1, datagram.size());
+        assertEquals(expected, datagram.get(0));
+
+        final List<ByteBuffer> stream = encode(
+            new StunStreamProtocolCodecFactory(false).getEncoder(),
+            indication);
+        assertEquals(2, stream.size());
+        assertEquals(data.length, stream.get(1).remaining());
+        assertEquals(expected, concat(stream));
+
+        final List<ByteBuffer> framed = encode(
+            new StunStreamProtocolCodecFactory(true).getEncoder(),
+            indication);
+        assertEquals(2, framed.size());
+        final ByteBuffer frame = concat(framed);
+        assertEquals(expected.remaining(), frame.getUnsignedShort());
+        assertEquals(expected, frame.slice());
+
+        // Messages without data still go out whole.
+        assertEquals(1, encode(
+            new StunStreamProtocolCodecFactory(false).getEncoder(),
+            new BindingRequest()).size());
+        }
+
+    private static ByteBuffer concat(final List<ByteBuffer> bufs)
+        {
+        final ByteBuffer buf = ByteBuffer.allocate(1500);
+        for (final ByteBuffer written : bufs)
+            {
+            buf.put(written);
+            }
+        buf.flip();
+        return buf;
+        }
+
+    private static void assertDirect(final boolean direct,
+        final ProtocolEncoder encoder) throws Exception
+        {
+        final List<ByteBuffer> written = encode(encoder, new BindingRequest());
+        assertFalse(written.isEmpty());
+        for (final ByteBuffer buf : written)
+            {
+            assertEquals(direct, buf.isDirect());
+            }
+        }
+
+    private static List<ByteBuffer> encode(final ProtocolEncoder encoder,
+        final StunMessage message) throws Exception
+        {
+        final List<ByteBuffer> written = new LinkedList<ByteBuffer>();
+        encoder.encode(null, message, new ProtocolEncoderOutput()
+            {
+            public void write(final ByteBuffer buf)
+                {
+                written.add(buf);
+                }
+
+            public void mergeAll()
+                {
+                }
+
+            public WriteFuture flush()
+                {
+                return null;
+                }
+            });
+        return written;
+        }
+    }
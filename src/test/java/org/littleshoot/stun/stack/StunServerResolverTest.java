@@ -0,0 +1,41 @@
+package org.littleshoot.stun.stack;
+
+import java.net.InetSocketAddress;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests resolving unresolved STUN server addresses.
+ */
+public class StunServerResolverTest extends TestCase
+    {
+
+    public void testServersAreUnresolved() throws Exception
+        {
+        for (final InetSocketAddress server : StunConstants.SERVERS)
+            {
+            assertTrue(server.isUnresolved());
+            }
+        }
+
+    public void testResolve() throws Exception
+        {
+        final StunServerResolver resolver = new StunServerResolver();
+        final InetSocketAddress resolved = resolver.resolve(
+            InetSocketAddress.createUnresolved("localhost", 3478));
+        assertFalse(resolved.isUnresolved());
+        assertEquals(3478, resolved.getPort());
+        assertTrue(resolved.getAddress().isLoopbackAddress());
+
+        // The second lookup comes straight from the cache.
+        assertTrue(resolver.resolveAsync(
+            InetSocketAddress.createUnresolved("localhost", 19302)).isDone());
+        }
+
+    public void testResolvedAddressesPassThrough() throws Exception
+        {
+        final InetSocketAddress address = 
+            new InetSocketAddress("127.0.0.1", 3478);
+        assertSame(address, new StunServerResolver().resolve(address));
+        }
+    }
@@ -0,0 +1,181 @@
+package org.littleshoot.stun.stack.decoder;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.filter.codec.ProtocolDecoderOutput;
+import org.littleshoot.stun.stack.encoder.StunMessageEncoder;
+import org.littleshoot.stun.stack.message.BindingRequest;
+import org.littleshoot.stun.stack.message.BindingSuccessResponse;
+import org.littleshoot.stun.stack.message.StunMessage;
+import org.littleshoot.stun.stack.message.attributes.StunAttribute;
+import org.littleshoot.stun.stack.message.attributes.StunAttributeType;
+import org.littleshoot.stun.stack.message.attributes.ice.IcePriorityAttribute;
+
+/**
+ * Tests single-pass decoding of STUN datagrams.
+ */
+public class StunDatagramDecodingStateTest extends TestCase
+    {
+
+    public void testDecodeBindingSuccessResponse() throws Exception
+        {
+        final InetSocketAddress address = new InetSocketAddress(
+            InetAddress.getByAddress(new byte[] {10, 0, 0, 1}), 5060);
+        final BindingRequest request = new BindingRequest();
+        final BindingSuccessResponse response = new BindingSuccessResponse(
+            request.getTransactionId().getRawBytes(), address);
+
+        final ByteBuffer buf = new StunMessageEncoder().encode(response);
+        final StunMessage decoded = StunDatagramDecodingState.decode(buf);
+
+        assertFalse(buf.hasRemaining());
+        assertTrue(decoded instanceof BindingSuccessResponse);
+        assertEquals(request.getTransactionId(), decoded.getTransactionId());
+        assertEquals(address,
+            ((BindingSuccessResponse) decoded).getMappedAddress());
+        assertEquals(response.getBodyLength(), decoded.getBodyLength());
+        }
+
+    public void testDecodeThroughStateMachine() throws Exception
+        {
+        final BindingRequest request =
+            new BindingRequest(new IcePriorityAttribute(427972L));
+        final ByteBuffer buf = new StunMessageEncoder().encode(request);
+
+        final List<Object> decoded = new LinkedList<Object>();
+        final ProtocolDecoderOutput out = new ProtocolDecoderOutput()
+            {
+            public void write(final Object message)
+                {
+                decoded.add(message);
+                }
+
+            public void flush()
+                {
+                }
+            };
+        new StunDatagramDecodingState().decode(buf, out);
+
+        assertEquals(1, decoded.size());
+        final StunMessage message = (StunMessage) decoded.get(0);
+        assertTrue(message instanceof BindingRequest);
+        assertEquals(request.getTransactionId(), message.getTransactionId());
+        final IcePriorityAttribute priority = (IcePriorityAttribute)
+            message.getAttributes().get(StunAttributeType.ICE_PRIORITY);
+        assertEquals(427972L, priority.getPriority());
+        }
+
+    public void testUnknownAttributesAreSkipped() throws Exception
+        {
+        final ByteBuffer buf = ByteBuffer.allocate(40);
+        buf.putShort((short) 0x0001);
+        buf.putShort((short) 20);
+        buf.putInt(0x2112A442);
+        buf.put(new byte[12]);
+
+        // An attribute we don't know about followed by PRIORITY.
+        buf.putShort((short) 0x7777);
+        buf.putShort((short) 8);
+        buf.put(new byte[8]);
+        buf.putShort((short) StunAttributeType.ICE_PRIORITY.toInt());
+        buf.putShort((short) 4);
+        buf.putInt(42);
+        buf.flip();
+
+        final StunMessage message = StunDatagramDecodingState.decode(buf);
+        assertEquals(8, message.getBodyLength());
+        assertEquals(1, message.getAttributes().size());
+        assertTrue(message.getAttributes().containsKey(
+            StunAttributeType.ICE_PRIORITY));
+        final IcePriorityAttribute priority = (IcePriorityAttribute)
+            message.getAttributes().get(StunAttributeType.ICE_PRIORITY);
+        assertEquals(42L, priority.getPriority());
+        }
+
+    public void testReencodesOnlyIndexedAttributes() throws Exception
+        {
+        final ByteBuffer buf = ByteBuffer.allocate(48);
+        buf.putShort((short) 0x0001);
+        buf.putShort((short) 28);
+        buf.putInt(0x2112A442);
+        buf.put(new byte[12]);
+
+        // PRIORITY, an attribute we don't know about and PRIORITY again.
+        buf.putShort((short) StunAttributeType.ICE_PRIORITY.toInt());
+        buf.putShort((short) 4);
+        buf.putInt(1);
+        buf.putShort((short) 0x7777);
+        buf.putShort((short) 8);
+        buf.put(new byte[8]);
+        buf.putShort((short) StunAttributeType.ICE_PRIORITY.toInt());
+        buf.putShort((short) 4);
+        buf.putInt(2);
+        buf.flip();
+
+        final StunMessage message = StunDatagramDecodingState.decode(buf);
+        assertEquals(8, message.getBodyLength());
+
+        final ByteBuffer encoded = new StunMessageEncoder().encode(message);
+        assertEquals(20 + 8, encoded.remaining());
+        assertEquals(8, encoded.getUnsignedShort(2));
+
+        final StunMessage decoded = StunDatagramDecodingState.decode(encoded);
+        assertEquals(1, decoded.getAttributes().size());
+        final IcePriorityAttribute priority = (IcePriorityAttribute)
+            decoded.getAttributes().get(StunAttributeType.ICE_PRIORITY);
+        assertEquals(2L, priority.getPriority());
+        }
+
+    public void testMalformedAttributesAreSkipped() throws Exception
+        {
+        final ByteBuffer buf = ByteBuffer.allocate(40);
+        buf.putShort((short) 0x0101);
+        buf.putShort((short) 20);
+        buf.putInt(0x2112A442);
+        buf.put(new byte[12]);
+
+        // A mapped address with an unknown family and a short PRIORITY.
+        buf.putShort((short) StunAttributeType.MAPPED_ADDRESS.toInt());
+        buf.putShort((short) 8);
+        buf.put((byte) 0);
+        buf.put((byte) 0x07);
+        buf.putShort((short) 5060);
+        buf.put(new byte[4]);
+        buf.putShort((short) StunAttributeType.ICE_PRIORITY.toInt());
+        buf.putShort((short) 2);
+        buf.putShort((short) 42);
+        buf.put(new byte[2]);
+        buf.flip();
+
+        final StunMessage message = StunDatagramDecodingState.decode(buf);
+        final Map<StunAttributeType, StunAttribute> attributes =
+            message.getAttributes();
+        assertEquals(0, message.getBodyLength());
+        assertEquals(0, attributes.size());
+        assertFalse(attributes.containsKey(StunAttributeType.MAPPED_ADDRESS));
+        assertFalse(attributes.containsKey(StunAttributeType.ICE_PRIORITY));
+        assertNull(attributes.get(StunAttributeType.MAPPED_ADDRESS));
+        assertNull(attributes.get(StunAttributeType.ICE_PRIORITY));
+        assertFalse(attributes.values().iterator().hasNext());
+        }
+
+    public void testTruncatedDatagram() throws Exception
+        {
+        final ByteBuffer full =
+            new StunMessageEncoder().encode(new BindingRequest(
+                new IcePriorityAttribute(1L)));
+        full.limit(full.limit() - 2);
+        final long malformed = StunDatagramDecodingState.getMalformedCount();
+        assertNull(StunDatagramDecodingState.decode(full));
+        assertFalse(full.hasRemaining());
+        assertEquals(malformed + 1, 
+            StunDatagramDecodingState.getMalformedCount());
+        }
+    }
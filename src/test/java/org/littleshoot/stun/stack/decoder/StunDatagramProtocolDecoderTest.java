@@ -0,0 +1,88 @@
+package org.littleshoot.stun.stack.decoder;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.IoSession;
+import org.littleshoot.mina.filter.codec.ProtocolDecoder;
+import org.littleshoot.mina.filter.codec.ProtocolDecoderOutput;
+import org.littleshoot.stun.stack.StunProtocolCodecFactory;
+import org.littleshoot.stun.stack.encoder.StunMessageEncoder;
+import org.littleshoot.stun.stack.message.BindingRequest;
+import org.littleshoot.stun.stack.message.StunMessage;
+
+/**
+ * Tests the stateless datagram decoder shared by all sessions.
+ */
+public class StunDatagramProtocolDecoderTest extends TestCase
+    {
+
+    public void testSharedDecoderHandlesBackToBackSessions() throws Exception
+        {
+        final StunProtocolCodecFactory factory =
+            new StunProtocolCodecFactory(true);
+        final ProtocolDecoder first = factory.getDecoder();
+        final ProtocolDecoder second = factory.getDecoder();
+        assertSame(first, second);
+
+        final BindingRequest a = new BindingRequest();
+        final BindingRequest b = new BindingRequest();
+        final List<Object> decoded = new LinkedList<Object>();
+        final ProtocolDecoderOutput out = new ProtocolDecoderOutput()
+            {
+            public void write(final Object message)
+                {
+                decoded.add(message);
+                }
+
+            public void flush()
+                {
+                }
+            };
+
+        // A truncated datagram from one peer mustn't leave anything behind
+        // for the next peer's datagram.
+        final ByteBuffer truncated = encode(a);
+        truncated.limit(10);
+        first.decode(createSession(), truncated, out);
+        assertTrue(decoded.isEmpty());
+
+        second.decode(createSession(), encode(b), out);
+        first.decode(createSession(), encode(a), out);
+        assertEquals(2, decoded.size());
+        assertEquals(b.getStunTransactionId(),
+            ((StunMessage) decoded.get(0)).getStunTransactionId());
+        assertEquals(a.getStunTransactionId(),
+            ((StunMessage) decoded.get(1)).getStunTransactionId());
+        }
+
+    private static ByteBuffer encode(final StunMessage message)
+        {
+        return new StunMessageEncoder().encode(message);
+        }
+
+    /**
+     * Creates a session that fails on any use, as the decoder shouldn't
+     * keep anything in it.
+     */
+    private static IoSession createSession()
+        {
+        final InvocationHandler handler = new InvocationHandler()
+            {
+            public Object invoke(final Object proxy, final Method method,
+                final Object[] args)
+                {
+                throw new UnsupportedOperationException(method.getName());
+                }
+            };
+        return (IoSession) Proxy.newProxyInstance(
+            IoSession.class.getClassLoader(), new Class[] {IoSession.class},
+            handler);
+        }
+    }
@@ -0,0 +1,136 @@
+package org.littleshoot.stun.stack.decoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.filter.codec.ProtocolDecoderOutput;
+import org.littleshoot.stun.stack.encoder.StunMessageEncoder;
+import org.littleshoot.stun.stack.message.BindingRequest;
+import org.littleshoot.stun.stack.message.StunMessage;
+
+/**
+ * Tests decoding pipelined STUN messages from streams.
+ */
+public class StunStreamProtocolDecoderTest extends TestCase
+    {
+
+    private final StunMessageEncoder m_encoder = new StunMessageEncoder();
+
+    private final List<StunMessage> m_decoded = new ArrayList<StunMessage>();
+
+    private final ProtocolDecoderOutput m_out = new ProtocolDecoderOutput()
+        {
+        public void write(final Object message)
+            {
+            m_decoded.add((StunMessage) message);
+            }
+
+        public void flush()
+            {
+            }
+        };
+
+    public void testSplitPipelinedMessages() throws Exception
+        {
+        final List<StunMessage> requests = requests(5);
+        final ByteBuffer stream = ByteBuffer.allocate(1024);
+        for (final StunMessage request : requests)
+            {
+            m_encoder.encode(request, stream);
+            }
+        stream.flip();
+        final byte[] bytes = new byte[stream.remaining()];
+        stream.get(bytes);
+
+        // Feed the stream in awkward pieces, carrying over whatever the
+        // decoder leaves behind as the cumulative decoder would.
+        final StunStreamProtocolDecoder decoder = 
+            new StunStreamProtocolDecoder(false);
+        feed(decoder, bytes, 7);
+        assertDecoded(requests);
+        }
+
+    public void testFramesSkippingNonStun() throws Exception
+        {
+        final List<StunMessage> requests = requests(3);
+        final ByteBuffer stream = ByteBuffer.allocate(1024);
+        for (final StunMessage request : requests)
+            {
+            // A media frame between each request.
+            stream.putShort((short) 4);
+            stream.putInt(0x80000000);
+
+            final ByteBuffer message = m_encoder.encode(request);
+            stream.putShort((short) message.remaining());
+            stream.put(message);
+            }
+        stream.flip();
+        final byte[] bytes = new byte[stream.remaining()];
+        stream.get(bytes);
+
+        feed(new StunStreamProtocolDecoder(true), bytes, 13);
+        assertDecoded(requests);
+        }
+
+    public void testRejectsNonStunWithoutFraming() throws Exception
+        {
+        final ByteBuffer buf = ByteBuffer.allocate(24);
+        buf.putInt(0x80000000);
+        buf.putInt(0);
+        buf.putLong(0);
+        buf.putLong(0);
+        buf.flip();
+        try
+            {
+            new StunStreamProtocolDecoder(false).doDecode(null, buf, m_out);
+            fail("Expected an exception");
+            }
+        catch (final java.io.IOException e)
+            {
+            // Expected.
+            }
+        }
+
+    private void feed(final StunStreamProtocolDecoder decoder, 
+        final byte[] bytes, final int chunk) throws Exception
+        {
+        byte[] leftover = new byte[0];
+        for (int i = 0; i < bytes.length; i += chunk)
+            {
+            final int length = Math.min(chunk, bytes.length - i);
+            final ByteBuffer buf = 
+                ByteBuffer.allocate(leftover.length + length);
+            buf.put(leftover);
+            buf.put(bytes, i, length);
+            buf.flip();
+            decoder.doDecode(null, buf, m_out);
+            leftover = new byte[buf.remaining()];
+            buf.get(leftover);
+            }
+        assertEquals(0, leftover.length);
+        }
+
+    private void assertDecoded(final List<StunMessage> requests)
+        {
+        assertEquals(requests.size(), m_decoded.size());
+        for (int i = 0; i < requests.size(); i++)
+            {
+            assertTrue(m_decoded.get(i) instanceof BindingRequest);
+            assertEquals(requests.get(i).getStunTransactionId(), 
+                m_decoded.get(i).getStunTransactionId());
+            }
+        }
+
+    private static List<StunMessage> requests(final int count)
+        {
+        final List<StunMessage> requests = new ArrayList<StunMessage>();
+        for (int i = 0; i < count; i++)
+            {
+            requests.add(new BindingRequest());
+            }
+        return requests;
+        }
+    }
@@ -1,14 +1,18 @@
 package org.littleshoot.stun.stack.encoder;
 
+import java.net.InetSocketAddress;
+import java.util.Arrays;
 import java.util.Random;
 
 import junit.framework.TestCase;
 
 import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.stun.stack.decoder.StunDatagramDecodingState;
 import org.littleshoot.stun.stack.message.BindingRequest;
 import org.littleshoot.stun.stack.message.attributes.StunAttribute;
 import org.littleshoot.stun.stack.message.attributes.ice.IceControlledAttribute;
 import org.littleshoot.stun.stack.message.attributes.ice.IcePriorityAttribute;
+import org.littleshoot.stun.stack.message.turn.SendIndication;
 
 public class StunMessageEncoderTest extends TestCase
     {
@@ -41,6 +45,60 @@ public class StunMessageEncoderTest extends TestCase
         
         
         
+        }
+
+    public void testEncodeIntoBuffer()
+        {
+        final StunMessageEncoder encoder = new StunMessageEncoder();
+        final BindingRequest first = 
+            new BindingRequest(new IcePriorityAttribute(1L));
+        final BindingRequest second = new BindingRequest();
+
+        final ByteBuffer buf = ByteBuffer.allocate(
+            first.getTotalLength() + second.getTotalLength());
+        encoder.encode(first, buf);
+        assertEquals(first.getTotalLength(), buf.position());
+        encoder.encode(second, buf);
+
+        // Pooled buffers can be larger than requested, so check where the
+        // second message ended rather than that the buffer is full.
+        assertEquals(first.getTotalLength() + second.getTotalLength(), 
+            buf.position());
+        buf.flip();
+
+        final ByteBuffer expected = encoder.encode(first);
+        for (int i = 0; i < first.getTotalLength(); i++)
+            {
+            assertEquals(expected.get(i), buf.get(i));
+            }
+        }
+
+    public void testEncodeGathering() throws Exception
+        {
+        final StunMessageEncoder encoder = new StunMessageEncoder();
+        final byte[] data = new byte[1000];
+        new Random().nextBytes(data);
+        final SendIndication indication = new SendIndication(
+            new InetSocketAddress("127.0.0.1", 4242), data);
+
+        final ByteBuffer payload = encoder.getGatheringData(indication);
+        assertEquals(data.length, payload.remaining());
+        assertTrue(payload.isReadOnly());
+        assertNull(encoder.getGatheringData(new BindingRequest()));
+
+        final ByteBuffer expected = encoder.encode(indication);
+        final ByteBuffer gathered = ByteBuffer.allocate(expected.remaining());
+        encoder.encodeGathering(indication, gathered);
+        assertEquals(expected.remaining() - payload.remaining(),
+            gathered.position());
+        gathered.put(payload);
+        gathered.flip();
+        assertEquals(expected, gathered);
+
+        final SendIndication decoded = (SendIndication)
+            StunDatagramDecodingState.decode(gathered);
+        assertTrue(Arrays.equals(data, decoded.getData()));
+        assertEquals(ByteBuffer.wrap(data), decoded.getDataBuffer());
         }
 
     }
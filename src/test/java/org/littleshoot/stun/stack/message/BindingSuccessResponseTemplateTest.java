@@ -0,0 +1,55 @@
+package org.littleshoot.stun.stack.message;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import junit.framework.TestCase;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.stun.stack.encoder.StunMessageEncoder;
+
+/**
+ * Tests that binding responses written from templates match encoded
+ * {@link BindingSuccessResponse}s.
+ */
+public class BindingSuccessResponseTemplateTest extends TestCase
+    {
+
+    public void testIpv4() throws Exception
+        {
+        assertMatchesEncoder(new InetSocketAddress(
+            InetAddress.getByAddress(new byte[] {(byte) 192, (byte) 168, 1, 
+                (byte) 254}), 65535));
+        }
+
+    public void testIpv6() throws Exception
+        {
+        final byte[] address = new byte[16];
+        for (int i = 0; i < address.length; i++)
+            {
+            address[i] = (byte) (0xF0 + i);
+            }
+        assertMatchesEncoder(new InetSocketAddress(
+            InetAddress.getByAddress(address), 3478));
+        }
+
+    private void assertMatchesEncoder(final InetSocketAddress address)
+        {
+        final StunTransactionId id = StunTransactionId.create();
+        final ByteBuffer expected = new StunMessageEncoder().encode(
+            new BindingSuccessResponse(id, address));
+
+        final ByteBuffer buf = ByteBuffer.allocate(100);
+        buf.put((byte) 7);
+        final int length = BindingSuccessResponseTemplate.write(id, address, 
+            buf);
+        assertEquals(expected.remaining(), length);
+        assertEquals(BindingSuccessResponseTemplate.getLength(address), 
+            length);
+        assertEquals(1 + length, buf.position());
+        for (int i = 0; i < length; i++)
+            {
+            assertEquals("Mismatch at "+i, expected.get(i), buf.get(1 + i));
+            }
+        }
+    }
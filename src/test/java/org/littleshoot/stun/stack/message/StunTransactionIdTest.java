@@ -0,0 +1,85 @@
+package org.littleshoot.stun.stack.message;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.id.uuid.UUID;
+import org.littleshoot.mina.common.ByteBuffer;
+
+/**
+ * Tests STUN transaction IDs.
+ */
+public class StunTransactionIdTest extends TestCase
+    {
+
+    public void testWriteAndRead()
+        {
+        final StunTransactionId id = StunTransactionId.create();
+        assertEquals(StunTransactionId.MAGIC_COOKIE, id.getMagicCookie());
+
+        final ByteBuffer buf = ByteBuffer.allocate(StunTransactionId.LENGTH);
+        id.write(buf);
+        assertEquals(StunTransactionId.LENGTH, buf.position());
+        buf.flip();
+        assertEquals(StunTransactionId.MAGIC_COOKIE, buf.getInt(0));
+
+        final StunTransactionId read = StunTransactionId.read(buf);
+        assertEquals(StunTransactionId.LENGTH, buf.position());
+        assertEquals(id, read);
+        assertEquals(id.hashCode(), read.hashCode());
+        assertEquals(id.toString(), read.toString());
+        }
+
+    public void testRawBytesAndUuid()
+        {
+        final byte[] raw = new byte[StunTransactionId.LENGTH];
+        for (int i = 0; i < raw.length; i++)
+            {
+            raw[i] = (byte) (0xf0 + i);
+            }
+        final StunTransactionId id = StunTransactionId.fromBytes(raw);
+
+        // The cookie here isn't the STUN magic cookie, as with RFC 3489
+        // transaction IDs, and must survive as is.
+        assertEquals(0xf0f1f2f3, id.getMagicCookie());
+        assertEquals(0xf0f1f2f3f4f5f6f7L, id.getMostSignificantBits());
+        assertEquals(0xf8f9fafbfcfdfeffL, id.getLeastSignificantBits());
+        assertEquals("f0f1f2f3f4f5f6f7f8f9fafbfcfdfeff", id.toString());
+        assertTrue(Arrays.equals(raw, id.toBytes()));
+
+        final UUID uuid = id.toUuid();
+        assertTrue(Arrays.equals(raw, uuid.getRawBytes()));
+        assertSame(uuid, id.toUuid());
+        final StunTransactionId fromUuid = StunTransactionId.fromUuid(uuid);
+        assertEquals(id, fromUuid);
+        assertSame(uuid, fromUuid.toUuid());
+        }
+
+    public void testEquality()
+        {
+        final StunTransactionId id = 
+            new StunTransactionId(StunTransactionId.MAGIC_COOKIE, 1, 2L);
+        assertEquals(id, 
+            new StunTransactionId(StunTransactionId.MAGIC_COOKIE, 1, 2L));
+        assertFalse(id.equals(new StunTransactionId(0, 1, 2L)));
+        assertFalse(id.equals(
+            new StunTransactionId(StunTransactionId.MAGIC_COOKIE, 2, 2L)));
+        assertFalse(id.equals(
+            new StunTransactionId(StunTransactionId.MAGIC_COOKIE, 1, 3L)));
+        assertFalse(id.equals(StunTransactionId.create()));
+        }
+
+    public void testBadLength()
+        {
+        try
+            {
+            StunTransactionId.fromBytes(new byte[12]);
+            fail("Expected an exception");
+            }
+        catch (final IllegalArgumentException e)
+            {
+            // Expected.
+            }
+        }
+    }
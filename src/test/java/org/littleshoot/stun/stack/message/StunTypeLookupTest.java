@@ -0,0 +1,95 @@
+package org.littleshoot.stun.stack.message;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import junit.framework.TestCase;
+
+import org.littleshoot.stun.stack.message.attributes.StunAttributeType;
+
+/**
+ * Tests the lookup tables for message and attribute types.
+ */
+public class StunTypeLookupTest extends TestCase
+    {
+
+    public void testMessageTypes() throws Exception
+        {
+        for (final StunMessageType type : StunMessageType.values())
+            {
+            assertSame(type, StunMessageType.toType(type.toInt()));
+            }
+        assertNull(StunMessageType.toType(0x0002));
+        assertNull(StunMessageType.toType(0x3FFF));
+        assertNull(StunMessageType.toType(0x4001));
+        assertNull(StunMessageType.toType(0xFFFF));
+        assertNull(StunMessageType.toType(-1));
+        }
+
+    public void testAttributeTypes() throws Exception
+        {
+        for (final StunAttributeType type : StunAttributeType.values())
+            {
+            assertSame(type, StunAttributeType.toType(type.toInt()));
+            }
+
+        // The same low bits in the other range must not match.
+        assertNull(StunAttributeType.toType(0x8001));
+        assertNull(StunAttributeType.toType(0x0021));
+        assertNull(StunAttributeType.toType(0x7FFF));
+        assertNull(StunAttributeType.toType(0xFFFF));
+        assertNull(StunAttributeType.toType(0x10001));
+        assertNull(StunAttributeType.toType(-1));
+        }
+
+    public void testLookupsDoNotAllocate() throws Exception
+        {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean))
+            {
+            // We can't count allocations on this JVM.
+            return;
+            }
+        final com.sun.management.ThreadMXBean counter =
+            (com.sun.management.ThreadMXBean) threads;
+        if (!counter.isThreadAllocatedMemorySupported() ||
+            !counter.isThreadAllocatedMemoryEnabled())
+            {
+            return;
+            }
+
+        // Warm up so we're measuring the lookups rather than class loading
+        // or the interpreter.
+        lookupAll();
+        final long id = Thread.currentThread().getId();
+        final long before = counter.getThreadAllocatedBytes(id);
+        final int found = lookupAll();
+        final long allocated = counter.getThreadAllocatedBytes(id) - before;
+
+        assertTrue(found > 0);
+
+        // Boxing each of the 2 * 64K type codes would take well over a
+        // megabyte.  Allow a little for the counter itself.
+        assertTrue("Allocated "+allocated+" bytes", allocated < 1024);
+        }
+
+    private static int lookupAll()
+        {
+        int found = 0;
+        for (int i = 0; i < 10; i++)
+            {
+            for (int type = 0; type <= 0xFFFF; type++)
+                {
+                if (StunMessageType.toType(type) != null)
+                    {
+                    found++;
+                    }
+                if (StunAttributeType.toType(type) != null)
+                    {
+                    found++;
+                    }
+                }
+            }
+        return found;
+        }
+    }
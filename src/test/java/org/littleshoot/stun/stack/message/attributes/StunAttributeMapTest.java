@@ -0,0 +1,92 @@
+package org.littleshoot.stun.stack.message.attributes;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.stun.stack.decoder.StunDatagramDecodingState;
+import org.littleshoot.stun.stack.encoder.StunMessageEncoder;
+import org.littleshoot.stun.stack.message.BindingRequest;
+import org.littleshoot.stun.stack.message.StunMessage;
+import org.littleshoot.stun.stack.message.StunTransactionId;
+import org.littleshoot.stun.stack.message.attributes.ice.IcePriorityAttribute;
+import org.littleshoot.stun.stack.message.attributes.ice.IceUseCandidateAttribute;
+
+/**
+ * Tests the array-backed attributes map.
+ */
+public class StunAttributeMapTest extends TestCase
+    {
+
+    public void testCreate() throws Exception
+        {
+        final StunAttribute priority = new IcePriorityAttribute(1L);
+        final StunAttribute useCandidate = new IceUseCandidateAttribute();
+        final StunAttribute mapped = new MappedAddressAttribute(
+            new InetSocketAddress(InetAddress.getByAddress(
+                new byte[] {10, 0, 0, 1}), 5060));
+        final StunAttribute replacement = new IcePriorityAttribute(2L);
+
+        final StunAttributeMap attributes = StunAttributeMap.create(
+            priority, useCandidate, mapped, replacement);
+
+        assertEquals(3, attributes.size());
+        assertSame(replacement, 
+            attributes.get(StunAttributeType.ICE_PRIORITY));
+        assertSame(mapped, attributes.get(StunAttributeType.MAPPED_ADDRESS));
+        assertNull(attributes.get(StunAttributeType.ERROR_CODE));
+        assertFalse(attributes.containsKey(StunAttributeType.ERROR_CODE));
+        assertEquals(replacement.getTotalLength() + 
+            useCandidate.getTotalLength() + mapped.getTotalLength(), 
+            attributes.getBodyLength());
+
+        // Iteration follows the order attributes were given.
+        final Iterator<Map.Entry<StunAttributeType, StunAttribute>> iter =
+            attributes.entrySet().iterator();
+        assertEquals(StunAttributeType.ICE_PRIORITY, iter.next().getKey());
+        assertEquals(StunAttributeType.ICE_USE_CANDIDATE, 
+            iter.next().getKey());
+        assertEquals(StunAttributeType.MAPPED_ADDRESS, iter.next().getKey());
+        assertFalse(iter.hasNext());
+        }
+
+    public void testEmpty() throws Exception
+        {
+        assertSame(StunAttributeMap.EMPTY, StunAttributeMap.create());
+        assertTrue(StunAttributeMap.EMPTY.isEmpty());
+        assertNull(StunAttributeMap.EMPTY.get(StunAttributeType.DATA));
+        assertEquals(0, StunAttributeMap.EMPTY.getBodyLength());
+        }
+
+    public void testMessageFromPlainMap() throws Exception
+        {
+        final StunAttribute priority = new IcePriorityAttribute(7L);
+        final Map<StunAttributeType, StunAttribute> plain = 
+            new HashMap<StunAttributeType, StunAttribute>();
+        plain.put(StunAttributeType.ICE_PRIORITY, priority);
+
+        final StunMessage request = 
+            new BindingRequest(StunTransactionId.create(), plain);
+        assertEquals(priority.getTotalLength(), request.getBodyLength());
+        assertEquals(20 + priority.getTotalLength(), request.getTotalLength());
+        assertSame(priority, 
+            request.getAttributes().get(StunAttributeType.ICE_PRIORITY));
+
+        final ByteBuffer encoded = new StunMessageEncoder().encode(request);
+        final StunMessage decoded = StunDatagramDecodingState.decode(encoded);
+        assertEquals(request.getStunTransactionId(), 
+            decoded.getStunTransactionId());
+        assertEquals(request.getBodyLength(), decoded.getBodyLength());
+
+        final Map<StunAttributeType, StunAttribute> empty = 
+            Collections.emptyMap();
+        assertEquals(0, new BindingRequest(StunTransactionId.create(), 
+            empty).getBodyLength());
+        }
+    }
@@ -0,0 +1,180 @@
+package org.littleshoot.stun.stack.nio;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.IoSession;
+import org.littleshoot.stun.stack.BlockingStunClient;
+import org.littleshoot.stun.stack.decoder.StunDatagramDecodingState;
+import org.littleshoot.stun.stack.encoder.StunMessageEncoder;
+import org.littleshoot.stun.stack.message.BindingRequest;
+import org.littleshoot.stun.stack.message.BindingSuccessResponse;
+import org.littleshoot.stun.stack.message.StunMessage;
+import org.littleshoot.stun.stack.message.StunMessageVisitor;
+import org.littleshoot.stun.stack.message.StunTransactionId;
+import org.littleshoot.stun.stack.message.StunMessageVisitorAdapter;
+import org.littleshoot.stun.stack.message.StunMessageVisitorFactory;
+import org.littleshoot.stun.stack.transaction.StunMessageSender;
+import org.littleshoot.stun.stack.transaction.StunTransactionTrackerImpl;
+
+/**
+ * Tests running an ordinary visitor on the NIO engine.
+ */
+public class NioStunEngineTest extends TestCase
+    {
+
+    public void testAnswersBindingRequests() throws Exception
+        {
+        final NioStunEngine engine = new NioStunEngine(
+            new InetSocketAddress("127.0.0.1", 0), new BindingFactory());
+        engine.start();
+        final BlockingStunClient client = new BlockingStunClient(
+            new InetSocketAddress("127.0.0.1", 0), 
+            new StunTransactionTrackerImpl());
+        try
+            {
+            for (int i = 0; i < 3; i++)
+                {
+                assertEquals(client.getLocalAddress(), 
+                    client.getServerReflexiveAddress(
+                        engine.getLocalAddress()));
+                }
+            assertEquals(3, engine.getReceivedCount());
+
+            // The engine counts the send after the client may have seen it.
+            for (int i = 0; i < 100 && engine.getSentCount() < 3; i++)
+                {
+                Thread.sleep(10);
+                }
+            assertEquals(3, engine.getSentCount());
+            }
+        finally
+            {
+            client.close();
+            engine.close();
+            }
+        }
+    
+    public void testAnswersEveryDatagramAcrossBatches() throws Exception
+        {
+        final DatagramChannel channel = DatagramChannel.open();
+        channel.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        final NioStunEngine engine = 
+            new NioStunEngine(channel, new BindingFactory(), 4);
+        final DatagramSocket socket = new DatagramSocket(
+            new InetSocketAddress("127.0.0.1", 0));
+        socket.setSoTimeout(5000);
+        try
+            {
+            // Queue the requests before the engine starts, so it has to
+            // handle them as several full batches and a partial one.
+            final Set<StunTransactionId> ids = 
+                new HashSet<StunTransactionId>();
+            final StunMessageEncoder encoder = new StunMessageEncoder();
+            for (int i = 0; i < 10; i++)
+                {
+                final BindingRequest request = new BindingRequest();
+                ids.add(request.getStunTransactionId());
+                final ByteBuffer buf = encoder.encode(request);
+                final byte[] bytes = new byte[buf.remaining()];
+                buf.get(bytes);
+                socket.send(new DatagramPacket(bytes, bytes.length, 
+                    engine.getLocalAddress()));
+                }
+            engine.start();
+            final DatagramPacket packet = 
+                new DatagramPacket(new byte[1500], 1500);
+            for (int i = 0; i < 10; i++)
+                {
+                socket.receive(packet);
+                final StunMessage response = StunDatagramDecodingState.decode(
+                    ByteBuffer.wrap(packet.getData(), 0, packet.getLength()));
+                assertTrue(response instanceof BindingSuccessResponse);
+                assertTrue(ids.remove(response.getStunTransactionId()));
+                }
+            assertTrue(ids.isEmpty());
+            }
+        finally
+            {
+            socket.close();
+            engine.close();
+            }
+        }
+
+    public void testRunsSessionVisitors() throws Exception
+        {
+        final DatagramChannel channel = DatagramChannel.open();
+        channel.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        final InetSocketAddress local = 
+            (InetSocketAddress) channel.socket().getLocalSocketAddress();
+        final NioStunEngine engine = new NioStunEngine(channel, 
+            new SessionVisitorFactoryAdapter<Void>(
+                new SessionBindingFactory(), local), 
+            NioStunEngine.DEFAULT_BATCH_SIZE);
+        engine.start();
+        final BlockingStunClient client = new BlockingStunClient(
+            new InetSocketAddress("127.0.0.1", 0), 
+            new StunTransactionTrackerImpl());
+        try
+            {
+            assertEquals(client.getLocalAddress(), 
+                client.getServerReflexiveAddress(local));
+            }
+        finally
+            {
+            client.close();
+            engine.close();
+            }
+        }
+
+    /**
+     * An ordinary MINA visitor factory, answering through the session.
+     */
+    private static final class SessionBindingFactory 
+        implements StunMessageVisitorFactory<Void>
+        {
+        public StunMessageVisitor<Void> createVisitor(final IoSession session)
+            {
+            assertTrue(session.getTransportType().isConnectionless());
+            return new StunMessageVisitorAdapter<Void>()
+                {
+                @Override
+                public Void visitBindingRequest(final BindingRequest request)
+                    {
+                    assertTrue(session.write(new BindingSuccessResponse(
+                        request.getStunTransactionId(), 
+                        (InetSocketAddress) session.getRemoteAddress()))
+                        .isWritten());
+                    return null;
+                    }
+                };
+            }
+        }
+
+    private static final class BindingFactory 
+        implements NioStunVisitorFactory<Void>
+        {
+        public StunMessageVisitor<Void> createVisitor(
+            final InetSocketAddress remoteAddress, 
+            final StunMessageSender sender)
+            {
+            return new StunMessageVisitorAdapter<Void>()
+                {
+                @Override
+                public Void visitBindingRequest(final BindingRequest request)
+                    {
+                    sender.send(new BindingSuccessResponse(
+                        request.getStunTransactionId(), remoteAddress));
+                    return null;
+                    }
+                };
+            }
+        }
+    }
@@ -0,0 +1,84 @@
+package org.littleshoot.stun.stack.nio;
+
+import java.net.InetSocketAddress;
+
+import junit.framework.TestCase;
+
+import org.littleshoot.stun.stack.BlockingStunClient;
+import org.littleshoot.stun.stack.message.BindingRequest;
+import org.littleshoot.stun.stack.message.BindingSuccessResponse;
+import org.littleshoot.stun.stack.message.StunMessageVisitor;
+import org.littleshoot.stun.stack.message.StunMessageVisitorAdapter;
+import org.littleshoot.stun.stack.transaction.StunMessageSender;
+import org.littleshoot.stun.stack.transaction.StunTransactionTrackerImpl;
+
+/**
+ * Tests that all shards share one port and that every request is counted
+ * by exactly one shard.
+ */
+public class ShardedNioStunServerTest extends TestCase
+    {
+
+    public void testShardsShareOnePort() throws Exception
+        {
+        final ShardedNioStunServer server = new ShardedNioStunServer(
+            new InetSocketAddress("127.0.0.1", 0), new BindingFactory(), 4);
+        server.start();
+        final int port = server.getLocalAddress().getPort();
+        for (final NioStunEngine shard : server.getShards())
+            {
+            assertEquals(port, shard.getLocalAddress().getPort());
+            }
+
+        final int clients = 8;
+        try
+            {
+            for (int i = 0; i < clients; i++)
+                {
+                final BlockingStunClient client = new BlockingStunClient(
+                    new InetSocketAddress("127.0.0.1", 0), 
+                    new StunTransactionTrackerImpl());
+                try
+                    {
+                    assertEquals(client.getLocalAddress(), 
+                        client.getServerReflexiveAddress(
+                            server.getLocalAddress()));
+                    }
+                finally
+                    {
+                    client.close();
+                    }
+                }
+            long total = 0;
+            for (final long count : server.getReceivedCounts())
+                {
+                total += count;
+                }
+            assertEquals(clients, total);
+            }
+        finally
+            {
+            server.close();
+            }
+        }
+
+    private static final class BindingFactory 
+        implements NioStunVisitorFactory<Void>
+        {
+        public StunMessageVisitor<Void> createVisitor(
+            final InetSocketAddress remoteAddress, 
+            final StunMessageSender sender)
+            {
+            return new StunMessageVisitorAdapter<Void>()
+                {
+                @Override
+                public Void visitBindingRequest(final BindingRequest request)
+                    {
+                    sender.send(new BindingSuccessResponse(
+                        request.getStunTransactionId(), remoteAddress));
+                    return null;
+                    }
+                };
+            }
+        }
+    }
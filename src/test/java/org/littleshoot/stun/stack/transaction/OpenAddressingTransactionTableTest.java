@@ -0,0 +1,89 @@
+package org.littleshoot.stun.stack.transaction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.littleshoot.stun.stack.message.StunTransactionId;
+
+/**
+ * Tests the open addressing transaction table against a {@link HashMap}.
+ */
+public class OpenAddressingTransactionTableTest extends TestCase
+    {
+
+    public void testMatchesHashMap() throws Exception
+        {
+        final TransactionTable<Integer> table = 
+            new OpenAddressingTransactionTable<Integer>(2, 2);
+        final Map<StunTransactionId, Integer> expected = 
+            new HashMap<StunTransactionId, Integer>();
+        final List<StunTransactionId> ids = new ArrayList<StunTransactionId>();
+        final Random random = new Random(42);
+        for (int i = 0; i < 2000; i++)
+            {
+            // Few distinct high bits so IDs collide in interesting ways.
+            ids.add(new StunTransactionId(StunTransactionId.MAGIC_COOKIE, 
+                random.nextInt(4), random.nextInt(5000)));
+            }
+
+        for (int i = 0; i < 50000; i++)
+            {
+            final StunTransactionId id = ids.get(random.nextInt(ids.size()));
+            final int op = random.nextInt(3);
+            if (op == 0)
+                {
+                final Integer value = Integer.valueOf(i);
+                assertEquals(expected.put(id, value), table.put(id, value));
+                }
+            else if (op == 1)
+                {
+                assertEquals(expected.remove(id), table.remove(id));
+                }
+            else
+                {
+                assertEquals(expected.get(id), table.get(id));
+                }
+            }
+        for (final StunTransactionId id : ids)
+            {
+            assertEquals(expected.get(id), table.get(id));
+            }
+        }
+
+    public void testLargeSingleStripe() throws Exception
+        {
+        final OpenAddressingTransactionTable<Integer> table = 
+            new OpenAddressingTransactionTable<Integer>(1, 16);
+        final List<StunTransactionId> ids = new ArrayList<StunTransactionId>();
+        for (int i = 0; i < 150000; i++)
+            {
+            final StunTransactionId id = StunTransactionId.create();
+            ids.add(id);
+            assertNull(table.put(id, Integer.valueOf(i)));
+            }
+
+        // The stripe has grown well past 64K slots, so every part of it
+        // must be used for probe sequences to stay short.
+        assertTrue("Probe length: "+table.maxProbeLength(), 
+            table.maxProbeLength() < 100);
+
+        for (int i = 0; i < ids.size(); i++)
+            {
+            assertEquals(Integer.valueOf(i), table.get(ids.get(i)));
+            }
+        for (int i = 0; i < ids.size(); i += 2)
+            {
+            assertEquals(Integer.valueOf(i), table.remove(ids.get(i)));
+            }
+        for (int i = 0; i < ids.size(); i++)
+            {
+            final Integer expected = i % 2 == 0 ? null : Integer.valueOf(i);
+            assertEquals(expected, table.get(ids.get(i)));
+            }
+        }
+    }
@@ -0,0 +1,56 @@
+package org.littleshoot.stun.stack.transaction;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests round trip time estimates.
+ */
+public class RttEstimatorTest extends TestCase
+    {
+
+    private final InetSocketAddress m_fast = 
+        new InetSocketAddress("127.0.0.1", 3478);
+    private final InetSocketAddress m_slow = 
+        new InetSocketAddress("127.0.0.2", 3478);
+
+    public void testRto() throws Exception
+        {
+        final RttEstimator estimator = new RttEstimator();
+        assertEquals(500, estimator.getRto(m_fast, 500));
+
+        // The first sample gives SRTT = R and RTTVAR = R/2, so RTO = 3R.
+        estimator.addSample(m_slow, TimeUnit.MILLISECONDS.toNanos(400));
+        assertEquals(1200, estimator.getRto(m_slow, 500));
+
+        // Steady samples shrink the variance toward zero.
+        for (int i = 0; i < 100; i++)
+            {
+            estimator.addSample(m_fast, TimeUnit.MILLISECONDS.toNanos(200));
+            }
+        final long rto = estimator.getRto(m_fast, 500);
+        assertTrue("Unexpected RTO: "+rto, rto >= 200 && rto < 210);
+
+        // Very fast paths are clamped.
+        estimator.addSample(new InetSocketAddress("127.0.0.3", 1), 1000);
+        assertEquals(RttEstimator.MIN_RTO, estimator.getRto(
+            new InetSocketAddress("127.0.0.3", 1), 500));
+        }
+
+    public void testEvictsLeastRecentlyUsed() throws Exception
+        {
+        final RttEstimator estimator = new RttEstimator(2);
+        final InetSocketAddress third = 
+            new InetSocketAddress("127.0.0.3", 3478);
+        estimator.addSample(m_fast, TimeUnit.MILLISECONDS.toNanos(200));
+        estimator.addSample(m_slow, TimeUnit.MILLISECONDS.toNanos(200));
+        estimator.getRto(m_fast, 500);
+        estimator.addSample(third, TimeUnit.MILLISECONDS.toNanos(200));
+
+        assertEquals(500, estimator.getRto(m_slow, 500));
+        assertEquals(600, estimator.getRto(m_fast, 500));
+        assertEquals(600, estimator.getRto(third, 500));
+        }
+    }
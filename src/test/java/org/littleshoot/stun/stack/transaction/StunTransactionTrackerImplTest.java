@@ -0,0 +1,246 @@
+package org.littleshoot.stun.stack.transaction;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.littleshoot.mina.common.IoSession;
+import org.littleshoot.mina.common.TransportType;
+import org.littleshoot.stun.stack.message.BindingRequest;
+import org.littleshoot.stun.stack.message.BindingSuccessResponse;
+import org.littleshoot.stun.stack.message.CanceledStunMessage;
+import org.littleshoot.stun.stack.message.NullStunMessage;
+import org.littleshoot.stun.stack.message.StunMessage;
+
+/**
+ * Tests retransmission and timeouts in the transaction tracker.
+ */
+public class StunTransactionTrackerImplTest extends TestCase
+    {
+
+    private final InetSocketAddress m_address = 
+        new InetSocketAddress("127.0.0.1", 3478);
+
+    private HashedWheelTimer m_timer;
+
+    @Override
+    protected void setUp() throws Exception
+        {
+        m_timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 64);
+        }
+
+    @Override
+    protected void tearDown() throws Exception
+        {
+        m_timer.stop();
+        }
+
+    public void testRetransmitsThenTimesOut() throws Exception
+        {
+        final StunTransactionTrackerImpl tracker = 
+            new StunTransactionTrackerImpl(m_timer, 5, 4, 2);
+        final AtomicInteger writes = new AtomicInteger();
+        final RecordingListener listener = new RecordingListener();
+        final BindingRequest request = new BindingRequest();
+
+        tracker.addTransaction(request, listener, m_address, m_address, 
+            session(writes, TransportType.DATAGRAM));
+        assertEquals(1, writes.get());
+        assertTrue(listener.m_done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(4, writes.get());
+        assertEquals(1, tracker.getExpiredCount());
+        assertTrue(listener.m_response instanceof NullStunMessage);
+        assertFalse(listener.m_succeeded);
+        assertRemoved(tracker, request);
+        }
+
+    public void testResponseStopsRetransmissions() throws Exception
+        {
+        final StunTransactionTrackerImpl tracker = 
+            new StunTransactionTrackerImpl(m_timer, 20, 7, 16);
+        final AtomicInteger writes = new AtomicInteger();
+        final RecordingListener listener = new RecordingListener();
+        final BindingRequest request = new BindingRequest();
+
+        tracker.addTransaction(request, listener, m_address, m_address, 
+            session(writes, TransportType.DATAGRAM));
+        final BindingSuccessResponse response = new BindingSuccessResponse(
+            request.getStunTransactionId(), m_address);
+        response.accept(tracker.getClientTransaction(request));
+        assertTrue(listener.m_done.await(5, TimeUnit.SECONDS));
+        assertTrue(listener.m_succeeded);
+        assertRemoved(tracker, request);
+
+        Thread.sleep(100);
+        assertEquals(1, writes.get());
+        assertEquals(1, tracker.getMatchedCount());
+        assertEquals(0, tracker.getExpiredCount());
+        }
+
+    public void testSendsOnceOverReliableTransport() throws Exception
+        {
+        final StunTransactionTrackerImpl tracker = 
+            new StunTransactionTrackerImpl(m_timer, 5, 4, 2);
+        final AtomicInteger writes = new AtomicInteger();
+        final RecordingListener listener = new RecordingListener();
+        final BindingRequest request = new BindingRequest();
+
+        final long start = System.nanoTime();
+        tracker.addTransaction(request, listener, m_address, m_address, 
+            session(writes, TransportType.SOCKET));
+        assertTrue(listener.m_done.await(5, TimeUnit.SECONDS));
+
+        // We still wait as long as all the retransmissions would have 
+        // taken: 5 + 10 + 20 + 2 * 5 milliseconds.
+        assertTrue(System.nanoTime() - start >= 
+            TimeUnit.MILLISECONDS.toNanos(45));
+        assertEquals(1, writes.get());
+        assertEquals(1, tracker.getExpiredCount());
+        assertTrue(listener.m_response instanceof NullStunMessage);
+        assertRemoved(tracker, request);
+        }
+
+    public void testCancelTransaction() throws Exception
+        {
+        final StunTransactionTrackerImpl tracker = 
+            new StunTransactionTrackerImpl(m_timer, 20, 7, 16);
+        final AtomicInteger writes = new AtomicInteger();
+        final RecordingListener listener = new RecordingListener();
+        final BindingRequest request = new BindingRequest();
+
+        tracker.addTransaction(request, listener, m_address, m_address, 
+            session(writes, TransportType.DATAGRAM));
+        assertTrue(tracker.cancelTransaction(request));
+        assertTrue(listener.m_done.await(5, TimeUnit.SECONDS));
+        assertTrue(listener.m_response instanceof CanceledStunMessage);
+        assertRemoved(tracker, request);
+        assertFalse(tracker.cancelTransaction(request));
+
+        Thread.sleep(100);
+        assertEquals(1, writes.get());
+        }
+
+    public void testEvictsOldestWhenFull() throws Exception
+        {
+        final StunTransactionTrackerImpl tracker = 
+            new StunTransactionTrackerImpl(m_timer, 10000, 7, 16, 2);
+        final RecordingListener first = new RecordingListener();
+        final BindingRequest firstRequest = new BindingRequest();
+        tracker.addTransaction(firstRequest, first, m_address, m_address);
+        final BindingRequest second = new BindingRequest();
+        tracker.addTransaction(second, new RecordingListener(), m_address, 
+            m_address);
+        assertEquals(0, tracker.getEvictedCount());
+
+        tracker.addTransaction(new BindingRequest(), new RecordingListener(), 
+            m_address, m_address);
+        assertTrue(first.m_done.await(5, TimeUnit.SECONDS));
+        assertTrue(first.m_response instanceof CanceledStunMessage);
+        assertEquals(1, tracker.getEvictedCount());
+        assertEquals(2, tracker.getTransactionCount());
+        assertNull(tracker.getClientTransaction(firstRequest));
+        assertNotNull(tracker.getClientTransaction(second));
+        }
+
+    public void testCompletedTransactionsAreUnlinked() throws Exception
+        {
+        final StunTransactionTrackerImpl tracker = 
+            new StunTransactionTrackerImpl(m_timer, 10000, 7, 16, 1000);
+
+        // A transaction that stays outstanding ahead of all the others 
+        // mustn't keep the completed ones reachable.
+        final BindingRequest live = new BindingRequest();
+        tracker.addTransaction(live, new RecordingListener(), m_address, 
+            m_address);
+        for (int i = 0; i < 10000; i++)
+            {
+            final BindingRequest request = new BindingRequest();
+            final RecordingListener listener = new RecordingListener();
+            tracker.addTransaction(request, listener, m_address, m_address);
+            new BindingSuccessResponse(request.getStunTransactionId(), 
+                m_address).accept(tracker.getClientTransaction(request));
+            assertTrue(listener.m_succeeded);
+            }
+        assertEquals(1, tracker.getTransactionCount());
+        assertEquals(1, tracker.getAgeListLength());
+        assertNotNull(tracker.getClientTransaction(live));
+
+        assertTrue(tracker.cancelTransaction(live));
+        assertEquals(0, tracker.getAgeListLength());
+        }
+
+    private static void assertRemoved(final StunTransactionTracker tracker,
+        final StunMessage request) throws InterruptedException
+        {
+        // The tracker hears about the outcome after our listener does.
+        for (int i = 0; i < 100; i++)
+            {
+            if (tracker.getClientTransaction(request) == null)
+                {
+                return;
+                }
+            Thread.sleep(10);
+            }
+        fail("Transaction was not removed");
+        }
+
+    private static IoSession session(final AtomicInteger writes, 
+        final TransportType transportType)
+        {
+        return (IoSession) Proxy.newProxyInstance(
+            IoSession.class.getClassLoader(), new Class[] {IoSession.class},
+            new InvocationHandler()
+                {
+                public Object invoke(final Object proxy, final Method method,
+                    final Object[] args)
+                    {
+                    if (method.getName().equals("write"))
+                        {
+                        writes.incrementAndGet();
+                        }
+                    else if (method.getName().equals("isClosing"))
+                        {
+                        return Boolean.FALSE;
+                        }
+                    else if (method.getName().equals("getTransportType"))
+                        {
+                        return transportType;
+                        }
+                    return null;
+                    }
+                });
+        }
+
+    private static final class RecordingListener 
+        implements StunTransactionListener<Object>
+        {
+
+        private final CountDownLatch m_done = new CountDownLatch(1);
+        private volatile StunMessage m_response;
+        private volatile boolean m_succeeded;
+
+        public Object onTransactionSucceeded(final StunMessage request,
+            final StunMessage response)
+            {
+            m_response = response;
+            m_succeeded = true;
+            m_done.countDown();
+            return null;
+            }
+
+        public Object onTransactionFailed(final StunMessage request,
+            final StunMessage response)
+            {
+            m_response = response;
+            m_done.countDown();
+            return null;
+            }
+        }
+    }